@@ -0,0 +1,112 @@
+package benchmarks;
+
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import automail.MailItem;
+import automail.Robot;
+import automail.Simulation;
+import automail.SimulationContext;
+import exceptions.BreakingFragileItemException;
+import exceptions.ItemTooHeavyException;
+import strategies.IMailPool;
+
+/**
+ * Cost of IMailPool.addToPool and of loading one waiting robot, as the pool grows.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class MailPoolBenchmark {
+
+	@State(Scope.Thread)
+	public static class Workload {
+
+		@Param({"strategies.MailPool", "strategies.IndexedMailPool", "strategies.AgeAwareMailPool", "strategies.ConcurrentMailPool", "strategies.CompactMailPool"})
+		public String pool;
+
+		@Param({"100", "1000", "10000"})
+		public int poolSize;
+
+		SimulationContext context;
+		Properties properties;
+		MailItem[] mail;
+
+		@Setup(Level.Trial)
+		public void generate() {
+			context = Workloads.context();
+			properties = Workloads.properties(false, false);
+			mail = Workloads.mail(context, poolSize, false, 30006);
+		}
+	}
+
+	/** The robots loaded by each step measured, which takes two items from the pool at most for each */
+	static final int LOADS = 100;
+
+	/**
+	 * A pool holding poolSize items, and up to two more for each robot, with LOADS fresh
+	 * robots waiting before every step. The set-up is shared by LOADS loads, so its cost and
+	 * the timing around it are small beside the step's.
+	 */
+	@State(Scope.Thread)
+	public static class Loading {
+
+		IMailPool mailPool;
+		private int added;
+
+		@Setup(Level.Iteration)
+		public void fill(Workload workload) throws ReflectiveOperationException {
+			mailPool = Workloads.pool(workload.pool, LOADS);
+			for (MailItem mailItem : workload.mail) mailPool.addToPool(mailItem);
+			added = 0;
+		}
+
+		@Setup(Level.Invocation)
+		public void registerRobots(Workload workload) {
+			while (mailPool.size() < workload.poolSize + 2 * LOADS) {
+				mailPool.addToPool(workload.mail[added++ % workload.poolSize]);
+			}
+			for (int i = 0; i < LOADS; i++) {
+				mailPool.registerWaiting(new Robot(new Simulation.ReportDelivery(workload.context), mailPool,
+						workload.context, workload.properties));
+			}
+		}
+	}
+
+	/**
+	 * Fills an empty pool with poolSize items, one addToPool at a time
+	 */
+	@Benchmark
+	public IMailPool addToPool(Workload workload) throws ReflectiveOperationException {
+		IMailPool mailPool = Workloads.pool(workload.pool, 1);
+		for (MailItem mailItem : workload.mail) mailPool.addToPool(mailItem);
+		return mailPool;
+	}
+
+	/**
+	 * A pool step which loads LOADS waiting robots from a pool holding poolSize items and up to
+	 * 2 * LOADS more, scored per robot loaded
+	 */
+	@Benchmark
+	@OperationsPerInvocation(LOADS)
+	public IMailPool step(Loading loading) throws ItemTooHeavyException, BreakingFragileItemException {
+		loading.mailPool.step();
+		return loading.mailPool;
+	}
+}
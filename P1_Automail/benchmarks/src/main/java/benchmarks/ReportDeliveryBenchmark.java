@@ -0,0 +1,59 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import automail.MailItem;
+import automail.Simulation;
+import automail.SimulationContext;
+
+/**
+ * Cost of ReportDelivery.deliver once a given number of items have already been delivered.
+ * Each measured batch delivers BATCH new items into a freshly prepared ledger.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 5, batchSize = ReportDeliveryBenchmark.BATCH)
+@Measurement(iterations = 20, batchSize = ReportDeliveryBenchmark.BATCH)
+public class ReportDeliveryBenchmark {
+
+	static final int BATCH = 1000;
+
+	@Param({"1000", "10000", "100000"})
+	public int delivered;
+
+	private Simulation.ReportDelivery delivery;
+	private MailItem[] mail;
+	private int next;
+
+	@Setup(Level.Iteration)
+	public void prepare() {
+		SimulationContext context = Workloads.context();
+		delivery = new Simulation.ReportDelivery(context);
+		for (MailItem mailItem : Workloads.mail(context, delivered, false, 1)) {
+			delivery.deliver(mailItem);
+		}
+		mail = Workloads.mail(context, BATCH, false, 2);
+		next = 0;
+	}
+
+	@Benchmark
+	public Simulation.ReportDelivery deliver() {
+		delivery.deliver(mail[next++]);
+		return delivery;
+	}
+}
@@ -0,0 +1,105 @@
+package benchmarks;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import automail.IMailDelivery;
+import automail.MailItem;
+import automail.Robot;
+import automail.Robot.RobotState;
+import automail.SimulationContext;
+import exceptions.BreakingFragileItemException;
+import exceptions.ExcessiveDeliveryException;
+import exceptions.ItemTooHeavyException;
+import strategies.IMailPool;
+
+/**
+ * Cost of a single Robot.step() from each RobotState.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class RobotStepBenchmark {
+
+	@Param({"WAITING", "DELIVERING", "WRAP_STAGE_1", "WRAP_STAGE_2", "DELIVER_FRAGILE", "RETURNING", "HOLD"})
+	public RobotState state;
+
+	/** Accepts robots and returned mail without keeping them */
+	private static class NullMailPool implements IMailPool {
+		public void addToPool(MailItem mailItem) {}
+		public void step() {}
+		public void registerWaiting(Robot robot) {}
+		public int size() { return 0; }
+		public int waitingRobots() { return 0; }
+		public List<MailItem> snapshotMail() { return Collections.emptyList(); }
+		public List<Robot> snapshotRobots() { return Collections.emptyList(); }
+	}
+
+	/** Counts deliveries without keeping the items */
+	private static class CountingDelivery implements IMailDelivery {
+		int count;
+		public void deliver(MailItem mailItem) { count++; }
+		public void reject(MailItem mailItem) { count++; }
+	}
+
+	private SimulationContext context;
+	private Properties properties;
+	private IMailPool mailPool;
+	private CountingDelivery delivery;
+	private Robot robot;
+
+	@Setup(Level.Trial)
+	public void configure() {
+		context = Workloads.context();
+		properties = Workloads.properties(true, true);
+		mailPool = new NullMailPool();
+		delivery = new CountingDelivery();
+	}
+
+	/**
+	 * Loads a fresh robot with a fragile item for floor 2 and steps it until it is in the
+	 * state being measured: DELIVERING, WRAP_STAGE_1, WRAP_STAGE_2, DELIVERING (on the way
+	 * to floor 2), DELIVER_FRAGILE, then RETURNING.
+	 */
+	@Setup(Level.Invocation)
+	public void prepare() throws ItemTooHeavyException, ExcessiveDeliveryException {
+		robot = new Robot(delivery, mailPool, context, properties);
+		if (state == RobotState.HOLD || state == RobotState.WAITING) {
+			robot.current_state = state;
+			return;
+		}
+		robot.addToSpecialHand(new MailItem(2, 1, 500, true, context));
+		robot.dispatch();
+		robot.current_state = RobotState.WAITING;
+		robot.step();
+		int steps = 0;
+		while (robot.current_state != state || (state == RobotState.DELIVERING && steps < 3)) {
+			robot.step();
+			steps++;
+		}
+	}
+
+	@Benchmark
+	public Robot step() throws ExcessiveDeliveryException {
+		robot.step();
+		return robot;
+	}
+}
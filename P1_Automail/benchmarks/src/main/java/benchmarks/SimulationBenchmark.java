@@ -0,0 +1,67 @@
+package benchmarks;
+
+import java.io.IOException;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import automail.Simulation;
+import automail.SimulationResult;
+import events.SilentEventSink;
+import exceptions.BreakingFragileItemException;
+import exceptions.ExcessiveDeliveryException;
+import exceptions.ItemTooHeavyException;
+
+/**
+ * A whole simulation run with the automail.properties workload and a silent event sink.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class SimulationBenchmark {
+
+	@Param({"false", "true"})
+	public boolean fragile;
+
+	@Param({"false", "true"})
+	public boolean caution;
+
+	@Param({"tick", "event"})
+	public String engine;
+
+	@Param({"200", "2000"})
+	public int mailToCreate;
+
+	@Param({"objects", "arrays"})
+	public String fleet;
+
+	private Properties properties;
+
+	@Setup(Level.Trial)
+	public void configure() {
+		properties = Workloads.properties(fragile, caution);
+		properties.setProperty("Engine", engine);
+		properties.setProperty("Mail_to_Create", String.valueOf(mailToCreate));
+		properties.setProperty("Fleet", fleet);
+	}
+
+	@Benchmark
+	public SimulationResult run() throws ExcessiveDeliveryException, ItemTooHeavyException, BreakingFragileItemException, IOException {
+		return new Simulation(properties, 30006, new SilentEventSink()).run();
+	}
+}
@@ -0,0 +1,65 @@
+package benchmarks;
+
+import java.util.Properties;
+import java.util.Random;
+
+import automail.MailItem;
+import automail.Robot;
+import automail.SimulationContext;
+import events.SilentEventSink;
+import strategies.IMailPool;
+
+/**
+ * Shared set-up for the benchmarks: properties matching automail.properties, and seeded mail.
+ */
+final class Workloads {
+
+	static final int FLOORS = 12;
+	static final int LAST_DELIVERY_TIME = 120;
+
+	private Workloads() {
+	}
+
+	/**
+	 * @return the properties from automail.properties, with a silent event sink
+	 */
+	static Properties properties(boolean fragile, boolean caution) {
+		Properties properties = new Properties();
+		properties.setProperty("Seed", "30006");
+		properties.setProperty("Floors", String.valueOf(FLOORS));
+		properties.setProperty("Mail_to_Create", "200");
+		properties.setProperty("Mail_Max_Weight", "2000");
+		properties.setProperty("Last_Delivery_Time", String.valueOf(LAST_DELIVERY_TIME));
+		properties.setProperty("Robots", "3");
+		properties.setProperty("Caution", String.valueOf(caution));
+		properties.setProperty("Fragile", String.valueOf(fragile));
+		properties.setProperty("Statistics", "false");
+		properties.setProperty("Event_Sink", "silent");
+		properties.setProperty("Engine", "tick");
+		return properties;
+	}
+
+	static SimulationContext context() {
+		return new SimulationContext(FLOORS, LAST_DELIVERY_TIME, new SilentEventSink());
+	}
+
+	/**
+	 * @return mail with random destinations and weights a robot can carry
+	 */
+	static MailItem[] mail(SimulationContext context, int count, boolean fragile, long seed) {
+		Random random = new Random(seed);
+		MailItem[] mail = new MailItem[count];
+		for (int i = 0; i < count; i++) {
+			mail[i] = new MailItem(1 + random.nextInt(FLOORS), 1 + random.nextInt(LAST_DELIVERY_TIME),
+					200 + random.nextInt(Robot.INDIVIDUAL_MAX_WEIGHT - 200), fragile && random.nextInt(4) == 0, context);
+		}
+		return mail;
+	}
+
+	/**
+	 * @return a new instance of the named IMailPool implementation
+	 */
+	static IMailPool pool(String className, int robots) throws ReflectiveOperationException {
+		return (IMailPool) Class.forName(className).getConstructor(int.class).newInstance(robots);
+	}
+}
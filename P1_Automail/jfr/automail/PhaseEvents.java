@@ -0,0 +1,314 @@
+package automail;
+
+import java.util.concurrent.atomic.LongAdder;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Period;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+import jdk.jfr.Timespan;
+import strategies.IMailPool;
+
+/**
+ * Java Flight Recorder events timing each phase of a simulation tick: the mail arriving,
+ * the pool loading robots, the robots stepping, and each delivery or rejection reported.
+ * They are off unless a recording turns them on, so that even a recording made for some
+ * other reason does not slow the run down. To record a run's phases, start it with
+ *
+ *   java -XX:StartFlightRecording:+automail.PhaseTotals#enabled=true,filename=automail.jfr automail.Simulation
+ *
+ * and read it with "jfr print --categories Automail automail.jfr" or JDK Mission Control.
+ * PhaseTotals gives the time spent in each phase, so far, every second.
+ *
+ * A phase takes about a microsecond, so recording every one would slow the run several
+ * times over. Once enabled, a phase is only recorded if it takes longer than its threshold.
+ * To record every dispatch, for example, add +automail.PoolDispatch#enabled=true and
+ * +automail.PoolDispatch#threshold=0ms.
+ *
+ * Whether any of the events is enabled is checked once a tick. If none is, the tick's
+ * phases are neither timed nor given an event. Each event's fields are only filled in when
+ * the event is enabled, so that a disabled event does not even read the pool's size.
+ *
+ * This class is built for Java 11, apart from the rest of the simulation, and only loaded
+ * through PhaseTimer, one for each run.
+ */
+final class PhaseEvents extends PhaseTimer {
+
+	/** Nanoseconds spent in, and number of runs of, each phase so far, in every simulation */
+	private static final LongAdder[] NANOS = { new LongAdder(), new LongAdder(), new LongAdder(), new LongAdder() };
+	private static final LongAdder[] COUNTS = { new LongAdder(), new LongAdder(), new LongAdder(), new LongAdder() };
+	private static final int ARRIVALS = 0;
+	private static final int DISPATCH = 1;
+	private static final int ROBOTS = 2;
+	private static final int DELIVERY = 3;
+
+	/** Only used to ask whether each event is enabled, which for PhaseTotals is when the totals are kept */
+	private static final PhaseTotals TOTALS = new PhaseTotals();
+	private static final Phase[] PHASES = { new MailArrivals(), new PoolDispatch(), new RobotSteps(), new ReportDelivery() };
+
+	static {
+		FlightRecorder.addPeriodicEvent(PhaseTotals.class, new Runnable() {
+			public void run() {
+				PhaseTotals totals = new PhaseTotals();
+				totals.ticks = COUNTS[ROBOTS].sum();
+				totals.arrivalsTime = NANOS[ARRIVALS].sum();
+				totals.dispatchTime = NANOS[DISPATCH].sum();
+				totals.robotsTime = NANOS[ROBOTS].sum();
+				totals.deliveryTime = NANOS[DELIVERY].sum();
+				totals.deliveries = COUNTS[DELIVERY].sum();
+				totals.commit();
+			}
+		});
+	}
+
+	/** Whether any event was enabled when the current tick started */
+	private boolean timing;
+	/** The run's phases in progress */
+	private MailArrivals arriving;
+	private PoolDispatch dispatch;
+	private RobotSteps stepping;
+	private ReportDelivery reporting;
+
+	boolean isEnabled() {
+		boolean enabled = TOTALS.isEnabled();
+		for (Phase phase : PHASES) {
+			enabled |= phase.isEnabled();
+		}
+		timing = enabled;
+		return enabled;
+	}
+
+	void startArrivals(int tick, IMailPool mailPool) {
+		arriving = new MailArrivals();
+		arriving.start(tick, mailPool);
+	}
+
+	void finishArrivals(IMailPool mailPool) {
+		arriving.finish(mailPool);
+		arriving = null;
+	}
+
+	void startDispatch(int tick, IMailPool mailPool) {
+		dispatch = new PoolDispatch();
+		dispatch.start(tick, mailPool);
+	}
+
+	void finishDispatch(IMailPool mailPool) {
+		dispatch.finish(mailPool);
+		dispatch = null;
+	}
+
+	void startSteps(int tick, int robotsStepped) {
+		stepping = new RobotSteps();
+		stepping.start(tick, robotsStepped);
+	}
+
+	void finishSteps() {
+		stepping.finish();
+		stepping = null;
+	}
+
+	void startDelivery(int tick, MailItem mailItem, boolean rejected) {
+		if (!timing) return;
+		reporting = new ReportDelivery();
+		reporting.start(tick, mailItem, rejected);
+	}
+
+	void finishDelivery() {
+		if (reporting == null) return;
+		reporting.finish();
+		reporting = null;
+	}
+
+	@Category({"Automail", "Tick Phases"})
+	@StackTrace(false)
+	@Enabled(false)
+	@Threshold("100 us")
+	abstract static class Phase extends Event {
+
+		@Label("Tick")
+		int tick;
+
+		/** When the phase started, if the totals are being kept, otherwise 0 */
+		private transient long started;
+
+		/**
+		 * @return which of the totals the phase adds to
+		 */
+		abstract int phase();
+
+		final void start(int tick) {
+			if (isEnabled()) this.tick = tick;
+			if (TOTALS.isEnabled()) started = System.nanoTime();
+			begin();
+		}
+
+		/**
+		 * Ends the phase
+		 * @return whether the event should be committed, once the caller has filled it in
+		 */
+		final boolean stop() {
+			end();
+			if (started != 0) {
+				NANOS[phase()].add(System.nanoTime() - started);
+				COUNTS[phase()].increment();
+			}
+			return shouldCommit();
+		}
+	}
+
+	@Name("automail.MailArrivals")
+	@Label("Mail Arrivals")
+	@Description("New mail added to the pool on one tick")
+	static final class MailArrivals extends Phase {
+
+		@Label("Items Arrived")
+		int itemsArrived;
+
+		int phase() {
+			return ARRIVALS;
+		}
+
+		void start(int tick, IMailPool mailPool) {
+			if (isEnabled()) itemsArrived = -mailPool.size();
+			start(tick);
+		}
+
+		void finish(IMailPool mailPool) {
+			if (stop()) {
+				itemsArrived += mailPool.size();
+				commit();
+			}
+		}
+	}
+
+	@Name("automail.PoolDispatch")
+	@Label("Pool Dispatch")
+	@Description("The pool loading and dispatching waiting robots on one tick")
+	static final class PoolDispatch extends Phase {
+
+		@Label("Pool Size")
+		@Description("Items waiting before the dispatch")
+		int poolSize;
+
+		@Label("Robots Waiting")
+		@Description("Robots waiting before the dispatch")
+		int robotsWaiting;
+
+		@Label("Robots Loaded")
+		int robotsLoaded;
+
+		@Label("Items Taken")
+		@Description("Items loaded onto robots or rejected")
+		int itemsTaken;
+
+		int phase() {
+			return DISPATCH;
+		}
+
+		void start(int tick, IMailPool mailPool) {
+			if (isEnabled()) {
+				poolSize = mailPool.size();
+				robotsWaiting = mailPool.waitingRobots();
+			}
+			start(tick);
+		}
+
+		void finish(IMailPool mailPool) {
+			if (stop()) {
+				robotsLoaded = robotsWaiting - mailPool.waitingRobots();
+				itemsTaken = poolSize - mailPool.size();
+				commit();
+			}
+		}
+	}
+
+	@Name("automail.RobotSteps")
+	@Label("Robot Steps")
+	@Description("The robots stepping on one tick, including the deliveries they report")
+	static final class RobotSteps extends Phase {
+
+		@Label("Robots Stepped")
+		int robotsStepped;
+
+		int phase() {
+			return ROBOTS;
+		}
+
+		void start(int tick, int robotsStepped) {
+			this.robotsStepped = robotsStepped;
+			start(tick);
+		}
+
+		void finish() {
+			if (stop()) commit();
+		}
+	}
+
+	@Name("automail.ReportDelivery")
+	@Label("Report Delivery")
+	@Description("One delivery or rejection being recorded and scored")
+	static final class ReportDelivery extends Phase {
+
+		@Label("Mail Id")
+		int mailId;
+
+		@Label("Rejected")
+		boolean rejected;
+
+		int phase() {
+			return DELIVERY;
+		}
+
+		void start(int tick, MailItem mailItem, boolean rejected) {
+			if (isEnabled()) {
+				mailId = mailItem.getId();
+				this.rejected = rejected;
+			}
+			start(tick);
+		}
+
+		void finish() {
+			if (stop()) commit();
+		}
+	}
+
+	@Name("automail.PhaseTotals")
+	@Label("Phase Totals")
+	@Description("Time spent in each tick phase so far, by every simulation in the process")
+	@Category({"Automail", "Tick Phases"})
+	@StackTrace(false)
+	@Enabled(false)
+	@Period("1 s")
+	static final class PhaseTotals extends Event {
+
+		@Label("Ticks Stepped")
+		long ticks;
+
+		@Label("Mail Arrivals")
+		@Timespan(Timespan.NANOSECONDS)
+		long arrivalsTime;
+
+		@Label("Pool Dispatch")
+		@Timespan(Timespan.NANOSECONDS)
+		long dispatchTime;
+
+		@Label("Robot Steps")
+		@Timespan(Timespan.NANOSECONDS)
+		long robotsTime;
+
+		@Label("Report Delivery")
+		@Timespan(Timespan.NANOSECONDS)
+		long deliveryTime;
+
+		@Label("Deliveries")
+		@Description("Deliveries and rejections reported")
+		long deliveries;
+	}
+}
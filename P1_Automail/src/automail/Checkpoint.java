@@ -0,0 +1,242 @@
+package automail;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+
+import events.StatisticsEventSink;
+import strategies.IMailPool;
+
+/**
+ * Saves everything a run needs to carry on from the end of a tick, and restores a new run
+ * from it: the clock, score and delivery ledger, the pool's waiting mail and robots, every
+ * robot's state and load, and the statistics if they are being kept. The mail still to
+ * arrive is not saved, since the arrival source can recreate it from the seed or the trace.
+ * So a run resumed from a checkpoint has the same results as one which was never stopped.
+ *
+ * The pool is saved as its waiting mail in priority order, not in its own layout, so a run
+ * may be resumed with a different MailPool, engine or number of threads to see what would
+ * have happened. The building, fleet and arrivals must be configured as they were.
+ *
+ * A checkpoint is a header of MAGIC, VERSION, the seed, the time and the configuration it
+ * was taken with, then each part of the run's state in turn, all written with DataOutput.
+ * Mail items are written as their id, destination, arrival time, weight and a flags byte,
+ * or a single 0 flags byte for none.
+ */
+class Checkpoint {
+
+	public static final int MAGIC = 0x414D4350; // "AMCP"
+	public static final int VERSION = 1;
+
+	private static final int PRESENT = 1;
+	private static final int FRAGILE = 1 << 1;
+	private static final int WRAPPED = 1 << 2;
+	/** The bytes writeMail writes for an item */
+	private static final int MAIL_SIZE = 17;
+
+	private final SimulationContext context;
+	private final long seed;
+	private final IArrivalSource arrivals;
+	private final IMailPool mailPool;
+	private final Robot[] robots;
+	/** The run's statistics, or null if they are disabled */
+	private final StatisticsEventSink statistics;
+	private final String fileName;
+	/** Ticks between checkpoints, or 0 if they are only written on request */
+	private final int interval;
+	private int next;
+
+	/**
+	 * @param seed the seed the run's mail was generated with, or 0 if it is replayed from a trace
+	 * @param fileName where checkpoints are written
+	 * @param interval the number of ticks between checkpoints, or 0 for none
+	 */
+	Checkpoint(SimulationContext context, long seed, IArrivalSource arrivals, IMailPool mailPool, Robot[] robots,
+			StatisticsEventSink statistics, String fileName, int interval) {
+		this.context = context;
+		this.seed = seed;
+		this.arrivals = arrivals;
+		this.mailPool = mailPool;
+		this.robots = robots;
+		this.statistics = statistics;
+		this.fileName = fileName;
+		this.interval = interval;
+		this.next = interval > 0 ? context.clock.Time() + interval : Integer.MAX_VALUE;
+	}
+
+	/**
+	 * @return whether a checkpoint should be written now, at the end of a tick
+	 */
+	boolean due() {
+		return context.clock.Time() >= next;
+	}
+
+	/**
+	 * Writes a checkpoint of the run as it stands. The previous checkpoint is only replaced
+	 * once the new one is complete, so a run which dies while writing still leaves one behind.
+	 * The event engine must first bring every robot up to date.
+	 * @throws IOException if the checkpoint cannot be written
+	 */
+	void write() throws IOException {
+		File target = new File(fileName);
+		File partial = new File(fileName + ".tmp");
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(partial), 1 << 16))) {
+			write(out);
+		}
+		Files.move(partial.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		if (interval > 0) next = context.clock.Time() + interval;
+	}
+
+	private void write(DataOutput out) throws IOException {
+		out.writeInt(MAGIC);
+		out.writeInt(VERSION);
+		out.writeLong(seed);
+		out.writeInt(context.clock.Time());
+		out.writeInt(context.building.FLOORS);
+		out.writeInt(context.clock.LAST_DELIVERY_TIME);
+		out.writeInt(arrivals.getMailToCreate());
+		out.writeInt(robots.length);
+		out.writeInt(robots.length == 0 ? 0 : robots[0].getTubeSlots());
+
+		out.writeDouble(context.total_score);
+		context.ledger.writeCheckpoint(out);
+		List<MailItem> mail = mailPool.snapshotMail();
+		out.writeInt(mail.size());
+		writeMail(out, mail);
+		List<Robot> waiting = mailPool.snapshotRobots();
+		out.writeInt(waiting.size());
+		for (Robot robot : waiting) {
+			out.writeInt(robot.getNumber());
+		}
+		for (Robot robot : robots) {
+			robot.writeCheckpoint(out);
+		}
+		out.writeBoolean(statistics != null);
+		if (statistics != null) statistics.writeCheckpoint(out);
+	}
+
+	/**
+	 * @return the seed the mail of the run a checkpoint was taken from was generated with
+	 * @throws IOException if the file cannot be read or is not a checkpoint
+	 */
+	static long readSeed(String fileName) throws IOException {
+		try (DataInputStream in = new DataInputStream(new FileInputStream(fileName))) {
+			readHeader(in, fileName);
+			return in.readLong();
+		}
+	}
+
+	private static void readHeader(DataInput in, String fileName) throws IOException {
+		if (in.readInt() != MAGIC) throw new IOException(fileName + " is not a checkpoint");
+		int version = in.readInt();
+		if (version != VERSION) throw new IOException(fileName + " has unsupported checkpoint version " + version);
+	}
+
+	/**
+	 * Puts a new run, which has not yet stepped, into the state a checkpoint was taken in.
+	 * Its arrival source must have been created with the checkpoint's seed.
+	 * @throws IOException if the file cannot be read, is not a checkpoint, or was taken from
+	 * a run with a different building, fleet, arrivals or statistics setting
+	 */
+	void restore(String fileName) throws IOException {
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(fileName), 1 << 16))) {
+			readHeader(in, fileName);
+			in.readLong();
+			int time = in.readInt();
+			expect(fileName, "Floors", in.readInt(), context.building.FLOORS);
+			expect(fileName, "Last_Delivery_Time", in.readInt(), context.clock.LAST_DELIVERY_TIME);
+			expect(fileName, "number of items to arrive", in.readInt(), arrivals.getMailToCreate());
+			expect(fileName, "Robots", in.readInt(), robots.length);
+			expect(fileName, "Tube_Slots", in.readInt(), robots.length == 0 ? 0 : robots[0].getTubeSlots());
+
+			context.clock.Tick(time - context.clock.Time());
+			arrivals.skipTo(time);
+			context.total_score = in.readDouble();
+			context.ledger.readCheckpoint(in);
+			for (int i = in.readInt(); i > 0; i--) {
+				mailPool.addToPool(readMail(in));
+			}
+			for (int i = in.readInt(); i > 0; i--) {
+				int robot = in.readInt();
+				if (robot < 0 || robot >= robots.length) throw new IOException(fileName + " has a waiting robot R" + robot + " which does not exist");
+				mailPool.registerWaiting(robots[robot]);
+			}
+			for (Robot robot : robots) {
+				robot.readCheckpoint(in);
+			}
+			boolean hasStatistics = in.readBoolean();
+			if (hasStatistics != (statistics != null)) {
+				throw new IOException(fileName + " was taken with Statistics=" + hasStatistics);
+			}
+			if (statistics != null) statistics.readCheckpoint(in);
+		}
+		if (interval > 0) next = context.clock.Time() + interval;
+	}
+
+	private static void expect(String fileName, String property, int found, int expected) throws IOException {
+		if (found != expected) {
+			throw new IOException(fileName + " was taken with " + property + " " + found + ", not " + expected);
+		}
+	}
+
+	/**
+	 * Writes an item, or null
+	 */
+	static void writeMail(DataOutput out, MailItem mailItem) throws IOException {
+		if (mailItem == null) {
+			out.writeByte(0);
+			return;
+		}
+		out.writeByte(PRESENT | (mailItem.fragile ? FRAGILE : 0) | (mailItem.isWrapped ? WRAPPED : 0));
+		out.writeInt(mailItem.id);
+		out.writeInt(mailItem.destination_floor);
+		out.writeInt(mailItem.arrival_time);
+		out.writeInt(mailItem.weight);
+	}
+
+	/**
+	 * Writes the items as writeMail would, but in blocks, since the pool may hold a million
+	 * of them and DataOutputStream writes an int a byte at a time
+	 */
+	private static void writeMail(DataOutput out, List<MailItem> mail) throws IOException {
+		ByteBuffer block = ByteBuffer.allocate(MAIL_SIZE * 4096);
+		for (MailItem mailItem : mail) {
+			if (block.remaining() < MAIL_SIZE) {
+				out.write(block.array(), 0, block.position());
+				block.clear();
+			}
+			block.put((byte) (PRESENT | (mailItem.fragile ? FRAGILE : 0) | (mailItem.isWrapped ? WRAPPED : 0)));
+			block.putInt(mailItem.id);
+			block.putInt(mailItem.destination_floor);
+			block.putInt(mailItem.arrival_time);
+			block.putInt(mailItem.weight);
+		}
+		out.write(block.array(), 0, block.position());
+	}
+
+	/**
+	 * @return an item written by writeMail, or null
+	 */
+	static MailItem readMail(DataInput in) throws IOException {
+		int flags = in.readByte();
+		if ((flags & PRESENT) == 0) return null;
+		int id = in.readInt();
+		int floor = in.readInt();
+		int arrival = in.readInt();
+		int weight = in.readInt();
+		MailItem mailItem = new MailItem(id, floor, arrival, weight, (flags & FRAGILE) != 0);
+		mailItem.isWrapped = (flags & WRAPPED) != 0;
+		return mailItem;
+	}
+}
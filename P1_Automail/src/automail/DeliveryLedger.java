@@ -0,0 +1,96 @@
+package automail;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.BitSet;
+
+/**
+ * Records which mail items have been delivered or rejected. Items are looked up by their
+ * id, which is dense within a run, so each check is a single bit test and the ledger needs
+ * one bit per item rather than a list of references.
+ */
+public class DeliveryLedger {
+
+	private final BitSet delivered = new BitSet();
+	private final BitSet rejected = new BitSet();
+	private int deliveredCount = 0;
+	private int rejectedCount = 0;
+
+	/**
+	 * Records a delivery
+	 * @param mailItem the item being delivered
+	 * @return false if the item had already been delivered
+	 */
+	public boolean deliver(MailItem mailItem) {
+		int id = mailItem.getId();
+		if (delivered.get(id)) return false;
+		delivered.set(id);
+		deliveredCount++;
+		return true;
+	}
+
+	/**
+	 * Records a rejection
+	 * @param mailItem the item being rejected
+	 * @return false if the item had already been rejected
+	 */
+	public boolean reject(MailItem mailItem) {
+		int id = mailItem.getId();
+		if (rejected.get(id)) return false;
+		rejected.set(id);
+		rejectedCount++;
+		return true;
+	}
+
+	/**
+	 * @return the number of items delivered so far
+	 */
+	public int getDelivered() {
+		return deliveredCount;
+	}
+
+	/**
+	 * @return the number of items rejected so far
+	 */
+	public int getRejected() {
+		return rejectedCount;
+	}
+
+	/**
+	 * Writes the ledger for a Checkpoint
+	 */
+	void writeCheckpoint(DataOutput out) throws IOException {
+		writeBits(out, delivered);
+		writeBits(out, rejected);
+	}
+
+	/**
+	 * Replaces the ledger with one written by writeCheckpoint
+	 */
+	void readCheckpoint(DataInput in) throws IOException {
+		delivered.clear();
+		delivered.or(readBits(in));
+		rejected.clear();
+		rejected.or(readBits(in));
+		deliveredCount = delivered.cardinality();
+		rejectedCount = rejected.cardinality();
+	}
+
+	private static void writeBits(DataOutput out, BitSet bits) throws IOException {
+		long[] words = bits.toLongArray();
+		out.writeInt(words.length);
+		for (long word : words) {
+			out.writeLong(word);
+		}
+	}
+
+	private static BitSet readBits(DataInput in) throws IOException {
+		long[] words = new long[in.readInt()];
+		for (int i = 0; i < words.length; i++) {
+			words[i] = in.readLong();
+		}
+		return BitSet.valueOf(words);
+	}
+
+}
@@ -0,0 +1,331 @@
+package automail;
+
+import java.util.Arrays;
+import java.util.List;
+
+import automail.Robot.RobotState;
+import events.IEventSink;
+import exceptions.BreakingFragileItemException;
+import exceptions.ExcessiveDeliveryException;
+import exceptions.ItemTooHeavyException;
+import strategies.IMailPool;
+
+/**
+ * Stands between one robot and the pool, delivery and event sink it reports to. Normally
+ * every call is passed straight through. While buffering, the calls are recorded instead,
+ * column by column, so that they can be applied later with commit(). This lets robots step
+ * on several threads while their effects are applied in the same order as a sequential step.
+ */
+class EffectBuffer implements IMailPool, IMailDelivery, IEventSink {
+
+	private static final byte ADD_TO_POOL = 0;
+	private static final byte REGISTER_WAITING = 1;
+	private static final byte DELIVER = 2;
+	private static final byte REJECT = 3;
+	private static final byte MAIL_RETURNED = 4;
+	private static final byte ROBOT_STATE_CHANGED = 5;
+	private static final byte ROBOT_DEPARTED = 6;
+	private static final byte ROBOT_DISPATCHED = 7;
+	private static final byte ROBOT_WRAP_STAGE = 8;
+	private static final byte MAIL_WRAPPED = 9;
+	private static final byte MAIL_UNWRAPPED = 10;
+	private static final byte MESSAGE = 11;
+	private static final byte MAIL_ARRIVED = 12;
+	private static final byte MAIL_DELIVERED = 13;
+	private static final byte MAIL_REJECTED = 14;
+
+	private final IMailPool mailPool;
+	private final IMailDelivery delivery;
+	private final IEventSink events;
+
+	private boolean buffering;
+	private byte[] kind = new byte[4];
+	private int[] time = new int[4];
+	private int[] count = new int[4];
+	/** The robot's number, for robot events */
+	private int[] robot = new int[4];
+	private Object[] a = new Object[4];
+	private Object[] b = new Object[4];
+	private Object[] c = new Object[4];
+	private int size;
+	/** Thrown by the robot's step while buffering, to be rethrown when committed */
+	Throwable thrown;
+
+	/**
+	 * @param mailPool the pool the robot returns mail to and waits in
+	 * @param delivery where the robot delivers mail
+	 * @param events the run's event sink
+	 */
+	EffectBuffer(IMailPool mailPool, IMailDelivery delivery, IEventSink events) {
+		this.mailPool = mailPool;
+		this.delivery = delivery;
+		this.events = events;
+	}
+
+	/**
+	 * Starts recording calls instead of passing them on
+	 */
+	void buffer() {
+		buffering = true;
+	}
+
+	/**
+	 * Applies the recorded calls in order and goes back to passing calls straight through
+	 */
+	void commit() {
+		buffering = false;
+		for (int i = 0; i < size; i++) {
+			apply(i);
+		}
+		clear();
+	}
+
+	/**
+	 * Commits each buffer in turn, stopping at the first one whose robot failed
+	 * @param buffers the buffers, in the order a sequential step would have visited their robots
+	 * @throws ExcessiveDeliveryException if a robot delivers more than it can carry without refilling.
+	 * The robots before it have been committed, as have its own effects up to the failure.
+	 */
+	static void commitAll(EffectBuffer[] buffers) throws ExcessiveDeliveryException {
+		for (int i = 0; i < buffers.length; i++) {
+			buffers[i].commit();
+			Throwable thrown = buffers[i].thrown;
+			if (thrown != null) {
+				for (int j = i; j < buffers.length; j++) {
+					buffers[j].thrown = null;
+					buffers[j].discard();
+				}
+				rethrow(thrown);
+			}
+		}
+	}
+
+	/**
+	 * Commits the buffers a parallel step left pending, segment by segment, stopping at the
+	 * first one whose robot failed. Buffers not listed must already have settled.
+	 * @param pending for each segment, its pending buffers in the order a sequential step would have visited their robots
+	 * @param counts how many of each segment's buffers are pending
+	 * @throws ExcessiveDeliveryException if a robot delivers more than it can carry without refilling.
+	 * The robots before it have been committed, as have its own effects up to the failure.
+	 */
+	static void commitAll(EffectBuffer[][] pending, int[] counts) throws ExcessiveDeliveryException {
+		for (int s = 0; s < pending.length; s++) {
+			EffectBuffer[] segment = pending[s];
+			for (int i = 0; i < counts[s]; i++) {
+				segment[i].commit();
+				Throwable thrown = segment[i].thrown;
+				if (thrown != null) {
+					segment[i].thrown = null;
+					for (int t = s, j = i + 1; t < pending.length; t++, j = 0) {
+						for (; j < counts[t]; j++) {
+							pending[t][j].thrown = null;
+							pending[t][j].discard();
+						}
+					}
+					rethrow(thrown);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Stops buffering if the robot recorded nothing and did not fail
+	 * @return whether anything is left to commit
+	 */
+	boolean settle() {
+		if (size > 0 || thrown != null) return true;
+		buffering = false;
+		return false;
+	}
+
+	/**
+	 * Forgets the recorded calls and goes back to passing calls straight through
+	 */
+	void discard() {
+		buffering = false;
+		clear();
+	}
+
+	private static void rethrow(Throwable thrown) throws ExcessiveDeliveryException {
+		if (thrown instanceof ExcessiveDeliveryException) throw (ExcessiveDeliveryException) thrown;
+		if (thrown instanceof RuntimeException) throw (RuntimeException) thrown;
+		throw (Error) thrown;
+	}
+
+	private void clear() {
+		Arrays.fill(a, 0, size, null);
+		Arrays.fill(b, 0, size, null);
+		Arrays.fill(c, 0, size, null);
+		size = 0;
+	}
+
+	private void apply(int i) {
+		switch (kind[i]) {
+			case ADD_TO_POOL:
+				mailPool.addToPool((MailItem) b[i]);
+				break;
+			case REGISTER_WAITING:
+				mailPool.registerWaiting((Robot) a[i]);
+				break;
+			case DELIVER:
+				delivery.deliver((MailItem) b[i]);
+				break;
+			case REJECT:
+				delivery.reject((MailItem) b[i]);
+				break;
+			case MAIL_ARRIVED:
+				events.mailArrived(time[i], (MailItem) b[i]);
+				break;
+			case MAIL_RETURNED:
+				events.mailReturned(time[i], (MailItem) b[i]);
+				break;
+			case ROBOT_STATE_CHANGED:
+				events.robotStateChanged(time[i], robot[i], count[i], (RobotState) b[i], (RobotState) c[i]);
+				break;
+			case ROBOT_DEPARTED:
+				events.robotDeparted(time[i], robot[i], count[i], (MailItem) b[i]);
+				break;
+			case ROBOT_DISPATCHED:
+				events.robotDispatched(time[i], robot[i], count[i] != 0);
+				break;
+			case ROBOT_WRAP_STAGE:
+				events.robotWrapStage(time[i], robot[i], count[i]);
+				break;
+			case MAIL_WRAPPED:
+				events.mailWrapped(time[i], (MailItem) b[i]);
+				break;
+			case MAIL_UNWRAPPED:
+				events.mailUnwrapped(time[i], (MailItem) b[i]);
+				break;
+			case MAIL_DELIVERED:
+				events.mailDelivered(time[i], count[i], (MailItem) b[i]);
+				break;
+			case MAIL_REJECTED:
+				events.mailRejected(time[i], count[i], (MailItem) b[i]);
+				break;
+			case MESSAGE:
+				events.message((String) a[i]);
+				break;
+		}
+	}
+
+	private void record(byte kind, int time, int count, int robot, Object a, Object b, Object c) {
+		if (size == this.kind.length) {
+			int capacity = size * 2;
+			this.kind = Arrays.copyOf(this.kind, capacity);
+			this.time = Arrays.copyOf(this.time, capacity);
+			this.count = Arrays.copyOf(this.count, capacity);
+			this.robot = Arrays.copyOf(this.robot, capacity);
+			this.a = Arrays.copyOf(this.a, capacity);
+			this.b = Arrays.copyOf(this.b, capacity);
+			this.c = Arrays.copyOf(this.c, capacity);
+		}
+		this.kind[size] = kind;
+		this.time[size] = time;
+		this.count[size] = count;
+		this.robot[size] = robot;
+		this.a[size] = a;
+		this.b[size] = b;
+		this.c[size] = c;
+		size++;
+	}
+
+	public void addToPool(MailItem mailItem) {
+		if (buffering) record(ADD_TO_POOL, 0, 0, 0, null, mailItem, null);
+		else mailPool.addToPool(mailItem);
+	}
+
+	public void step() throws ItemTooHeavyException, BreakingFragileItemException {
+		mailPool.step();
+	}
+
+	public void registerWaiting(Robot robot) {
+		if (buffering) record(REGISTER_WAITING, 0, 0, 0, robot, null, null);
+		else mailPool.registerWaiting(robot);
+	}
+
+	public int size() {
+		return mailPool.size();
+	}
+
+	public int waitingRobots() {
+		return mailPool.waitingRobots();
+	}
+
+	public List<MailItem> snapshotMail() {
+		return mailPool.snapshotMail();
+	}
+
+	public List<Robot> snapshotRobots() {
+		return mailPool.snapshotRobots();
+	}
+
+	public void deliver(MailItem mailItem) {
+		if (buffering) record(DELIVER, 0, 0, 0, null, mailItem, null);
+		else delivery.deliver(mailItem);
+	}
+
+	public void reject(MailItem mailItem) {
+		if (buffering) record(REJECT, 0, 0, 0, null, mailItem, null);
+		else delivery.reject(mailItem);
+	}
+
+	public void mailArrived(int time, MailItem mailItem) {
+		if (buffering) record(MAIL_ARRIVED, time, 0, 0, null, mailItem, null);
+		else events.mailArrived(time, mailItem);
+	}
+
+	public void mailReturned(int time, MailItem mailItem) {
+		if (buffering) record(MAIL_RETURNED, time, 0, 0, null, mailItem, null);
+		else events.mailReturned(time, mailItem);
+	}
+
+	public void robotStateChanged(int time, int robot, int tubeCount, RobotState from, RobotState to) {
+		if (buffering) record(ROBOT_STATE_CHANGED, time, tubeCount, robot, null, from, to);
+		else events.robotStateChanged(time, robot, tubeCount, from, to);
+	}
+
+	public void robotDeparted(int time, int robot, int tubeCount, MailItem mailItem) {
+		if (buffering) record(ROBOT_DEPARTED, time, tubeCount, robot, null, mailItem, null);
+		else events.robotDeparted(time, robot, tubeCount, mailItem);
+	}
+
+	public void robotDispatched(int time, int robot, boolean cautionEnabled) {
+		if (buffering) record(ROBOT_DISPATCHED, time, cautionEnabled ? 1 : 0, robot, null, null, null);
+		else events.robotDispatched(time, robot, cautionEnabled);
+	}
+
+	public void robotWrapStage(int time, int robot, int stage) {
+		if (buffering) record(ROBOT_WRAP_STAGE, time, stage, robot, null, null, null);
+		else events.robotWrapStage(time, robot, stage);
+	}
+
+	public void mailWrapped(int time, MailItem mailItem) {
+		if (buffering) record(MAIL_WRAPPED, time, 0, 0, null, mailItem, null);
+		else events.mailWrapped(time, mailItem);
+	}
+
+	public void mailUnwrapped(int time, MailItem mailItem) {
+		if (buffering) record(MAIL_UNWRAPPED, time, 0, 0, null, mailItem, null);
+		else events.mailUnwrapped(time, mailItem);
+	}
+
+	public void mailDelivered(int time, int delivered, MailItem mailItem) {
+		if (buffering) record(MAIL_DELIVERED, time, delivered, 0, null, mailItem, null);
+		else events.mailDelivered(time, delivered, mailItem);
+	}
+
+	public void mailRejected(int time, int rejected, MailItem mailItem) {
+		if (buffering) record(MAIL_REJECTED, time, rejected, 0, null, mailItem, null);
+		else events.mailRejected(time, rejected, mailItem);
+	}
+
+	public void message(String message) {
+		if (buffering) record(MESSAGE, 0, 0, 0, message, null, null);
+		else events.message(message);
+	}
+
+	public void close() {
+		events.close();
+	}
+}
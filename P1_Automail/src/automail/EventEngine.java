@@ -0,0 +1,181 @@
+package automail;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.BitSet;
+
+import events.StatisticsEventSink;
+import exceptions.BreakingFragileItemException;
+import exceptions.ExcessiveDeliveryException;
+import exceptions.ItemTooHeavyException;
+import strategies.IMailPool;
+
+/**
+ * Runs a simulation by jumping from one interesting tick to the next, instead of stepping
+ * every robot on every tick. A tick is interesting if mail arrives, if the pool could
+ * dispatch a waiting robot, or if some robot will do more than move one floor (arrive at a
+ * floor, wrap, unwrap or be dispatched). Robots which are only travelling are not stepped;
+ * they are moved the whole distance they skipped the next time they are due. The results
+ * are identical to stepping every tick.
+ */
+class EventEngine {
+
+	private final SimulationContext context;
+	private final IArrivalSource arrivals;
+	private final IMailPool mailPool;
+	private final Robot[] robots;
+	/** Collects the run's statistics, or null if they are disabled */
+	private final StatisticsEventSink statistics;
+	/** Publishes the run's progress over JMX, or null if it is disabled */
+	private final SimulationMonitor monitor;
+	/** Writes the run's checkpoints, or null if there are none */
+	private final Checkpoint checkpoint;
+
+	/** Robot wake-up times, as (tick << 32 | robot index), in a binary min-heap */
+	private long[] heap;
+	private int heapSize;
+	/** The tick up to which each robot has been stepped or skipped */
+	private final int[] synced;
+	/** Robots which are idle until the pool dispatches them */
+	private final BitSet idle;
+	/** Robots which must be stepped on the current tick */
+	private final BitSet due;
+
+	EventEngine(SimulationContext context, IArrivalSource arrivals, IMailPool mailPool, Robot[] robots,
+			StatisticsEventSink statistics, SimulationMonitor monitor, Checkpoint checkpoint) {
+		this.context = context;
+		this.statistics = statistics;
+		this.monitor = monitor;
+		this.checkpoint = checkpoint;
+		this.arrivals = arrivals;
+		this.mailPool = mailPool;
+		this.robots = robots;
+		heap = new long[Math.max(robots.length, 1)];
+		synced = new int[robots.length];
+		idle = new BitSet(robots.length);
+		due = new BitSet(robots.length);
+	}
+
+	/**
+	 * Runs until the given number of items have been delivered or rejected
+	 * @param mailToCreate the number of items which will arrive
+	 * @throws IOException if a checkpoint cannot be written
+	 */
+	void run(int mailToCreate) throws ExcessiveDeliveryException, ItemTooHeavyException, BreakingFragileItemException, IOException {
+		Clock clock = context.clock;
+		PhaseTimer phases = context.phases;
+		int time = clock.Time();
+		for (int i = 0; i < robots.length; i++) {
+			synced[i] = time;
+			push(time, i);
+		}
+		while( (context.getDelivered() + context.getRejected()) != mailToCreate) {
+			int next = arrivals.nextArrivalTime(time);
+			if (heapSize > 0) next = Math.min(next, (int) (heap[0] >>> 32));
+			boolean poolReady = dispatchPossible();
+			if (poolReady || next == Integer.MAX_VALUE) next = time;
+			clock.Tick(next - time);
+			time = next;
+
+			boolean timed = phases.isEnabled();
+			if (timed) phases.startArrivals(time, mailPool);
+			arrivals.step();
+			if (timed) phases.finishArrivals(mailPool);
+			boolean dispatching = dispatchPossible();
+			if (timed) phases.startDispatch(time, mailPool);
+			mailPool.step();
+			if (timed) phases.finishDispatch(mailPool);
+			while (heapSize > 0 && (int) (heap[0] >>> 32) == time) {
+				due.set((int) pop());
+			}
+			if (dispatching) {
+				for (int i = idle.nextSetBit(0); i >= 0; i = idle.nextSetBit(i + 1)) {
+					if (robots[i].idleSteps() == 0) due.set(i);
+				}
+			}
+			if (timed) phases.startSteps(time, due.cardinality());
+			for (int i = due.nextSetBit(0); i >= 0; i = due.nextSetBit(i + 1)) {
+				Robot robot = robots[i];
+				robot.skip(time - synced[i]);
+				robot.step();
+				synced[i] = time + 1;
+				int idleSteps = robot.idleSteps();
+				if (idleSteps == Integer.MAX_VALUE) {
+					idle.set(i);
+				} else {
+					idle.clear(i);
+					push(time + 1 + idleSteps, i);
+				}
+			}
+			if (timed) phases.finishSteps();
+			due.clear();
+			if (statistics != null) statistics.poolDepth(time, mailPool.size());
+			if (monitor != null) monitor.tick(time, mailPool.size(), mailPool.waitingRobots(), context.total_score);
+			clock.Tick();
+			time++;
+			if (checkpoint != null && checkpoint.due()) {
+				sync(time);
+				checkpoint.write();
+			}
+		}
+		sync(time);
+	}
+
+	/**
+	 * Brings every travelling robot up to date. Their wake-up times are unchanged.
+	 * @param time the current time
+	 */
+	private void sync(int time) {
+		for (int i = 0; i < robots.length; i++) {
+			if (!idle.get(i)) {
+				robots[i].skip(time - synced[i]);
+				synced[i] = time;
+			}
+		}
+	}
+
+	/**
+	 * @return whether the pool might dispatch a robot on its next step: there must be an idle
+	 * robot waiting, and either mail in the pool or a waiting robot which is still loaded
+	 */
+	private boolean dispatchPossible() {
+		if (idle.isEmpty()) return false;
+		if (mailPool.size() > 0) return true;
+		for (int i = idle.nextSetBit(0); i >= 0; i = idle.nextSetBit(i + 1)) {
+			if (!robots[i].isEmpty()) return true;
+		}
+		return false;
+	}
+
+	private void push(int tick, int robot) {
+		if (heapSize == heap.length) heap = Arrays.copyOf(heap, heapSize * 2);
+		long entry = ((long) tick << 32) | robot;
+		int i = heapSize++;
+		while (i > 0) {
+			int parent = (i - 1) >>> 1;
+			if (heap[parent] <= entry) break;
+			heap[i] = heap[parent];
+			i = parent;
+		}
+		heap[i] = entry;
+	}
+
+	/**
+	 * @return the robot index of the earliest entry, which is removed
+	 */
+	private long pop() {
+		long top = heap[0];
+		long last = heap[--heapSize];
+		int i = 0;
+		while (true) {
+			int child = 2 * i + 1;
+			if (child >= heapSize) break;
+			if (child + 1 < heapSize && heap[child + 1] < heap[child]) child++;
+			if (heap[child] >= last) break;
+			heap[i] = heap[child];
+			i = child;
+		}
+		heap[i] = last;
+		return top & 0xFFFFFFFFL;
+	}
+}
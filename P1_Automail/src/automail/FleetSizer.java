@@ -0,0 +1,266 @@
+package automail;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+import exceptions.SimulationFailedException;
+
+/**
+ * Finds the fewest robots which meet a target mean final score, a target mean 99th percentile
+ * delivery latency, or both, for each robot capacity asked about. Each candidate fleet is run
+ * over seeds in parallel until the confidence interval of each target's mean lies wholly on
+ * one side of the target, so clear cases take only a few runs and close ones take more. The
+ * intervals are only looked at as a SequentialInterval allows, so stopping early does not
+ * make a wrong verdict any likelier than the confidence says.
+ *
+ * The search is a bisection over the number of robots, so it assumes that adding a robot never
+ * makes the fleet worse. Every candidate is run with the same seeds, from Seed on, so they
+ * are compared over the same mail.
+ */
+public class FleetSizer {
+
+	/**
+	 * How one fleet did over the seeds it was run with
+	 */
+	public static class Candidate {
+
+		private final int robots;
+		private final int tubeSlots;
+		private final RunningStatistics scores = new RunningStatistics();
+		private final RunningStatistics latencies = new RunningStatistics();
+		private boolean meets;
+		/** Whether the interval settled which side of the targets the fleet is on, before Max_Runs */
+		private boolean clear;
+
+		Candidate(int robots, int tubeSlots) {
+			this.robots = robots;
+			this.tubeSlots = tubeSlots;
+		}
+
+		public int getRobots() {
+			return robots;
+		}
+
+		public int getTubeSlots() {
+			return tubeSlots;
+		}
+
+		public RunningStatistics getScores() {
+			return scores;
+		}
+
+		/**
+		 * @return the 99th percentile delivery latency of each run, if a latency target was set
+		 */
+		public RunningStatistics getLatencies() {
+			return latencies;
+		}
+
+		/**
+		 * @return whether the fleet meets every target
+		 */
+		public boolean meets() {
+			return meets;
+		}
+
+		/**
+		 * @return whether the confidence intervals settled the verdict, rather than it being
+		 * taken from the means when Max_Runs was reached
+		 */
+		public boolean isClear() {
+			return clear;
+		}
+	}
+
+	private final SimulationRunner runner;
+	private final Properties automailProperties;
+	/** The targets, or NaN for none */
+	private final double targetScore;
+	private final double targetLatency;
+	private final int minRuns;
+	private final int maxRuns;
+	private final int firstSeed;
+	/** The intervals each fleet's verdict is judged on */
+	private final SequentialInterval interval;
+	private final List<Candidate> tried = new ArrayList<Candidate>();
+
+	/**
+	 * @param runner runs the simulations
+	 * @param automailProperties the simulation properties, apart from Robots and Tube_Slots
+	 * @param targetScore the highest acceptable mean final score, or NaN for no target
+	 * @param targetLatency the highest acceptable mean 99th percentile delivery latency, or NaN for no target
+	 */
+	public FleetSizer(SimulationRunner runner, Properties automailProperties, double targetScore, double targetLatency) {
+		if (Double.isNaN(targetScore) && Double.isNaN(targetLatency)) {
+			throw new IllegalArgumentException("No target score or latency to size the fleet for");
+		}
+		this.runner = runner;
+		this.automailProperties = automailProperties;
+		this.targetScore = targetScore;
+		this.targetLatency = targetLatency;
+		double confidence = Double.parseDouble(automailProperties.getProperty("Confidence"));
+		minRuns = Math.max(SimulationRunner.MIN_RUNS, Integer.parseInt(automailProperties.getProperty("Min_Runs")));
+		maxRuns = Math.max(minRuns, Integer.parseInt(automailProperties.getProperty("Max_Runs")));
+		String seed = automailProperties.getProperty("Seed");
+		firstSeed = seed == null ? 1 : Integer.parseInt(seed);
+		int targets = (Double.isNaN(targetScore) ? 0 : 1) + (Double.isNaN(targetLatency) ? 0 : 1);
+		interval = new SequentialInterval(confidence, targets, minRuns, maxRuns);
+	}
+
+	/**
+	 * Runs one fleet until it clearly meets or misses the targets, or Max_Runs is reached
+	 */
+	public Candidate evaluate(int robots, int tubeSlots) throws SimulationFailedException, InterruptedException {
+		final Candidate candidate = new Candidate(robots, tubeSlots);
+		Properties properties = new Properties();
+		properties.putAll(automailProperties);
+		properties.setProperty("Robots", Integer.toString(robots));
+		properties.setProperty("Tube_Slots", Integer.toString(tubeSlots));
+		if (!Double.isNaN(targetLatency)) properties.setProperty("Statistics", "true");
+		runner.runSeedsUntil(properties, firstSeed, maxRuns, new SimulationRunner.IStoppingRule() {
+			public boolean add(SimulationResult result) {
+				candidate.scores.add(result.getScore());
+				if (!Double.isNaN(targetLatency)) candidate.latencies.add(result.getLatencyP99());
+				return interval.isLook(candidate.scores.count()) && judge(candidate);
+			}
+		});
+		if (!candidate.clear && !interval.isLook(candidate.scores.count())) {
+			// The last look, when the runs end
+			judge(candidate);
+		}
+		if (!candidate.clear) {
+			candidate.meets = (Double.isNaN(targetScore) || candidate.scores.mean() <= targetScore)
+					&& (Double.isNaN(targetLatency) || candidate.latencies.mean() <= targetLatency);
+		}
+		tried.add(candidate);
+		return candidate;
+	}
+
+	/**
+	 * Settles the candidate's verdict if every target's interval is clear of it, or any one's
+	 * is wholly above it
+	 * @return whether the verdict is settled
+	 */
+	private boolean judge(Candidate candidate) {
+		int score = side(candidate.scores, targetScore);
+		int latency = side(candidate.latencies, targetLatency);
+		if (score > 0 || latency > 0) {
+			candidate.meets = false;
+		} else if (score < 0 && latency < 0) {
+			candidate.meets = true;
+		} else {
+			return false;
+		}
+		candidate.clear = true;
+		return true;
+	}
+
+	/**
+	 * @return -1 if the interval of the mean is wholly at or below the target, or there is no
+	 * target, 1 if it is wholly above, or 0 if it straddles the target
+	 */
+	private int side(RunningStatistics statistics, double target) {
+		if (Double.isNaN(target)) return -1;
+		double halfWidth = interval.halfWidth(statistics);
+		if (statistics.mean() + halfWidth <= target) return -1;
+		if (statistics.mean() - halfWidth > target) return 1;
+		return 0;
+	}
+
+	/**
+	 * Bisects for the fewest robots, up to maxRobots, which meet the targets
+	 * @param tubeSlots the capacity of every robot's tube
+	 * @return the smallest fleet which meets the targets, or null if even maxRobots does not
+	 */
+	public Candidate smallestFleet(int tubeSlots, int maxRobots) throws SimulationFailedException, InterruptedException {
+		Candidate best = evaluate(maxRobots, tubeSlots);
+		if (!best.meets()) return null;
+		int low = 1;
+		int high = maxRobots;
+		while (low < high) {
+			int middle = (low + high) / 2;
+			Candidate candidate = evaluate(middle, tubeSlots);
+			if (candidate.meets()) {
+				best = candidate;
+				high = middle;
+			} else {
+				low = middle + 1;
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * @return every fleet evaluated so far, in the order they were run
+	 */
+	public List<Candidate> getTried() {
+		return tried;
+	}
+
+	private String describe(Candidate candidate) {
+		StringBuilder text = new StringBuilder(String.format("%d robots, Tube_Slots %d | %s | score %.2f +/- %.2f",
+				candidate.getRobots(), candidate.getTubeSlots(),
+				(candidate.meets() ? "meets" : "misses") + (candidate.isClear() ? "" : " (unclear)"),
+				candidate.scores.mean(), interval.halfWidth(candidate.scores)));
+		if (!Double.isNaN(targetLatency)) {
+			text.append(String.format(" | p99 latency %.1f +/- %.1f", candidate.latencies.mean(), interval.halfWidth(candidate.latencies)));
+		}
+		text.append(String.format(" | %d runs", candidate.scores.count()));
+		return text.toString();
+	}
+
+	private static double target(Properties automailProperties, String name) {
+		String value = automailProperties.getProperty(name);
+		return value == null || value.trim().isEmpty() ? Double.NaN : Double.parseDouble(value.trim());
+	}
+
+	/**
+	 * Sizes the fleet for the Sizing_ targets of automail.properties, for each of the
+	 * Sizing_Tube_Slots capacities, and reports the smallest fleet found
+	 */
+	public static void main(String[] args) throws IOException, InterruptedException {
+		Properties automailProperties = Simulation.loadProperties();
+		double targetScore = target(automailProperties, "Sizing_Target_Score");
+		double targetLatency = target(automailProperties, "Sizing_Target_P99");
+		if (Double.isNaN(targetScore) && Double.isNaN(targetLatency)) {
+			System.out.println("Set Sizing_Target_Score or Sizing_Target_P99 in automail.properties");
+			return;
+		}
+		int maxRobots = Integer.parseInt(automailProperties.getProperty("Sizing_Max_Robots"));
+		String capacities = automailProperties.getProperty("Sizing_Tube_Slots");
+		if (capacities == null) capacities = automailProperties.getProperty("Tube_Slots");
+		SimulationRunner runner = new SimulationRunner(Runtime.getRuntime().availableProcessors());
+		try {
+			long started = System.nanoTime();
+			FleetSizer sizer = new FleetSizer(runner, automailProperties, targetScore, targetLatency);
+			Candidate smallest = null;
+			for (String capacity : capacities.split(",")) {
+				if (capacity.trim().isEmpty()) continue;
+				int tubeSlots = Integer.parseInt(capacity.trim());
+				int first = sizer.getTried().size();
+				Candidate best = sizer.smallestFleet(tubeSlots, maxRobots);
+				for (Candidate candidate : sizer.getTried().subList(first, sizer.getTried().size())) {
+					System.out.println("  " + sizer.describe(candidate));
+				}
+				if (best == null) {
+					System.out.printf("Tube_Slots %d: no fleet of up to %d robots meets the target%n", tubeSlots, maxRobots);
+				} else {
+					System.out.println("Fewest robots: " + sizer.describe(best));
+					if (smallest == null || best.getRobots() < smallest.getRobots()) smallest = best;
+				}
+			}
+			int runs = 0;
+			for (Candidate candidate : sizer.getTried()) runs += candidate.scores.count();
+			System.out.printf("%d fleets, %d runs in %.2f s, at %s%n", sizer.getTried().size(), runs,
+					(System.nanoTime() - started) / 1e9, sizer.interval.describe());
+			if (smallest != null) System.out.println("Smallest fleet: " + sizer.describe(smallest));
+		} catch (SimulationFailedException e) {
+			e.printStackTrace();
+			System.out.println("Simulation unable to complete.");
+		} finally {
+			runner.shutdown();
+		}
+	}
+}
@@ -0,0 +1,31 @@
+package automail;
+
+/**
+ * Somewhere mail arrives from during a run: generated from a seed, or replayed from a trace.
+ */
+public interface IArrivalSource {
+
+	/**
+	 * @return the total number of items which will arrive during the run
+	 */
+	int getMailToCreate();
+
+	/**
+	 * @param time the current time
+	 * @return the earliest time, no sooner than the given time, at which mail will arrive,
+	 * or Integer.MAX_VALUE if no more mail will arrive
+	 */
+	int nextArrivalTime(int time);
+
+	/**
+	 * Adds the mail arriving at the current time to the pool
+	 */
+	void step();
+
+	/**
+	 * Passes over the mail arriving before the given time, which a run resumed from a
+	 * checkpoint taken then already has
+	 * @param time the time the run resumes at
+	 */
+	void skipTo(int time);
+}
@@ -0,0 +1,126 @@
+package automail;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Feeds a RealTimeService from files dropped into a directory. Each file whose name ends in
+ * .mail holds one item per line, as "floor weight" or "floor weight fragile"; blank lines and
+ * lines starting with # are ignored. A file is deleted once all of its items have been
+ * accepted. Writers should create the file under another name and rename it into place, so
+ * that it is never read half written.
+ *
+ * While the service is refusing offers the watcher waits, so the rest of a file arrives once
+ * the robots have caught up. If the service stops first, the lines not yet accepted are
+ * written back to the file, to be picked up the next time.
+ */
+class InboxWatcher implements Runnable {
+
+	private static final String SUFFIX = ".mail";
+
+	private final Path directory;
+	private final RealTimeService service;
+	/** How long to wait before offering again, and between checks that the service is running */
+	private final long retryMillis;
+
+	/**
+	 * @param directory the directory to watch
+	 * @param service where the mail is offered
+	 * @param retryMillis how long to wait before offering a refused item again
+	 */
+	InboxWatcher(Path directory, RealTimeService service, long retryMillis) {
+		this.directory = directory;
+		this.service = service;
+		this.retryMillis = Math.max(retryMillis, 1);
+	}
+
+	public void run() {
+		try (WatchService watcher = directory.getFileSystem().newWatchService()) {
+			directory.register(watcher, StandardWatchEventKinds.ENTRY_CREATE);
+			// Files dropped before the watch started
+			acceptAll();
+			while (service.isRunning()) {
+				WatchKey key = watcher.poll(retryMillis, TimeUnit.MILLISECONDS);
+				if (key == null) continue;
+				for (WatchEvent<?> event : key.pollEvents()) {
+					if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+						acceptAll();
+					} else {
+						Path file = directory.resolve((Path) event.context());
+						if (file.getFileName().toString().endsWith(SUFFIX)) accept(file);
+					}
+				}
+				if (!key.reset()) {
+					System.err.println("Inbox " + directory + " is no longer accessible");
+					return;
+				}
+			}
+		} catch (IOException e) {
+			System.err.println("Unable to watch inbox " + directory + ": " + e);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private void acceptAll() throws IOException, InterruptedException {
+		try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*" + SUFFIX)) {
+			for (Path file : files) {
+				accept(file);
+			}
+		}
+	}
+
+	/**
+	 * Offers every item in the file, then deletes it
+	 */
+	private void accept(Path file) throws InterruptedException {
+		List<String> lines;
+		try {
+			lines = Files.readAllLines(file, StandardCharsets.UTF_8);
+		} catch (IOException e) {
+			// Already taken, or not readable yet; an unreadable file is retried on overflow
+			return;
+		}
+		for (int i = 0; i < lines.size(); i++) {
+			String line = lines.get(i).trim();
+			if (line.isEmpty() || line.startsWith("#")) continue;
+			String[] fields = line.split("\\s+");
+			try {
+				int floor = Integer.parseInt(fields[0]);
+				int weight = Integer.parseInt(fields[1]);
+				boolean fragile = fields.length > 2 && fields[2].equals("fragile");
+				while (!service.offer(floor, weight, fragile)) {
+					if (!service.isRunning()) {
+						putBack(file, lines.subList(i, lines.size()));
+						return;
+					}
+					Thread.sleep(retryMillis);
+				}
+			} catch (IllegalArgumentException|ArrayIndexOutOfBoundsException e) {
+				System.err.println("Skipping line " + (i + 1) + " of " + file + ": " + line);
+			}
+		}
+		try {
+			Files.deleteIfExists(file);
+		} catch (IOException e) {
+			System.err.println("Unable to delete " + file + ", its mail may be offered again: " + e);
+		}
+	}
+
+	private void putBack(Path file, List<String> lines) {
+		try {
+			Files.write(file, lines, StandardCharsets.UTF_8);
+		} catch (IOException e) {
+			System.err.println("Unable to save the unaccepted mail in " + file + ": " + e);
+		}
+	}
+}
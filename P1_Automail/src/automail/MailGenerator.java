@@ -1,5 +1,11 @@
 package automail;
 
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.*;
 
 import strategies.IMailPool;
@@ -7,42 +13,86 @@ import strategies.IMailPool;
 /**
  * This class generates the mail
  */
-public class MailGenerator {
+public class MailGenerator implements IArrivalSource {
 
     public final int MAIL_TO_CREATE;
     public final int MAIL_MAX_WEIGHT;
     
     private int mailCreated;
 
-    private final Random random;
+    private Random random;
     /** This seed is used to make the behaviour deterministic */
+    private final long seed;
+    private final int variation;
     
     private boolean complete;
     private IMailPool mailPool;
+    private final SimulationContext context;
 
     private Map<Integer,ArrayList<MailItem>> allMail;
+    /** The distinct arrival times, in order, and the position of the next one */
+    private int[] arrivalTimes;
+    private int nextArrival;
+
+    /**
+     * When streaming, only the number of items arriving at each tick is kept for the whole run.
+     * The items themselves wait in a temporary spill file, grouped by the window of ticks they
+     * arrive in, and are read back one window at a time.
+     */
+    private boolean streaming;
+    private boolean generateFragile;
+    private int firstId;
+    private int[] arrivalCounts;
+    /** The first tick of each window, then the tick after the last, and the items before each window */
+    private int[] windowStarts;
+    private int[] windowItems;
+    private FileChannel spill;
+    /** The ticks covered by the current window, and where each tick's items start in it */
+    private int windowStart;
+    private int windowEnd;
+    private int[] windowOffsets;
+    /** The current window's items, as (floor << 33 | weight << 1 | fragile), and their ids */
+    private long[] windowMail;
+    private int[] windowIds;
+    private ByteBuffer windowBytes;
+    private int drawnArrival;
+
+    /** The bytes of a spilled item: its id, arrival time, and the rest packed as in windowMail */
+    private static final int SPILL_RECORD = 16;
+    /** Roughly how many bytes of spilled items are staged in memory, across all windows, before being written */
+    private static final int SPILL_STAGING = 1 << 20;
 
     /**
      * Constructor for mail generation
      * @param mailToCreate roughly how many mail items to create
      * @param mailPool where mail items go on arrival
      * @param seed random seed for generating mail
+     * @param context the simulation run the mail belongs to
      */
-    public MailGenerator(int mailToCreate, int mailMaxWeight, IMailPool mailPool, HashMap<Boolean,Integer> seed){
-        if(seed.containsKey(true)){
-        	this.random = new Random((long) seed.get(true));
-        }
-        else{
-        	this.random = new Random();	
-        }
+    public MailGenerator(int mailToCreate, int mailMaxWeight, IMailPool mailPool, HashMap<Boolean,Integer> seed, SimulationContext context){
+        this(mailToCreate, mailMaxWeight, mailPool, seed.containsKey(true) ? (long) seed.get(true) : new Random().nextLong(), context);
+    }
+
+    /**
+     * Constructor for mail generation from a known seed, such as that of a checkpoint
+     * @param mailToCreate roughly how many mail items to create
+     * @param mailPool where mail items go on arrival
+     * @param seed random seed for generating mail
+     * @param context the simulation run the mail belongs to
+     */
+    public MailGenerator(int mailToCreate, int mailMaxWeight, IMailPool mailPool, long seed, SimulationContext context){
+        this.seed = seed;
+        this.random = new Random(this.seed);
         // Vary arriving mail by +/-20%
-        MAIL_TO_CREATE = mailToCreate*4/5 + random.nextInt(mailToCreate*2/5);
+        variation = mailToCreate*2/5;
+        MAIL_TO_CREATE = mailToCreate*4/5 + random.nextInt(variation);
         MAIL_MAX_WEIGHT = mailMaxWeight;
         // System.out.println("Num Mail Items: "+MAIL_TO_CREATE);
         mailCreated = 0;
         complete = false;
         allMail = new HashMap<Integer,ArrayList<MailItem>>();
         this.mailPool = mailPool;
+        this.context = context;
     }
 
     /**
@@ -53,7 +103,20 @@ public class MailGenerator {
         int arrival_time = generateArrivalTime();
         int weight = generateWeight();
         boolean isFragile = generateFragile && generateFragile();
-        return new MailItem(dest_floor, arrival_time, weight, isFragile);
+        return new MailItem(dest_floor, arrival_time, weight, isFragile, context);
+    }
+
+    /**
+     * Draws the next item from the random sequence, in the same order as generateMail, without
+     * creating it. The arrival time is left in drawnArrival.
+     * @return the rest of the item, packed as in windowMail
+     */
+    private long drawMail(){
+        int dest_floor = generateDestinationFloor();
+        drawnArrival = generateArrivalTime();
+        int weight = generateWeight();
+        boolean isFragile = generateFragile && generateFragile();
+        return ((long) dest_floor << 33) | ((long) weight << 1) | (isFragile ? 1 : 0);
     }
     
     private boolean generateFragile() {
@@ -66,7 +129,7 @@ public class MailGenerator {
      * @return a destination floor between the ranges of GROUND_FLOOR to FLOOR
      */
     private int generateDestinationFloor(){
-        return Building.LOWEST_FLOOR + random.nextInt(Building.FLOORS);
+        return Building.LOWEST_FLOOR + random.nextInt(context.building.FLOORS);
     }
 
     /**
@@ -85,7 +148,7 @@ public class MailGenerator {
      * @return a random arrival time before the last delivery time
      */
     private int generateArrivalTime(){
-        return 1 + random.nextInt(Clock.LAST_DELIVERY_TIME);
+        return 1 + random.nextInt(context.clock.LAST_DELIVERY_TIME);
     }
 
     /**
@@ -116,17 +179,227 @@ public class MailGenerator {
                 complete = true;
             }
         }
+        arrivalTimes = new int[allMail.size()];
+        int i = 0;
+        for(int time : allMail.keySet()){
+            arrivalTimes[i++] = time;
+        }
+        Arrays.sort(arrivalTimes);
+        nextArrival = 0;
+
+    }
+    
+    /**
+     * Prepares to generate the same mail as generateAllMail, but only creates the items arriving
+     * at each tick when that tick is reached. One pass over the random sequence counts the items
+     * arriving at each tick, which splits the run into windows of ticks holding about window
+     * items each. A second pass spills every item to a temporary file, grouped by its window, so
+     * that each window is later read back in one go rather than regenerated from the seed. No
+     * more than about window items are held in memory at once, and the sequence is drawn twice
+     * whatever the number of windows.
+     * @param generateFragile whether to generate fragile items
+     * @param window roughly how many items to hold at once
+     * @throws IOException if the spill file cannot be written
+     */
+    public void streamAllMail(boolean generateFragile, int window) throws IOException {
+        this.streaming = true;
+        this.generateFragile = generateFragile;
+        window = Math.max(window, 1);
+        this.firstId = context.reserveMailIds(MAIL_TO_CREATE);
+        arrivalCounts = new int[context.clock.LAST_DELIVERY_TIME + 2];
+        int distinct = 0;
+        for (mailCreated = 0; mailCreated < MAIL_TO_CREATE; mailCreated++) {
+            drawMail();
+            if (arrivalCounts[drawnArrival]++ == 0) distinct++;
+        }
+        complete = true;
+        arrivalTimes = new int[distinct];
+        int i = 0;
+        for (int time = 0; time < arrivalCounts.length; time++) {
+            if (arrivalCounts[time] > 0) arrivalTimes[i++] = time;
+        }
+        nextArrival = 0;
+        splitWindows(window);
+        try {
+            spillAllMail(window);
+        } catch (IOException e) {
+            close();
+            throw e;
+        }
+        windowStart = windowEnd = 0;
+    }
+
+    /**
+     * Splits the ticks into windows, each as long as it can be without holding more than window
+     * items, unless its first tick alone holds more
+     */
+    private void splitWindows(int window){
+        int[] starts = new int[arrivalCounts.length + 1];
+        int[] items = new int[arrivalCounts.length + 1];
+        int windows = 0;
+        int end = 0;
+        while (end < arrivalCounts.length) {
+            starts[windows] = end;
+            items[windows + 1] = items[windows];
+            do {
+                items[windows + 1] += arrivalCounts[end++];
+            } while (end < arrivalCounts.length && items[windows + 1] - items[windows] + arrivalCounts[end] <= window);
+            windows++;
+        }
+        starts[windows] = arrivalCounts.length;
+        windowStarts = Arrays.copyOf(starts, windows + 1);
+        windowItems = Arrays.copyOf(items, windows + 1);
+    }
+
+    /**
+     * Regenerates the random sequence and writes each item to its window's part of the spill
+     * file, staging a few of each window's items at a time so the file is written in blocks
+     */
+    private void spillAllMail(int window) throws IOException {
+        File file = File.createTempFile("automail-mail", ".spill");
+        spill = new RandomAccessFile(file, "rw").getChannel();
+        // The open channel keeps the file until it is closed
+        if (!file.delete()) file.deleteOnExit();
+        int windows = windowStarts.length - 1;
+        int staging = Math.max(1, Math.min(window, SPILL_STAGING / SPILL_RECORD / windows));
+        ByteBuffer staged = ByteBuffer.allocate(windows * staging * SPILL_RECORD);
+        int[] stagedCounts = new int[windows];
+        int[] spilled = Arrays.copyOf(windowItems, windows);
+        random = new Random(seed);
+        random.nextInt(variation);
+        for (int i = 0; i < MAIL_TO_CREATE; i++) {
+            long mail = drawMail();
+            int w = windowOf(drawnArrival);
+            int offset = (w * staging + stagedCounts[w]) * SPILL_RECORD;
+            staged.putInt(offset, firstId + i).putInt(offset + 4, drawnArrival).putLong(offset + 8, mail);
+            if (++stagedCounts[w] == staging) {
+                spilled[w] += writeSpill(staged, w * staging, stagedCounts[w], spilled[w]);
+                stagedCounts[w] = 0;
+            }
+        }
+        for (int w = 0; w < windows; w++) {
+            spilled[w] += writeSpill(staged, w * staging, stagedCounts[w], spilled[w]);
+        }
+    }
+
+    /**
+     * Writes count staged items, from the given staged record on, as the spill file's items from position on
+     * @return the number of items written
+     */
+    private int writeSpill(ByteBuffer staged, int first, int count, int position) throws IOException {
+        ByteBuffer items = ByteBuffer.wrap(staged.array(), first * SPILL_RECORD, count * SPILL_RECORD);
+        long at = (long) position * SPILL_RECORD;
+        while (items.hasRemaining()) {
+            at += spill.write(items, at);
+        }
+        return count;
+    }
+
+    /**
+     * @return the window the given tick is in
+     */
+    private int windowOf(int time){
+        int w = Arrays.binarySearch(windowStarts, time);
+        return w >= 0 ? w : -w - 2;
+    }
 
+    /**
+     * Reads the items of a window back from the spill file, into the order they arrive in.
+     * Each window's items were spilled in the order they were generated, which is the order
+     * generateAllMail adds each tick's items in. The file is closed once the last window is read.
+     * @param w the window
+     */
+    private void loadWindow(int w){
+        int start = windowStarts[w];
+        int end = windowStarts[w + 1];
+        int held = windowItems[w + 1] - windowItems[w];
+        if (windowMail == null || windowMail.length < held) {
+            windowMail = new long[held];
+            windowIds = new int[held];
+            windowBytes = ByteBuffer.allocate(held * SPILL_RECORD);
+        }
+        windowOffsets = new int[end - start + 1];
+        for (int time = start; time < end; time++) {
+            windowOffsets[time - start + 1] = windowOffsets[time - start] + arrivalCounts[time];
+        }
+        int[] next = Arrays.copyOf(windowOffsets, end - start);
+        try {
+            ByteBuffer items = ByteBuffer.wrap(windowBytes.array(), 0, held * SPILL_RECORD);
+            long at = (long) windowItems[w] * SPILL_RECORD;
+            while (items.hasRemaining()) {
+                int read = spill.read(items, at);
+                if (read < 0) throw new IOException("The mail spill file ended early");
+                at += read;
+            }
+            if (w == windowStarts.length - 2) close();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        for (int i = 0; i < held; i++) {
+            int offset = i * SPILL_RECORD;
+            int slot = next[windowBytes.getInt(offset + 4) - start]++;
+            windowIds[slot] = windowBytes.getInt(offset);
+            windowMail[slot] = windowBytes.getLong(offset + 8);
+        }
+        windowStart = start;
+        windowEnd = end;
+    }
+
+    /**
+     * Closes the spill file, if streaming, which deletes it. A run which ends early must call
+     * this, as the file is otherwise only closed once the last window has been read.
+     */
+    public void close() throws IOException {
+        if (spill != null) spill.close();
+    }
+
+    @Override
+    public int getMailToCreate(){
+        return MAIL_TO_CREATE;
+    }
+
+    /**
+     * @return the seed the mail is generated from, which is random if none was given
+     */
+    public long getSeed(){
+        return seed;
+    }
+
+    /**
+     * Nothing to do: step only ever looks at the mail arriving at the current time
+     */
+    @Override
+    public void skipTo(int time){
+    }
+
+    @Override
+    public int nextArrivalTime(int time){
+        while(nextArrival < arrivalTimes.length && arrivalTimes[nextArrival] < time){
+            nextArrival++;
+        }
+        return nextArrival < arrivalTimes.length ? arrivalTimes[nextArrival] : Integer.MAX_VALUE;
     }
     
     /**
      * While there are steps left, create a new mail item to deliver
      */
+    @Override
     public void step(){
     	// Check if there are any mail to create
-        if(this.allMail.containsKey(Clock.Time())){
-            for(MailItem mailItem : allMail.get(Clock.Time())){
-                System.out.printf("T: %3d > + addToPool [%s]%n", Clock.Time(), mailItem.toString());
+        int time = context.clock.Time();
+        if(streaming){
+            if(time >= arrivalCounts.length || arrivalCounts[time] == 0) return;
+            if(time < windowStart || time >= windowEnd) loadWindow(windowOf(time));
+            for(int i = windowOffsets[time - windowStart]; i < windowOffsets[time - windowStart + 1]; i++){
+                long mail = windowMail[i];
+                MailItem mailItem = new MailItem(windowIds[i], (int) (mail >>> 33), time, (int) (mail >>> 1) & Integer.MAX_VALUE, (mail & 1) != 0);
+                context.events.mailArrived(time, mailItem);
+                mailPool.addToPool(mailItem);
+            }
+        }
+        else if(this.allMail.containsKey(time)){
+            for(MailItem mailItem : allMail.get(time)){
+                context.events.mailArrived(time, mailItem);
                 mailPool.addToPool(mailItem);
             }
         }
@@ -1,8 +1,5 @@
 package automail;
 
-import java.util.Map;
-import java.util.TreeMap;
-
 // import java.util.UUID;
 
 /**
@@ -13,7 +10,7 @@ public class MailItem {
     /** Represents the destination floor to which the mail is intended to go */
     protected final int destination_floor;
     /** The mail identifier */
-    protected final String id;
+    protected final int id;
     /** The time the mail item arrived */
     protected final int arrival_time;
     /** The weight in grams of the mail item */
@@ -28,10 +25,28 @@ public class MailItem {
      * @param dest_floor the destination floor intended for this mail item
      * @param arrival_time the time that the mail arrived
      * @param weight the weight of this mail item
+     * @param context the simulation run the item belongs to
+     */
+    public MailItem(int dest_floor, int arrival_time, int weight, boolean isFragile, SimulationContext context){
+        this.destination_floor = dest_floor;
+        this.id = context.nextMailId();
+        this.arrival_time = arrival_time;
+        this.weight = weight;
+        this.fragile = isFragile;
+        this.isWrapped = false;
+    }
+
+    /**
+     * Constructor for a MailItem whose id has already been assigned, such as one reserved
+     * from its run or one read back from an event log
+     * @param id the id of this mail item
+     * @param dest_floor the destination floor intended for this mail item
+     * @param arrival_time the time that the mail arrived
+     * @param weight the weight of this mail item
      */
-    public MailItem(int dest_floor, int arrival_time, int weight, boolean isFragile){
+    public MailItem(int id, int dest_floor, int arrival_time, int weight, boolean isFragile){
         this.destination_floor = dest_floor;
-        this.id = String.valueOf(hashCode());
+        this.id = id;
         this.arrival_time = arrival_time;
         this.weight = weight;
         this.fragile = isFragile;
@@ -40,7 +55,7 @@ public class MailItem {
 
     @Override
     public String toString(){
-        return String.format("Mail Item:: ID: %6s | Arrival: %4d | Destination: %2d | Weight: %4d | %7s", id, arrival_time, destination_floor, weight, (fragile ? "fragile" : "normal"));
+        return String.format("Mail Item:: ID: %6d | Arrival: %4d | Destination: %2d | Weight: %4d | %7s", id, arrival_time, destination_floor, weight, (fragile ? "fragile" : "normal"));
     }
 
     /**
@@ -55,7 +70,7 @@ public class MailItem {
      *
      * @return the ID of the mail item
      */
-    public String getId() {
+    public int getId() {
         return id;
     }
 
@@ -90,14 +105,8 @@ public class MailItem {
        return isWrapped;
    }
    
-	static private int count = 0;
-	static private Map<Integer, Integer> hashMap = new TreeMap<Integer, Integer>();
-
 	@Override
 	public int hashCode() {
-		Integer hash0 = super.hashCode();
-		Integer hash = hashMap.get(hash0);
-		if (hash == null) { hash = count++; hashMap.put(hash0, hash); }
-		return hash;
+		return id;
 	}
 }
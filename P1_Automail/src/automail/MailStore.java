@@ -0,0 +1,173 @@
+package automail;
+
+import java.util.Arrays;
+
+/**
+ * Holds mail items as primitives instead of objects. Each item is a dense int handle into
+ * parallel arrays: its id, and its destination, arrival time, weight, fragile and wrapped
+ * flags packed into one long. Handles of removed items are reused, so the store only grows
+ * with the number of items held at once, at 16 bytes per item. The arrays are allocated in
+ * fixed-size chunks, so growing never copies them or leaves half of them unused.
+ *
+ * Each handle also has a link field, which its owner may use to chain handles into lists
+ * without allocating nodes. The store uses it for its own free list.
+ */
+public class MailStore {
+
+	private static final int FRAGILE = 1;
+	private static final int WRAPPED = 1 << 1;
+	private static final int WEIGHT_SHIFT = 2;
+	private static final int WEIGHT_BITS = 15;
+	private static final int FLOOR_SHIFT = WEIGHT_SHIFT + WEIGHT_BITS;
+	private static final int FLOOR_BITS = 16;
+	private static final int ARRIVAL_SHIFT = FLOOR_SHIFT + FLOOR_BITS;
+	/** The largest weight and floor the packed fields hold */
+	public static final int MAX_WEIGHT = (1 << WEIGHT_BITS) - 1;
+	public static final int MAX_FLOOR = (1 << FLOOR_BITS) - 1;
+
+	/** Link value for the end of a list */
+	public static final int NONE = -1;
+
+	/** Handles per chunk of the arrays */
+	private static final int CHUNK_BITS = 15;
+	private static final int CHUNK = 1 << CHUNK_BITS;
+	private static final int OFFSET = CHUNK - 1;
+
+	/** Each item, as (arrival << 33 | floor << 17 | weight << 2 | wrapped << 1 | fragile) */
+	private long[][] mail;
+	private int[][] ids;
+	private int[][] links;
+	/** The first free handle, chained through links, and the handles never used */
+	private int free = NONE;
+	private int used = 0;
+	private int size = 0;
+
+	public MailStore() {
+		mail = new long[0][];
+		ids = new int[0][];
+		links = new int[0][];
+	}
+
+	/**
+	 * Stores an item
+	 * @return its handle, whose link is NONE
+	 * @throws IllegalArgumentException if the item's weight or floor is too large to store
+	 */
+	public int add(MailItem mailItem) {
+		if (mailItem.weight < 0 || mailItem.weight > MAX_WEIGHT) {
+			throw new IllegalArgumentException("Weight out of range for MailStore: " + mailItem.weight);
+		}
+		if (mailItem.destination_floor < 0 || mailItem.destination_floor > MAX_FLOOR) {
+			throw new IllegalArgumentException("Floor out of range for MailStore: " + mailItem.destination_floor);
+		}
+		int handle;
+		if (free != NONE) {
+			handle = free;
+			free = getLink(handle);
+		} else {
+			if (used == mail.length * CHUNK) grow();
+			handle = used++;
+		}
+		mail[handle >>> CHUNK_BITS][handle & OFFSET] = ((long) mailItem.arrival_time << ARRIVAL_SHIFT)
+				| ((long) mailItem.destination_floor << FLOOR_SHIFT)
+				| ((long) mailItem.weight << WEIGHT_SHIFT)
+				| (mailItem.isWrapped ? WRAPPED : 0)
+				| (mailItem.fragile ? FRAGILE : 0);
+		ids[handle >>> CHUNK_BITS][handle & OFFSET] = mailItem.id;
+		setLink(handle, NONE);
+		size++;
+		return handle;
+	}
+
+	/**
+	 * Adds a chunk to each array
+	 */
+	private void grow() {
+		int chunks = mail.length + 1;
+		mail = Arrays.copyOf(mail, chunks);
+		ids = Arrays.copyOf(ids, chunks);
+		links = Arrays.copyOf(links, chunks);
+		mail[chunks - 1] = new long[CHUNK];
+		ids[chunks - 1] = new int[CHUNK];
+		links[chunks - 1] = new int[CHUNK];
+	}
+
+	private long packed(int handle) {
+		return mail[handle >>> CHUNK_BITS][handle & OFFSET];
+	}
+
+	/**
+	 * @return a copy of a stored item, as a new MailItem
+	 */
+	public MailItem get(int handle) {
+		long packed = packed(handle);
+		MailItem mailItem = new MailItem(getId(handle), floor(packed), (int) (packed >>> ARRIVAL_SHIFT),
+				(int) (packed >>> WEIGHT_SHIFT) & MAX_WEIGHT, (packed & FRAGILE) != 0);
+		mailItem.isWrapped = (packed & WRAPPED) != 0;
+		return mailItem;
+	}
+
+	/**
+	 * Removes an item from the store
+	 * @return the item, as a new MailItem
+	 */
+	public MailItem remove(int handle) {
+		MailItem mailItem = get(handle);
+		setLink(handle, free);
+		free = handle;
+		size--;
+		return mailItem;
+	}
+
+	private static int floor(long packed) {
+		return (int) (packed >>> FLOOR_SHIFT) & MAX_FLOOR;
+	}
+
+	public int getId(int handle) {
+		return ids[handle >>> CHUNK_BITS][handle & OFFSET];
+	}
+
+	public int getDestFloor(int handle) {
+		return floor(packed(handle));
+	}
+
+	public int getArrivalTime(int handle) {
+		return (int) (packed(handle) >>> ARRIVAL_SHIFT);
+	}
+
+	public int getWeight(int handle) {
+		return (int) (packed(handle) >>> WEIGHT_SHIFT) & MAX_WEIGHT;
+	}
+
+	public boolean getFragile(int handle) {
+		return (packed(handle) & FRAGILE) != 0;
+	}
+
+	public boolean getWrapped(int handle) {
+		return (packed(handle) & WRAPPED) != 0;
+	}
+
+	public void setWrapped(int handle, boolean wrapped) {
+		long[] chunk = mail[handle >>> CHUNK_BITS];
+		int i = handle & OFFSET;
+		chunk[i] = wrapped ? chunk[i] | WRAPPED : chunk[i] & ~WRAPPED;
+	}
+
+	/**
+	 * @return the handle linked from this one, or NONE
+	 */
+	public int getLink(int handle) {
+		return links[handle >>> CHUNK_BITS][handle & OFFSET];
+	}
+
+	public void setLink(int handle, int next) {
+		links[handle >>> CHUNK_BITS][handle & OFFSET] = next;
+	}
+
+	/**
+	 * @return the number of items held
+	 */
+	public int size() {
+		return size;
+	}
+}
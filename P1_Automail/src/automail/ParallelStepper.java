@@ -0,0 +1,108 @@
+package automail;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import exceptions.ExcessiveDeliveryException;
+import strategies.IMailPool;
+
+/**
+ * Steps every robot once per tick in two phases. First the robots step in parallel on a
+ * fork-join pool, each recording what it does to the pool, the delivery and the event sink
+ * in its own EffectBuffer. Then the buffers are committed one robot at a time, in index order.
+ * Robots never read each other's state or anything they report to while stepping, so the
+ * results are identical to stepping them one after another.
+ *
+ * Most robots in a large fleet are travelling on any one tick and record nothing, so each
+ * task lists the robots in its segment that did record something, and only those are
+ * committed. The serial phase then costs one visit per segment and per effect, not per robot.
+ */
+class ParallelStepper {
+
+	/** The fewest robots worth stepping as a separate task */
+	private static final int MIN_CHUNK = 64;
+
+	private final Robot[] robots;
+	private final EffectBuffer[] buffers;
+	private final ForkJoinPool pool;
+	private final int chunk;
+	/** For each segment of chunk robots, the buffers left to commit after the last step, in index order */
+	private final EffectBuffer[][] pending;
+	private final int[] pendingCount;
+
+	/**
+	 * @param robots the robots to step, which will report through buffers from now on
+	 * @param mailPool the pool the robots return mail to and wait in
+	 * @param context the simulation run the robots belong to
+	 * @param threads how many threads to step the robots on
+	 */
+	ParallelStepper(Robot[] robots, IMailPool mailPool, SimulationContext context, int threads) {
+		this.robots = robots;
+		buffers = new EffectBuffer[robots.length];
+		for (int i = 0; i < robots.length; i++) {
+			buffers[i] = new EffectBuffer(mailPool, robots[i].getDelivery(), context.events);
+			robots[i].bufferEffects(buffers[i]);
+		}
+		pool = new ForkJoinPool(threads);
+		chunk = Math.max(MIN_CHUNK, robots.length / (threads * 8));
+		int segments = (robots.length + chunk - 1) / chunk;
+		pending = new EffectBuffer[segments][];
+		for (int s = 0; s < segments; s++) {
+			pending[s] = new EffectBuffer[Math.min(chunk, robots.length - s * chunk)];
+		}
+		pendingCount = new int[segments];
+	}
+
+	/**
+	 * Steps every robot once
+	 * @throws ExcessiveDeliveryException if a robot delivers more than it can carry without refilling.
+	 * The robots before it have been committed, as have its own effects up to the failure.
+	 */
+	void step() throws ExcessiveDeliveryException {
+		pool.invoke(new Steps(0, pending.length));
+		EffectBuffer.commitAll(pending, pendingCount);
+	}
+
+	/**
+	 * Stops the threads
+	 */
+	void shutdown() {
+		pool.shutdown();
+	}
+
+	/** Steps a range of segments, splitting it until each task has one segment */
+	private class Steps extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		private final int from;
+		private final int to;
+
+		Steps(int from, int to) {
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from > 1) {
+				int middle = (from + to) >>> 1;
+				invokeAll(new Steps(from, middle), new Steps(middle, to));
+				return;
+			}
+			EffectBuffer[] segment = pending[from];
+			int count = 0;
+			int end = Math.min(robots.length, (from + 1) * chunk);
+			for (int i = from * chunk; i < end; i++) {
+				buffers[i].buffer();
+				try {
+					robots[i].step();
+				} catch (Throwable e) {
+					buffers[i].thrown = e;
+				}
+				if (buffers[i].settle()) segment[count++] = buffers[i];
+			}
+			pendingCount[from] = count;
+		}
+	}
+}
@@ -0,0 +1,83 @@
+package automail;
+
+import java.lang.reflect.Constructor;
+
+import strategies.IMailPool;
+
+/**
+ * Times the phases of each tick for one run. The timing is done by PhaseEvents with Java
+ * Flight Recorder events, which only exist from Java 11, so PhaseEvents is built apart from
+ * the rest of the simulation and loaded by name. On an older runtime, or one without JFR,
+ * every phase goes untimed.
+ */
+abstract class PhaseTimer {
+
+	/** The PhaseEvents constructor, or null if it cannot be loaded on this runtime */
+	private static final Constructor<? extends PhaseTimer> EVENTS;
+	static {
+		Constructor<? extends PhaseTimer> events = null;
+		try {
+			events = Class.forName("automail.PhaseEvents").asSubclass(PhaseTimer.class).getDeclaredConstructor();
+		} catch (ReflectiveOperationException e) {
+			events = null;
+		} catch (LinkageError e) {
+			// Built for a later Java than this one, or the jdk.jfr module is missing
+			events = null;
+		}
+		EVENTS = events;
+	}
+
+	/** Times nothing */
+	private static final PhaseTimer NONE = new PhaseTimer() {
+		boolean isEnabled() {
+			return false;
+		}
+
+		void startArrivals(int tick, IMailPool mailPool) {}
+		void finishArrivals(IMailPool mailPool) {}
+		void startDispatch(int tick, IMailPool mailPool) {}
+		void finishDispatch(IMailPool mailPool) {}
+		void startSteps(int tick, int robotsStepped) {}
+		void finishSteps() {}
+		void startDelivery(int tick, MailItem mailItem, boolean rejected) {}
+		void finishDelivery() {}
+	};
+
+	/**
+	 * @return a timer for a new run, which times its phases with PhaseEvents if this runtime can
+	 */
+	static PhaseTimer create() {
+		if (EVENTS == null) return NONE;
+		try {
+			return EVENTS.newInstance();
+		} catch (ReflectiveOperationException e) {
+			return NONE;
+		}
+	}
+
+	/**
+	 * Asked once at the start of each tick. Deliveries are timed only if it was true for
+	 * the tick they happen in.
+	 * @return whether the tick's phases should be timed
+	 */
+	abstract boolean isEnabled();
+
+	abstract void startArrivals(int tick, IMailPool mailPool);
+
+	abstract void finishArrivals(IMailPool mailPool);
+
+	abstract void startDispatch(int tick, IMailPool mailPool);
+
+	abstract void finishDispatch(IMailPool mailPool);
+
+	/**
+	 * @param robotsStepped the number of robots which will step
+	 */
+	abstract void startSteps(int tick, int robotsStepped);
+
+	abstract void finishSteps();
+
+	abstract void startDelivery(int tick, MailItem mailItem, boolean rejected);
+
+	abstract void finishDelivery();
+}
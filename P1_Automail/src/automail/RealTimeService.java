@@ -0,0 +1,355 @@
+package automail;
+
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.nio.file.Paths;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Phaser;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+import events.IEventSink;
+import events.StatisticsEventSink;
+import exceptions.BreakingFragileItemException;
+import exceptions.ExcessiveDeliveryException;
+import exceptions.ItemTooHeavyException;
+import strategies.Automail;
+import strategies.IMailPool;
+
+/**
+ * Runs the robots and mail pool as a long-running service instead of a batch. The clock ticks
+ * once every RealTime_Tick_Millis of wall-clock time until the service is stopped, and mail
+ * arrives whenever it is offered, from any thread, rather than from a generator.
+ *
+ * Each robot steps on its own thread (a virtual thread where the JVM has them). A tick runs
+ * as in the tick engine: offered mail arrives, the pool loads waiting robots, then every robot
+ * thread steps its robot at once, recording what it does in an EffectBuffer, and the buffers
+ * are committed in robot order. Only the clock thread touches the pool, the delivery and the
+ * event sink, so any IMailPool can be used.
+ *
+ * Once the pool holds RealTime_Backpressure items, counting those offered but not yet arrived,
+ * further offers are refused until the robots catch up.
+ */
+public class RealTimeService {
+
+	/** Thread.ofVirtual() and Thread.Builder.unstarted(Runnable), or null before Java 21 */
+	private static final Method OF_VIRTUAL;
+	private static final Method UNSTARTED;
+	static {
+		Method ofVirtual = null;
+		Method unstarted = null;
+		try {
+			ofVirtual = Thread.class.getMethod("ofVirtual");
+			unstarted = Class.forName("java.lang.Thread$Builder").getMethod("unstarted", Runnable.class);
+		} catch (ReflectiveOperationException e) {
+			ofVirtual = null;
+		}
+		OF_VIRTUAL = ofVirtual;
+		UNSTARTED = unstarted;
+	}
+
+	private final SimulationContext context;
+	private final IMailPool mailPool;
+	private final Robot[] robots;
+	private final EffectBuffer[] buffers;
+	/** The robot threads and the clock thread meet here twice a tick: to step, and when stepped */
+	private final Phaser phaser;
+	/** Collects the run's statistics, or null if they are disabled */
+	private final StatisticsEventSink statistics;
+	private final long tickNanos;
+	private final int backpressure;
+	private final boolean fragileEnabled;
+
+	/** Offered mail which has not arrived yet, as (floor << 33 | weight << 1 | fragile) */
+	private final ConcurrentLinkedQueue<Long> offered = new ConcurrentLinkedQueue<Long>();
+	private final AtomicInteger pending = new AtomicInteger();
+	/** The clock, pool size and results as of the last tick, for other threads to read */
+	private volatile int time;
+	private volatile int poolDepth;
+	private volatile int delivered;
+	private volatile int rejected;
+	private volatile int lateTicks;
+
+	private volatile boolean running = true;
+	private volatile Thread clockThread;
+	private final CountDownLatch stopped = new CountDownLatch(1);
+
+	/**
+	 * Sets up the service from the simulation properties, with every robot waiting in the
+	 * mailroom. Mail_to_Create, Seed and the settings for generated mail are ignored.
+	 * @param automailProperties the simulation properties
+	 * @param events receives the service's trace
+	 */
+	public RealTimeService(Properties automailProperties, IEventSink events) {
+		int floors = Integer.parseInt(automailProperties.getProperty("Floors"));
+		int lastDeliveryTime = Integer.parseInt(automailProperties.getProperty("Last_Delivery_Time"));
+		int robotCount = Integer.parseInt(automailProperties.getProperty("Robots"));
+		fragileEnabled = Boolean.parseBoolean(automailProperties.getProperty("Fragile"));
+		tickNanos = Long.parseLong(automailProperties.getProperty("RealTime_Tick_Millis")) * 1000000L;
+		backpressure = Integer.parseInt(automailProperties.getProperty("RealTime_Backpressure"));
+		if (Boolean.parseBoolean(automailProperties.getProperty("Statistics"))) {
+			statistics = new StatisticsEventSink(events, robotCount);
+			events = statistics;
+		} else {
+			statistics = null;
+		}
+		context = new SimulationContext(floors, lastDeliveryTime, events);
+		mailPool = Simulation.createMailPool(Simulation.mailPoolClass(automailProperties.getProperty("MailPool")), robotCount);
+		IMailDelivery delivery = new Simulation.ReportDelivery(context);
+		if (automailProperties.getProperty("Fleet").equals("arrays")) {
+			robots = new Automail(mailPool, new RobotFleet(robotCount, delivery, mailPool, context, automailProperties).getRobots()).robots;
+		} else {
+			robots = new Automail(mailPool, delivery, context, robotCount, automailProperties).robots;
+		}
+		buffers = new EffectBuffer[robots.length];
+		for (int i = 0; i < robots.length; i++) {
+			buffers[i] = new EffectBuffer(mailPool, robots[i].getDelivery(), context.events);
+			robots[i].bufferEffects(buffers[i]);
+		}
+		phaser = new Phaser(robots.length + 1);
+	}
+
+	/**
+	 * Offers an item for delivery. It arrives at the start of the next tick. May be called from
+	 * any thread.
+	 * @param floor the destination floor
+	 * @param weight the weight in grams
+	 * @param fragile whether the item is fragile
+	 * @return false, and the item is not accepted, if the service is stopped or the pool is full
+	 * @throws IllegalArgumentException if the robots could never deliver the item
+	 */
+	public boolean offer(int floor, int weight, boolean fragile) {
+		if (floor < Building.LOWEST_FLOOR || floor > context.building.FLOORS) {
+			throw new IllegalArgumentException("No such floor: " + floor);
+		}
+		if (weight <= 0 || weight > Robot.INDIVIDUAL_MAX_WEIGHT) {
+			throw new IllegalArgumentException("Weight out of range: " + weight);
+		}
+		if (fragile && !fragileEnabled) {
+			throw new IllegalArgumentException("Fragile mail is not enabled");
+		}
+		while (true) {
+			int queued = pending.get();
+			if (!running || poolDepth + queued >= backpressure) return false;
+			if (pending.compareAndSet(queued, queued + 1)) break;
+		}
+		offered.add(((long) floor << 33) | ((long) weight << 1) | (fragile ? 1 : 0));
+		return true;
+	}
+
+	/**
+	 * Runs the clock on the calling thread until stop() is called
+	 * @throws ExcessiveDeliveryException if a robot delivers more than it can carry without refilling
+	 */
+	public void run() throws ExcessiveDeliveryException, ItemTooHeavyException, BreakingFragileItemException {
+		clockThread = Thread.currentThread();
+		Thread[] threads = new Thread[robots.length];
+		for (int i = 0; i < robots.length; i++) {
+			threads[i] = newRobotThread(robots[i].id, new RobotSteps(i));
+			threads[i].start();
+		}
+		Clock clock = context.clock;
+		if (statistics != null) statistics.start(clock.Time());
+		long deadline = System.nanoTime();
+		try {
+			while (running) {
+				arrive(clock.Time());
+				mailPool.step();
+				phaser.arriveAndAwaitAdvance();
+				phaser.arriveAndAwaitAdvance();
+				EffectBuffer.commitAll(buffers);
+				if (statistics != null) statistics.poolDepth(clock.Time(), mailPool.size());
+				clock.Tick();
+				publish();
+
+				deadline += tickNanos;
+				long now = System.nanoTime();
+				if (now > deadline) {
+					// Behind schedule: carry on from now rather than catching up in a burst
+					lateTicks++;
+					deadline = now;
+				}
+				while (running && (now = System.nanoTime()) < deadline) {
+					LockSupport.parkNanos(this, deadline - now);
+				}
+			}
+		} finally {
+			running = false;
+			phaser.forceTermination();
+			for (Thread thread : threads) {
+				joinQuietly(thread);
+			}
+			if (statistics != null) statistics.finish(clock.Time());
+			stopped.countDown();
+		}
+	}
+
+	/**
+	 * Makes the offered mail arrive
+	 */
+	private void arrive(int time) {
+		int arrived = 0;
+		Long mail;
+		while ((mail = offered.poll()) != null) {
+			MailItem mailItem = new MailItem((int) (mail >>> 33), time, (int) (mail >>> 1) & Integer.MAX_VALUE, (mail & 1) != 0, context);
+			context.events.mailArrived(time, mailItem);
+			mailPool.addToPool(mailItem);
+			arrived++;
+		}
+		// The pool must grow before the offers shrink, so that offer() never sees room which is not there
+		poolDepth = mailPool.size();
+		pending.addAndGet(-arrived);
+	}
+
+	private void publish() {
+		time = context.clock.Time();
+		poolDepth = mailPool.size();
+		delivered = context.getDelivered();
+		rejected = context.getRejected();
+	}
+
+	/**
+	 * Stops the service at the end of the current tick. Mail which was offered but has not
+	 * arrived is dropped. May be called from any thread.
+	 */
+	public void stop() {
+		running = false;
+		Thread clock = clockThread;
+		if (clock != null) LockSupport.unpark(clock);
+	}
+
+	/**
+	 * Waits until run() has returned
+	 */
+	public void awaitStopped() throws InterruptedException {
+		stopped.await();
+	}
+
+	public boolean isRunning() {
+		return running;
+	}
+
+	/**
+	 * @return whether offers are being refused because the pool is full
+	 */
+	public boolean isBackpressured() {
+		return poolDepth + pending.get() >= backpressure;
+	}
+
+	public int getTime() {
+		return time;
+	}
+
+	public int getPoolDepth() {
+		return poolDepth;
+	}
+
+	public int getDelivered() {
+		return delivered;
+	}
+
+	public int getRejected() {
+		return rejected;
+	}
+
+	/**
+	 * @return how many ticks took longer than RealTime_Tick_Millis
+	 */
+	public int getLateTicks() {
+		return lateTicks;
+	}
+
+	public void printResults() {
+		System.out.println("T: "+context.clock.Time()+" | Service stopped");
+		System.out.println("Delivered: "+context.getDelivered()+" | Rejected: "+context.getRejected()+" | Late ticks: "+lateTicks);
+		System.out.printf("Final Score: %.2f%n", context.total_score);
+		if (statistics != null) statistics.printSummary(System.out);
+	}
+
+	/** Steps one robot each time the clock thread releases the robots, until the service stops */
+	private class RobotSteps implements Runnable {
+
+		private final int index;
+
+		RobotSteps(int index) {
+			this.index = index;
+		}
+
+		public void run() {
+			while (phaser.arriveAndAwaitAdvance() >= 0) {
+				buffers[index].buffer();
+				try {
+					robots[index].step();
+				} catch (Throwable e) {
+					buffers[index].thrown = e;
+				}
+				if (phaser.arriveAndAwaitAdvance() < 0) return;
+			}
+		}
+	}
+
+	/**
+	 * @return an unstarted virtual thread if the JVM has them, otherwise a daemon platform thread
+	 */
+	static Thread newRobotThread(String name, Runnable task) {
+		if (OF_VIRTUAL != null) {
+			try {
+				Thread thread = (Thread) UNSTARTED.invoke(OF_VIRTUAL.invoke(null), task);
+				thread.setName(name);
+				return thread;
+			} catch (ReflectiveOperationException e) {
+				// Fall back to a platform thread
+			}
+		}
+		Thread thread = new Thread(task, name);
+		thread.setDaemon(true);
+		return thread;
+	}
+
+	private static void joinQuietly(Thread thread) {
+		try {
+			thread.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Runs the service until the JVM is shut down, taking mail from the files dropped into
+	 * RealTime_Inbox if it is set
+	 */
+	public static void main(String[] args) throws IOException {
+		Properties automailProperties = Simulation.loadProperties();
+		final IEventSink events = Simulation.createEventSink(automailProperties);
+		final RealTimeService service = new RealTimeService(automailProperties, events);
+		final CountDownLatch reported = new CountDownLatch(1);
+		Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+			public void run() {
+				service.stop();
+				try {
+					reported.await();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		}, "shutdown"));
+		String inbox = automailProperties.getProperty("RealTime_Inbox");
+		if (inbox != null) {
+			Thread watcher = new Thread(new InboxWatcher(Paths.get(inbox), service, service.tickNanos / 1000000L), "inbox");
+			watcher.setDaemon(true);
+			watcher.start();
+		}
+		try {
+			service.run();
+		} catch (ExcessiveDeliveryException|ItemTooHeavyException|BreakingFragileItemException e) {
+			e.printStackTrace();
+			System.out.println("Service unable to continue.");
+		} finally {
+			events.close();
+			service.printResults();
+			reported.countDown();
+		}
+	}
+}
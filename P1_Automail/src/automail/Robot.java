@@ -1,12 +1,14 @@
 package automail;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.util.Properties;
 
+import events.IEventSink;
 import exceptions.BreakingFragileItemException;
 import exceptions.ExcessiveDeliveryException;
 import exceptions.ItemTooHeavyException;
 import strategies.IMailPool;
-import java.util.Map;
-import java.util.TreeMap;
 
 /**
  * The robot delivers mail!
@@ -16,7 +18,11 @@ public class Robot {
     static public final int INDIVIDUAL_MAX_WEIGHT = 2000;
 
     private IMailDelivery delivery;
+    private IEventSink events;
     protected final String id;
+    /** The robot's number, n in its id Rn, which events report the robot by */
+    private final int hash;
+    private final Clock clock;
     /** Possible states the robot can be in */
     public enum RobotState { DELIVERING, WAITING, RETURNING, WRAP_STAGE_1, WRAP_STAGE_2, DELIVER_FRAGILE, HOLD }
     public RobotState current_state;
@@ -28,8 +34,14 @@ public class Robot {
     private boolean CAUTION_ENABLED;
     private boolean FRAGILE_ENABLED;
     
+    /** The number of items the tube holds, and the most weight the robot may carry at once (0 for no limit) */
+    private final int TUBE_SLOTS;
+    private final int CARRY_MAX_WEIGHT;
+    
     private MailItem deliveryItem = null;
-    private MailItem tube = null;
+    /** The items in the tube, in the order they will be delivered */
+    private final MailItem[] tube;
+    private int tubeCount = 0;
     private MailItem specialHand = null;
     
     private int deliveryCounter;
@@ -41,19 +53,74 @@ public class Robot {
      * @param behaviour governs selection of mail items for delivery and behaviour on priority arrivals
      * @param delivery governs the final delivery
      * @param mailPool is the source of mail items
+     * @param context the simulation run the robot belongs to
      */
-    public Robot(IMailDelivery delivery, IMailPool mailPool, Properties automailProperties){
-    	id = "R" + hashCode();
+    public Robot(IMailDelivery delivery, IMailPool mailPool, SimulationContext context, Properties automailProperties){
+    	this(delivery, mailPool, context, Boolean.parseBoolean(automailProperties.getProperty("Caution")),
+    			Boolean.parseBoolean(automailProperties.getProperty("Fragile")),
+    			tubeSlots(automailProperties), carryMaxWeight(automailProperties), true);
+    }
+    
+    /**
+     * Initiates the robot at the mailroom, with settings already read from the properties
+     * @param delivery governs the final delivery
+     * @param mailPool is the source of mail items
+     * @param context the simulation run the robot belongs to
+     * @param tubeSlots the number of items the tube holds
+     * @param carryMaxWeight the most weight the robot may carry at once, or 0 for no limit
+     * @param hasTube false if the robot's items are kept elsewhere, as a RobotFleet keeps its
+     * robots', so that no tube is allocated
+     */
+    Robot(IMailDelivery delivery, IMailPool mailPool, SimulationContext context, boolean cautionEnabled,
+    		boolean fragileEnabled, int tubeSlots, int carryMaxWeight, boolean hasTube){
+    	hash = context.nextRobotId();
+    	id = "R" + hash;
         // current_state = RobotState.WAITING;
     	current_state = RobotState.RETURNING;
         current_floor = Building.MAILROOM_LOCATION;
         this.delivery = delivery;
         this.mailPool = mailPool;
+        this.clock = context.clock;
+        this.events = context.events;
 
         this.receivedDispatch = false;
         this.deliveryCounter = 0;
-        this.CAUTION_ENABLED = Boolean.parseBoolean(automailProperties.getProperty("Caution"));
-        this.FRAGILE_ENABLED = Boolean.parseBoolean(automailProperties.getProperty("Fragile"));
+        this.CAUTION_ENABLED = cautionEnabled;
+        this.FRAGILE_ENABLED = fragileEnabled;
+        this.TUBE_SLOTS = tubeSlots;
+        this.CARRY_MAX_WEIGHT = carryMaxWeight;
+        this.tube = hasTube ? new MailItem[TUBE_SLOTS] : null;
+    }
+    
+    /**
+     * @return the number of items a robot's tube holds, from the Tube_Slots property (1 if unset)
+     */
+    static int tubeSlots(Properties automailProperties) {
+    	int slots = Integer.parseInt(automailProperties.getProperty("Tube_Slots", "1"));
+    	if (slots < 0) throw new IllegalArgumentException("Tube_Slots must not be negative: " + slots);
+    	return slots;
+    }
+    
+    /**
+     * @return the most weight a robot may carry at once, from the Carry_Max_Weight property,
+     * or 0 if it is unset or 0 and only each item's own weight is limited
+     */
+    static int carryMaxWeight(Properties automailProperties) {
+    	int weight = Integer.parseInt(automailProperties.getProperty("Carry_Max_Weight", "0"));
+    	if (weight != 0 && weight < INDIVIDUAL_MAX_WEIGHT) {
+    		throw new IllegalArgumentException("Carry_Max_Weight must be 0 or at least " + INDIVIDUAL_MAX_WEIGHT + ": " + weight);
+    	}
+    	return weight;
+    }
+    
+    /**
+     * Sends everything the robot reports while stepping through the given buffer
+     * @param buffer stands between the robot and its pool, delivery and event sink
+     */
+    void bufferEffects(EffectBuffer buffer) {
+    	this.delivery = buffer;
+    	this.mailPool = buffer;
+    	this.events = buffer;
     }
     
     public void dispatch() {
@@ -70,11 +137,12 @@ public class Robot {
     		case RETURNING:
     			/** If its current position is at the mailroom, then the robot should change state */
                 if(current_floor == Building.MAILROOM_LOCATION){
-                	if (tube != null) {
-                		mailPool.addToPool(tube);
-                        System.out.printf("T: %3d >  +addToPool [%s]%n", Clock.Time(), tube.toString());
-                        tube = null;
+                	for (int i = 0; i < tubeCount; i++) {
+                		mailPool.addToPool(tube[i]);
+                        events.mailReturned(clock.Time(), tube[i]);
+                        tube[i] = null;
                 	}
+                	tubeCount = 0;
         			/** Tell the sorter the robot is ready */
         			mailPool.registerWaiting(this);
                 	changeState(RobotState.WAITING);
@@ -86,7 +154,7 @@ public class Robot {
     		case WAITING:
                 /** If the StorageTube is ready and the Robot is waiting in the mailroom then start the delivery */
                 if(!isEmpty() && receivedDispatch){
-                	System.out.println("Caution enabled in Robot: " + CAUTION_ENABLED);
+                	events.robotDispatched(clock.Time(), hash, CAUTION_ENABLED);
                 	receivedDispatch = false;
                 	deliveryCounter = 0; // reset delivery counter
         			setRoute();
@@ -96,7 +164,7 @@ public class Robot {
     		case DELIVERING:
     			if( (specialHand != null) && (specialHand.getWrapped() == false) ) {
     				//changeWrapState(RobotState.WRAP_STAGE_1);
-    				System.out.println("FIRST DELIVERING IF STATEMENT");
+    				events.message("FIRST DELIVERING IF STATEMENT");
     				changeState(RobotState.WRAP_STAGE_1);
     				break;
     			}
@@ -109,17 +177,18 @@ public class Robot {
                     delivery.deliver(deliveryItem);
                     deliveryItem = null;
                     deliveryCounter++;
-                    if(deliveryCounter > 3){  // Implies a simulation bug
+                    if(deliveryCounter > TUBE_SLOTS + 2){  // Implies a simulation bug
                     	throw new ExcessiveDeliveryException();
                     }
                     /** Check if want to return, i.e. if there is no item in the tube*/
-                    if(tube == null){
+                    if(tubeCount == 0){
                     	changeState(RobotState.RETURNING);
                     }
                     else{
                         /** If there is another item, set the robot's route to the location to deliver the item */
-                        deliveryItem = tube;
-                        tube = null;
+                        deliveryItem = tube[0];
+                        System.arraycopy(tube, 1, tube, 0, --tubeCount);
+                        tube[tubeCount] = null;
                         setRoute();
                         changeState(RobotState.DELIVERING);
                     }
@@ -129,11 +198,11 @@ public class Robot {
     			}
                 break;
     		case WRAP_STAGE_1:
-    			System.out.println("WRAPPING STAGE 1");
+    			events.robotWrapStage(clock.Time(), hash, 1);
     			changeState(RobotState.WRAP_STAGE_2);
     			break;
     		case WRAP_STAGE_2:
-    			System.out.println("WRAPPING STAGE 2");
+    			events.robotWrapStage(clock.Time(), hash, 2);
     			wrapItem(specialHand);
     			changeState(RobotState.DELIVERING);
     			break;
@@ -179,9 +248,84 @@ public class Robot {
             current_floor--;
         }
     }
+
+    /**
+     * @return how many of the coming steps will do nothing but move the robot towards its
+     * target floor, or Integer.MAX_VALUE if the robot is idle until it is dispatched
+     */
+    int idleSteps() {
+    	switch(current_state) {
+    		case RETURNING:
+    			return Math.abs(current_floor - Building.MAILROOM_LOCATION);
+    		case WAITING:
+    			return (!isEmpty() && receivedDispatch) ? 0 : Integer.MAX_VALUE;
+    		case DELIVERING:
+    			if( (specialHand != null) && (specialHand.getWrapped() == false) ) return 0;
+    			return Math.abs(current_floor - destination_floor);
+    		case HOLD:
+    			return Integer.MAX_VALUE;
+    		default:
+    			return 0;
+    	}
+    }
+
+    /**
+     * Has the same effect as calling step() the given number of times
+     * @param steps how many steps to skip, which must not be more than idleSteps()
+     */
+    void skip(int steps) {
+    	if(current_state == RobotState.RETURNING){
+    		current_floor += (current_floor < Building.MAILROOM_LOCATION) ? steps : -steps;
+    	} else if(current_state == RobotState.DELIVERING){
+    		current_floor += (current_floor < destination_floor) ? steps : -steps;
+    	}
+    }
     
-    private String getIdTube() {
-    	return String.format("%s(%1d)", id, (tube == null ? 0 : 1));
+    /**
+     * @return the robot's current state
+     */
+    RobotState getState() {
+    	return current_state;
+    }
+    
+    /**
+     * Writes everything about the robot which changes as it runs, for a Checkpoint
+     */
+    void writeCheckpoint(DataOutput out) throws IOException {
+    	out.writeByte(current_state.ordinal());
+    	out.writeInt(current_floor);
+    	out.writeInt(destination_floor);
+    	out.writeInt(deliveryCounter);
+    	out.writeBoolean(receivedDispatch);
+    	Checkpoint.writeMail(out, deliveryItem);
+    	out.writeInt(tubeCount);
+    	for (int i = 0; i < tubeCount; i++) {
+    		Checkpoint.writeMail(out, tube[i]);
+    	}
+    	Checkpoint.writeMail(out, specialHand);
+    }
+    
+    /**
+     * Puts the robot into the state written by writeCheckpoint
+     * @throws IOException if the robot's tube is too small for what was written
+     */
+    void readCheckpoint(DataInput in) throws IOException {
+    	current_state = RobotState.values()[in.readByte()];
+    	current_floor = in.readInt();
+    	destination_floor = in.readInt();
+    	deliveryCounter = in.readInt();
+    	receivedDispatch = in.readBoolean();
+    	deliveryItem = Checkpoint.readMail(in);
+    	tubeCount = in.readInt();
+    	if (tubeCount > TUBE_SLOTS) throw new IOException(id + " had " + tubeCount + " items in its tube, more than " + TUBE_SLOTS);
+    	for (int i = 0; i < tubeCount; i++) {
+    		tube[i] = Checkpoint.readMail(in);
+    	}
+    	specialHand = Checkpoint.readMail(in);
+    }
+    
+    private int getTubeCount() {
+    	return tubeCount;
     }
     
     
@@ -190,33 +334,45 @@ public class Robot {
      * @param nextState the state to which the robot is in transition
      */
     private void changeState(RobotState nextState){
-    	assert(!(deliveryItem == null && tube != null));
+    	assert(!(deliveryItem == null && tubeCount > 0));
     	if (current_state != nextState) {
-            System.out.printf("T: %3d > %7s changed from %s to %s%n", Clock.Time(), getIdTube(), current_state, nextState);
+            events.robotStateChanged(clock.Time(), hash, getTubeCount(), current_state, nextState);
     	}
     	current_state = nextState;
     	if( (nextState == RobotState.DELIVERING) && (specialHand == null) ){
-            System.out.printf("T: %3d > %9s-> [%s]%n", Clock.Time(), getIdTube(), deliveryItem.toString());
+            events.robotDeparted(clock.Time(), hash, getTubeCount(), deliveryItem);
     	}
     	
     	if( (nextState == RobotState.DELIVERING) && !(specialHand == null) ){
-            System.out.printf("T: %3d > %9s-> [%s]%n", Clock.Time(), getIdTube(), specialHand.toString());
+            events.robotDeparted(clock.Time(), hash, getTubeCount(), specialHand);
     	}
     }
     
 
+	/**
+	 * @return the item in the tube which will be delivered first, or null if the tube is empty
+	 */
 	public MailItem getTube() {
-		return tube;
+		return tubeCount == 0 ? null : tube[0];
+	}
+	
+	/**
+	 * @return the number of items the tube holds
+	 */
+	public int getTubeSlots() {
+		return TUBE_SLOTS;
 	}
-    
-	static private int count = 0;
-	static private Map<Integer, Integer> hashMap = new TreeMap<Integer, Integer>();
 
+	/**
+	 * @return the robot's number in its run, counted from 0 in the order the robots were made,
+	 * which its events report it by
+	 */
+	public int getNumber() {
+		return hash;
+	}
+    
 	@Override
 	public int hashCode() {
-		Integer hash0 = super.hashCode();
-		Integer hash = hashMap.get(hash0);
-		if (hash == null) { hash = count++; hashMap.put(hash0, hash); }
 		return hash;
 	}
 	
@@ -232,12 +388,20 @@ public class Robot {
 		return delivery;
 	}
 
+	public IEventSink getEvents() {
+		return events;
+	}
+
+	public Clock getClock() {
+		return clock;
+	}
+
 	public boolean isEmpty() {
 		return (handEmpty() == true && tubeEmpty() == true && specialEmpty() == true);
 	}
 	
 	public boolean spaceLeft() {
-		return (handEmpty() == true || tubeEmpty() == true || specialEmpty() == true);
+		return (handEmpty() == true || tubeFull() == false || specialEmpty() == true);
 	}
 	
 	public boolean handEmpty() {
@@ -245,7 +409,43 @@ public class Robot {
 	}
 	
 	public boolean tubeEmpty() {
-		return tube == null;
+		return tubeCount == 0;
+	}
+	
+	public boolean tubeFull() {
+		return tubeCount == TUBE_SLOTS;
+	}
+	
+	/**
+	 * @return the total weight of the items the robot is carrying
+	 */
+	public int getLoad() {
+		int load = 0;
+		if (deliveryItem != null) load += deliveryItem.weight;
+		for (int i = 0; i < tubeCount; i++) load += tube[i].weight;
+		if (specialHand != null) load += specialHand.weight;
+		return load;
+	}
+	
+	/**
+	 * @return the most weight the robot may carry at once, or 0 if only each item's own weight is limited
+	 */
+	public int getCarryMaxWeight() {
+		return CARRY_MAX_WEIGHT;
+	}
+	
+	/**
+	 * @return whether the robot can take the item without going over its carry weight
+	 */
+	public boolean canCarry(MailItem mailItem) {
+		return CARRY_MAX_WEIGHT == 0 || getLoad() + mailItem.weight <= CARRY_MAX_WEIGHT;
+	}
+	
+	/**
+	 * @return whether the robot is carrying more than its carry weight
+	 */
+	boolean overloaded() {
+		return CARRY_MAX_WEIGHT != 0 && getLoad() > CARRY_MAX_WEIGHT;
 	}
 	
 	public boolean specialEmpty() {
@@ -257,31 +457,31 @@ public class Robot {
 		assert(deliveryItem == null);
 		if(mailItem.fragile) throw new BreakingFragileItemException();
 		deliveryItem = mailItem;
-		if (deliveryItem.weight > INDIVIDUAL_MAX_WEIGHT) throw new ItemTooHeavyException();
+		if (deliveryItem.weight > INDIVIDUAL_MAX_WEIGHT || overloaded()) throw new ItemTooHeavyException();
 	}
 
 	public void addToTube(MailItem mailItem) throws ItemTooHeavyException, BreakingFragileItemException {
-		assert(tube == null);
+		assert(tubeCount < TUBE_SLOTS);
 		if(mailItem.fragile) throw new BreakingFragileItemException();
-		tube = mailItem;
-		if (tube.weight > INDIVIDUAL_MAX_WEIGHT) throw new ItemTooHeavyException();
+		tube[tubeCount++] = mailItem;
+		if (mailItem.weight > INDIVIDUAL_MAX_WEIGHT || overloaded()) throw new ItemTooHeavyException();
 	}
 	
 	public void addToSpecialHand(MailItem mailItem) throws ItemTooHeavyException {
 		assert(specialHand == null);
 		specialHand = mailItem;
-		if (specialHand.weight > INDIVIDUAL_MAX_WEIGHT) throw new ItemTooHeavyException();
+		if (specialHand.weight > INDIVIDUAL_MAX_WEIGHT || overloaded()) throw new ItemTooHeavyException();
 	}
 	
 	public void wrapItem(MailItem mailItem) {
 		assert((mailItem.isWrapped == false) && (mailItem.fragile));
-		System.out.println("WRAPPING ITEM");
+		events.mailWrapped(clock.Time(), mailItem);
 		mailItem.isWrapped = true;
 	}
 	
 	public void unwrapItem(MailItem mailItem) {
 		assert((mailItem.isWrapped == true) && (mailItem.fragile));
-		System.out.println("UNWRAPPING ITEM");
+		events.mailUnwrapped(clock.Time(), mailItem);
 		mailItem.isWrapped = false;
 	}
 	
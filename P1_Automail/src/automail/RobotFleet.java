@@ -0,0 +1,394 @@
+package automail;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Properties;
+
+import automail.Robot.RobotState;
+import events.IEventSink;
+import exceptions.BreakingFragileItemException;
+import exceptions.ExcessiveDeliveryException;
+import exceptions.ItemTooHeavyException;
+import strategies.IMailPool;
+
+/**
+ * A fleet of robots whose state is kept in one array per field instead of one object per
+ * robot, so that stepping the whole fleet is a single loop over contiguous arrays. Each robot
+ * behaves exactly as a Robot would, and reports the same events in the same order.
+ *
+ * The mail pool still deals in Robot objects, so every robot in the fleet also has a Handle,
+ * a Robot without a tube of its own whose methods read and write the fleet's arrays.
+ */
+public class RobotFleet {
+
+	/** The RobotState values, as the ordinals stored in state[] */
+	private static final byte DELIVERING = 0;
+	private static final byte WAITING = 1;
+	private static final byte RETURNING = 2;
+	private static final byte WRAP_STAGE_1 = 3;
+	private static final byte WRAP_STAGE_2 = 4;
+	private static final byte DELIVER_FRAGILE = 5;
+	private static final byte HOLD = 6;
+	private static final RobotState[] STATES = RobotState.values();
+
+	private final Clock clock;
+	private final IEventSink events;
+	private final IMailDelivery delivery;
+	private final IMailPool mailPool;
+
+	private final int size;
+	private final int slots;
+	private final byte[] state;
+	private final int[] floor;
+	private final int[] destination;
+	private final int[] deliveries;
+	private final boolean[] dispatched;
+	/** The contents of each robot's hand and special hand */
+	private final MailItem[] hand;
+	private final MailItem[] special;
+	/** The contents of each robot's tube, slots entries per robot in delivery order */
+	private final MailItem[] tube;
+	private final int[] tubeCount;
+	/** The number each robot reports events by */
+	private final int[] numbers;
+	private final Handle[] robots;
+	/** Where each robot reports to when stepped in parallel, or null */
+	private EffectBuffer[] buffers;
+
+	/**
+	 * Creates the robots, waiting to return to the mailroom as new Robots do
+	 * @param size the number of robots
+	 * @param delivery governs the final delivery
+	 * @param mailPool is the source of mail items
+	 * @param context the simulation run the robots belong to
+	 */
+	public RobotFleet(int size, IMailDelivery delivery, IMailPool mailPool, SimulationContext context, Properties automailProperties) {
+		this.clock = context.clock;
+		this.events = context.events;
+		this.delivery = delivery;
+		this.mailPool = mailPool;
+		this.size = size;
+		this.slots = Robot.tubeSlots(automailProperties);
+		state = new byte[size];
+		floor = new int[size];
+		destination = new int[size];
+		deliveries = new int[size];
+		dispatched = new boolean[size];
+		hand = new MailItem[size];
+		tube = new MailItem[size * slots];
+		tubeCount = new int[size];
+		special = new MailItem[size];
+		numbers = new int[size];
+		robots = new Handle[size];
+		boolean cautionEnabled = Boolean.parseBoolean(automailProperties.getProperty("Caution"));
+		boolean fragileEnabled = Boolean.parseBoolean(automailProperties.getProperty("Fragile"));
+		int carryMaxWeight = Robot.carryMaxWeight(automailProperties);
+		for (int i = 0; i < size; i++) {
+			robots[i] = new Handle(this, i, delivery, mailPool, context, cautionEnabled, fragileEnabled, carryMaxWeight);
+			numbers[i] = robots[i].getNumber();
+			state[i] = RETURNING;
+			floor[i] = Building.MAILROOM_LOCATION;
+		}
+	}
+
+	/**
+	 * @return the robots, for the mail pool and the event engine
+	 */
+	public Robot[] getRobots() {
+		return robots;
+	}
+
+	/**
+	 * Steps every robot once, in order
+	 * @throws ExcessiveDeliveryException if a robot delivers more than it can carry without refilling
+	 */
+	public void step() throws ExcessiveDeliveryException {
+		for (int i = 0; i < size; i++) {
+			step(i);
+		}
+	}
+
+	/**
+	 * The equivalent of Robot.step for one robot
+	 */
+	private void step(int i) throws ExcessiveDeliveryException {
+		IMailPool mailPool = this.mailPool;
+		IMailDelivery delivery = this.delivery;
+		IEventSink events = this.events;
+		if (buffers != null && buffers[i] != null) {
+			mailPool = buffers[i];
+			delivery = buffers[i];
+			events = buffers[i];
+		}
+		switch (state[i]) {
+			case RETURNING:
+				if (floor[i] == Building.MAILROOM_LOCATION) {
+					for (int t = i * slots; t < i * slots + tubeCount[i]; t++) {
+						mailPool.addToPool(tube[t]);
+						events.mailReturned(clock.Time(), tube[t]);
+						tube[t] = null;
+					}
+					tubeCount[i] = 0;
+					mailPool.registerWaiting(robots[i]);
+					changeState(i, WAITING, events);
+					// A robot which has just arrived may leave on the same step, as a Robot does
+					departIfDispatched(i, events);
+				} else {
+					floor[i] += (floor[i] < Building.MAILROOM_LOCATION) ? 1 : -1;
+				}
+				break;
+			case WAITING:
+				departIfDispatched(i, events);
+				break;
+			case DELIVERING:
+				if (special[i] != null && !special[i].isWrapped) {
+					events.message("FIRST DELIVERING IF STATEMENT");
+					changeState(i, WRAP_STAGE_1, events);
+					break;
+				}
+				if (floor[i] == destination[i]) {
+					if (special[i] != null) {
+						changeState(i, DELIVER_FRAGILE, events);
+						break;
+					}
+					delivery.deliver(hand[i]);
+					hand[i] = null;
+					if (++deliveries[i] > slots + 2) {  // Implies a simulation bug
+						throw new ExcessiveDeliveryException();
+					}
+					if (tubeCount[i] == 0) {
+						changeState(i, RETURNING, events);
+					} else {
+						int first = i * slots;
+						hand[i] = tube[first];
+						System.arraycopy(tube, first + 1, tube, first, --tubeCount[i]);
+						tube[first + tubeCount[i]] = null;
+						setRoute(i);
+						changeState(i, DELIVERING, events);
+					}
+				} else {
+					floor[i] += (floor[i] < destination[i]) ? 1 : -1;
+				}
+				break;
+			case WRAP_STAGE_1:
+				events.robotWrapStage(clock.Time(), numbers[i], 1);
+				changeState(i, WRAP_STAGE_2, events);
+				break;
+			case WRAP_STAGE_2:
+				events.robotWrapStage(clock.Time(), numbers[i], 2);
+				robots[i].wrapItem(special[i]);
+				changeState(i, DELIVERING, events);
+				break;
+			case DELIVER_FRAGILE:
+				robots[i].unwrapItem(special[i]);
+				delivery.deliver(special[i]);
+				special[i] = null;
+				deliveries[i]++;
+				if (hand[i] != null) {
+					setRoute(i);
+					changeState(i, DELIVERING, events);
+				}
+				changeState(i, RETURNING, events);
+				break;
+			case HOLD:
+				break;
+		}
+	}
+
+	/**
+	 * Sends a waiting robot off if it has been loaded and dispatched
+	 * @param events where the robot reports to
+	 */
+	private void departIfDispatched(int i, IEventSink events) {
+		if (!isEmpty(i) && dispatched[i]) {
+			events.robotDispatched(clock.Time(), numbers[i], robots[i].isCautionMode());
+			dispatched[i] = false;
+			deliveries[i] = 0;
+			setRoute(i);
+			changeState(i, DELIVERING, events);
+		}
+	}
+
+	private void setRoute(int i) {
+		destination[i] = (special[i] != null ? special[i] : hand[i]).getDestFloor();
+	}
+
+	private boolean isEmpty(int i) {
+		return hand[i] == null && tubeCount[i] == 0 && special[i] == null;
+	}
+
+	/**
+	 * The equivalent of Robot.changeState for one robot
+	 * @param events where the robot reports to
+	 */
+	private void changeState(int i, byte next, IEventSink events) {
+		if (state[i] != next) {
+			events.robotStateChanged(clock.Time(), numbers[i], tubeCount[i], STATES[state[i]], STATES[next]);
+		}
+		state[i] = next;
+		if (next == DELIVERING) {
+			events.robotDeparted(clock.Time(), numbers[i], tubeCount[i], special[i] == null ? hand[i] : special[i]);
+		}
+	}
+
+	/**
+	 * A robot of the fleet, as seen by the mail pool and the event engine. It has no tube, and
+	 * its own Robot fields, including current_state, are not used.
+	 */
+	static class Handle extends Robot {
+
+		private final RobotFleet fleet;
+		private final int index;
+
+		Handle(RobotFleet fleet, int index, IMailDelivery delivery, IMailPool mailPool, SimulationContext context,
+				boolean cautionEnabled, boolean fragileEnabled, int carryMaxWeight) {
+			super(delivery, mailPool, context, cautionEnabled, fragileEnabled, fleet.slots, carryMaxWeight, false);
+			this.fleet = fleet;
+			this.index = index;
+		}
+
+		@Override
+		void bufferEffects(EffectBuffer buffer) {
+			super.bufferEffects(buffer);
+			if (fleet.buffers == null) fleet.buffers = new EffectBuffer[fleet.size];
+			fleet.buffers[index] = buffer;
+		}
+
+		@Override
+		public void dispatch() {
+			fleet.dispatched[index] = true;
+		}
+
+		@Override
+		public void step() throws ExcessiveDeliveryException {
+			fleet.step(index);
+		}
+
+		@Override
+		int idleSteps() {
+			int i = index;
+			switch (fleet.state[i]) {
+				case RETURNING:
+					return Math.abs(fleet.floor[i] - Building.MAILROOM_LOCATION);
+				case WAITING:
+					return (!fleet.isEmpty(i) && fleet.dispatched[i]) ? 0 : Integer.MAX_VALUE;
+				case DELIVERING:
+					if (fleet.special[i] != null && !fleet.special[i].isWrapped) return 0;
+					return Math.abs(fleet.floor[i] - fleet.destination[i]);
+				case HOLD:
+					return Integer.MAX_VALUE;
+				default:
+					return 0;
+			}
+		}
+
+		@Override
+		void skip(int steps) {
+			int i = index;
+			if (fleet.state[i] == RETURNING) {
+				fleet.floor[i] += (fleet.floor[i] < Building.MAILROOM_LOCATION) ? steps : -steps;
+			} else if (fleet.state[i] == DELIVERING) {
+				fleet.floor[i] += (fleet.floor[i] < fleet.destination[i]) ? steps : -steps;
+			}
+		}
+
+		@Override
+		RobotState getState() {
+			return STATES[fleet.state[index]];
+		}
+
+		@Override
+		void writeCheckpoint(DataOutput out) throws IOException {
+			int i = index;
+			out.writeByte(fleet.state[i]);
+			out.writeInt(fleet.floor[i]);
+			out.writeInt(fleet.destination[i]);
+			out.writeInt(fleet.deliveries[i]);
+			out.writeBoolean(fleet.dispatched[i]);
+			Checkpoint.writeMail(out, fleet.hand[i]);
+			out.writeInt(fleet.tubeCount[i]);
+			for (int t = i * fleet.slots; t < i * fleet.slots + fleet.tubeCount[i]; t++) {
+				Checkpoint.writeMail(out, fleet.tube[t]);
+			}
+			Checkpoint.writeMail(out, fleet.special[i]);
+		}
+
+		@Override
+		void readCheckpoint(DataInput in) throws IOException {
+			int i = index;
+			fleet.state[i] = in.readByte();
+			fleet.floor[i] = in.readInt();
+			fleet.destination[i] = in.readInt();
+			fleet.deliveries[i] = in.readInt();
+			fleet.dispatched[i] = in.readBoolean();
+			fleet.hand[i] = Checkpoint.readMail(in);
+			fleet.tubeCount[i] = in.readInt();
+			if (fleet.tubeCount[i] > fleet.slots) {
+				throw new IOException(id + " had " + fleet.tubeCount[i] + " items in its tube, more than " + fleet.slots);
+			}
+			for (int t = i * fleet.slots; t < i * fleet.slots + fleet.tubeCount[i]; t++) {
+				fleet.tube[t] = Checkpoint.readMail(in);
+			}
+			fleet.special[i] = Checkpoint.readMail(in);
+		}
+
+		@Override
+		public MailItem getTube() {
+			return fleet.tubeCount[index] == 0 ? null : fleet.tube[index * fleet.slots];
+		}
+
+		@Override
+		public boolean handEmpty() {
+			return fleet.hand[index] == null;
+		}
+
+		@Override
+		public boolean tubeEmpty() {
+			return fleet.tubeCount[index] == 0;
+		}
+
+		@Override
+		public boolean tubeFull() {
+			return fleet.tubeCount[index] == fleet.slots;
+		}
+
+		@Override
+		public int getLoad() {
+			int i = index;
+			int load = 0;
+			if (fleet.hand[i] != null) load += fleet.hand[i].weight;
+			for (int t = i * fleet.slots; t < i * fleet.slots + fleet.tubeCount[i]; t++) load += fleet.tube[t].weight;
+			if (fleet.special[i] != null) load += fleet.special[i].weight;
+			return load;
+		}
+
+		@Override
+		public boolean specialEmpty() {
+			return fleet.special[index] == null;
+		}
+
+		@Override
+		public void addToHand(MailItem mailItem) throws ItemTooHeavyException, BreakingFragileItemException {
+			assert(fleet.hand[index] == null);
+			if (mailItem.fragile) throw new BreakingFragileItemException();
+			fleet.hand[index] = mailItem;
+			if (mailItem.weight > INDIVIDUAL_MAX_WEIGHT || overloaded()) throw new ItemTooHeavyException();
+		}
+
+		@Override
+		public void addToTube(MailItem mailItem) throws ItemTooHeavyException, BreakingFragileItemException {
+			assert(fleet.tubeCount[index] < fleet.slots);
+			if (mailItem.fragile) throw new BreakingFragileItemException();
+			fleet.tube[index * fleet.slots + fleet.tubeCount[index]++] = mailItem;
+			if (mailItem.weight > INDIVIDUAL_MAX_WEIGHT || overloaded()) throw new ItemTooHeavyException();
+		}
+
+		@Override
+		public void addToSpecialHand(MailItem mailItem) throws ItemTooHeavyException {
+			assert(fleet.special[index] == null);
+			fleet.special[index] = mailItem;
+			if (mailItem.weight > INDIVIDUAL_MAX_WEIGHT || overloaded()) throw new ItemTooHeavyException();
+		}
+	}
+}
@@ -0,0 +1,130 @@
+package automail;
+
+/**
+ * The mean and variance of a stream of values, kept with Welford's method, so that results
+ * can be added one run at a time without storing them or losing precision to cancellation.
+ * It also gives the Student's t confidence interval of the mean, which tells a caller when
+ * enough runs have been made.
+ */
+public class RunningStatistics {
+
+	private long count;
+	private double mean;
+	/** The sum of squared differences from the mean */
+	private double m2;
+	private double min = Double.POSITIVE_INFINITY;
+	private double max = Double.NEGATIVE_INFINITY;
+
+	public void add(double value) {
+		count++;
+		double delta = value - mean;
+		mean += delta / count;
+		m2 += delta * (value - mean);
+		if (value < min) min = value;
+		if (value > max) max = value;
+	}
+
+	public long count() {
+		return count;
+	}
+
+	public double mean() {
+		return mean;
+	}
+
+	/**
+	 * @return the sample variance, or 0 for fewer than two values
+	 */
+	public double variance() {
+		return count < 2 ? 0 : m2 / (count - 1);
+	}
+
+	public double standardDeviation() {
+		return Math.sqrt(variance());
+	}
+
+	public double min() {
+		return min;
+	}
+
+	public double max() {
+		return max;
+	}
+
+	/**
+	 * @param confidence the confidence level, between 0 and 1, such as 0.95
+	 * @return half the width of the confidence interval of the mean, or infinity for fewer than two values
+	 */
+	public double halfWidth(double confidence) {
+		if (count < 2) return Double.POSITIVE_INFINITY;
+		return studentT(confidence, count - 1) * standardDeviation() / Math.sqrt(count);
+	}
+
+	/**
+	 * @param confidence the confidence level, between 0 and 1
+	 * @return the half width relative to the magnitude of the mean, or infinity if the mean is 0
+	 */
+	public double relativeHalfWidth(double confidence) {
+		double halfWidth = halfWidth(confidence);
+		if (halfWidth == 0) return 0;
+		return mean == 0 ? Double.POSITIVE_INFINITY : halfWidth / Math.abs(mean);
+	}
+
+	/**
+	 * @param confidence the confidence level, between 0 and 1
+	 * @return the value the two-sided interval's width is quoted from, for the given degrees of freedom
+	 */
+	static double studentT(double confidence, long degreesOfFreedom) {
+		// The expansion below is far too small for one or two degrees of freedom, which have exact forms
+		if (degreesOfFreedom == 1) return Math.tan(Math.PI * confidence / 2);
+		double p = 0.5 + confidence / 2;
+		if (degreesOfFreedom == 2) return confidence / Math.sqrt(2 * p * (1 - p));
+		double z = normalQuantile(p);
+		if (degreesOfFreedom > 1000000) return z;
+		// Cornish-Fisher expansion of the t quantile about the normal one, within 1% from 3 degrees
+		// of freedom at up to 99% confidence
+		double n = degreesOfFreedom;
+		double z2 = z * z;
+		double z3 = z2 * z;
+		double z5 = z3 * z2;
+		double z7 = z5 * z2;
+		double z9 = z7 * z2;
+		return z
+				+ (z3 + z) / (4 * n)
+				+ (5 * z5 + 16 * z3 + 3 * z) / (96 * n * n)
+				+ (3 * z7 + 19 * z5 + 17 * z3 - 15 * z) / (384 * n * n * n)
+				+ (79 * z9 + 776 * z7 + 1482 * z5 - 1920 * z3 - 945 * z) / (92160 * n * n * n * n);
+	}
+
+	/**
+	 * Acklam's rational approximation of the standard normal quantile, accurate to about 1e-9
+	 * @param p a probability, strictly between 0 and 1
+	 */
+	static double normalQuantile(double p) {
+		if (p <= 0 || p >= 1) throw new IllegalArgumentException("No normal quantile for " + p);
+		final double[] a = { -3.969683028665376e+01, 2.209460984245205e+02, -2.759285104469687e+02,
+				1.383577518672690e+02, -3.066479806614716e+01, 2.506628277459239e+00 };
+		final double[] b = { -5.447609879822406e+01, 1.615858368580409e+02, -1.556989798598866e+02,
+				6.680131188771972e+01, -1.328068155288572e+01 };
+		final double[] c = { -7.784894002430293e-03, -3.223964580411365e-01, -2.400758277161838e+00,
+				-2.549732539343734e+00, 4.374664141464968e+00, 2.938163982698783e+00 };
+		final double[] d = { 7.784695709041462e-03, 3.224671290700398e-01, 2.445134137142996e+00,
+				3.754408661907416e+00 };
+		double low = 0.02425;
+		if (p < low || p > 1 - low) {
+			double q = Math.sqrt(-2 * Math.log(p < low ? p : 1 - p));
+			double x = (((((c[0] * q + c[1]) * q + c[2]) * q + c[3]) * q + c[4]) * q + c[5])
+					/ ((((d[0] * q + d[1]) * q + d[2]) * q + d[3]) * q + 1);
+			return p < low ? x : -x;
+		}
+		double q = p - 0.5;
+		double r = q * q;
+		return (((((a[0] * r + a[1]) * r + a[2]) * r + a[3]) * r + a[4]) * r + a[5]) * q
+				/ (((((b[0] * r + b[1]) * r + b[2]) * r + b[3]) * r + b[4]) * r + 1);
+	}
+
+	@Override
+	public String toString() {
+		return String.format("mean %.2f sd %.2f (n %d)", mean, standardDeviation(), count);
+	}
+}
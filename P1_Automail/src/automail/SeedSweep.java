@@ -0,0 +1,268 @@
+package automail;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+import exceptions.SimulationFailedException;
+
+/**
+ * Runs a configuration over seeds, in parallel, until the confidence intervals of its mean
+ * final score and mean final delivery time are within a tolerance of the means, and reports
+ * how many runs that took. One seed gives one noisy result, not least because the amount of
+ * mail varies with the seed, so a sweep gives the number of runs a result needs rather than
+ * a guess at it.
+ *
+ * MailPool strategies are compared seed by seed against the first of them, which cancels most
+ * of the noise the seeds bring, and only until each difference is settled: known to within the
+ * tolerance, or clearly above or below zero. So a clear difference, or none at all, takes far
+ * fewer runs than narrowing each strategy's own intervals would. Whether a difference is
+ * clearly above or below zero is only asked as a SequentialInterval allows, so stopping on it
+ * early does not make a wrong verdict any likelier than the confidence says.
+ */
+public class SeedSweep {
+
+	/**
+	 * The results of one MailPool over the seeds it was run with
+	 */
+	public static class Sweep {
+
+		private final String strategy;
+		private final RunningStatistics scores = new RunningStatistics();
+		private final RunningStatistics finalTimes = new RunningStatistics();
+		/** The differences from the first strategy's results on the same seeds, when comparing */
+		private final RunningStatistics scoreDifferences = new RunningStatistics();
+		private final RunningStatistics timeDifferences = new RunningStatistics();
+		private long runNanos;
+
+		Sweep(String strategy) {
+			this.strategy = strategy;
+		}
+
+		public String getStrategy() {
+			return strategy;
+		}
+
+		public RunningStatistics getScores() {
+			return scores;
+		}
+
+		public RunningStatistics getFinalTimes() {
+			return finalTimes;
+		}
+
+		/**
+		 * @return this strategy's score less the first strategy's, seed by seed, when comparing
+		 */
+		public RunningStatistics getScoreDifferences() {
+			return scoreDifferences;
+		}
+
+		/**
+		 * @return this strategy's final time less the first strategy's, seed by seed, when comparing
+		 */
+		public RunningStatistics getTimeDifferences() {
+			return timeDifferences;
+		}
+
+		public long runs() {
+			return scores.count();
+		}
+
+		/**
+		 * @return the total wall-clock time of the runs counted, in nanoseconds
+		 */
+		public long getRunNanos() {
+			return runNanos;
+		}
+
+		void add(SimulationResult result) {
+			scores.add(result.getScore());
+			finalTimes.add(result.getFinalTime());
+			runNanos += result.getElapsedNanos();
+		}
+	}
+
+	private final SimulationRunner runner;
+	private final Properties automailProperties;
+	private final double confidence;
+	/** The largest acceptable half widths, as fractions of the means */
+	private final double scoreTolerance;
+	private final double timeTolerance;
+	private final int minRuns;
+	private final int maxRuns;
+	private final int firstSeed;
+	/** The intervals each difference's verdict is judged on */
+	private final SequentialInterval differences;
+
+	/**
+	 * @param runner runs the simulations
+	 * @param automailProperties the simulation properties, including the Sweep_ tolerances
+	 */
+	public SeedSweep(SimulationRunner runner, Properties automailProperties) {
+		this.runner = runner;
+		this.automailProperties = automailProperties;
+		confidence = Double.parseDouble(automailProperties.getProperty("Confidence"));
+		scoreTolerance = Double.parseDouble(automailProperties.getProperty("Sweep_Score_Tolerance"));
+		timeTolerance = Double.parseDouble(automailProperties.getProperty("Sweep_Time_Tolerance"));
+		minRuns = Math.max(SimulationRunner.MIN_RUNS, Integer.parseInt(automailProperties.getProperty("Min_Runs")));
+		maxRuns = Math.max(minRuns, Integer.parseInt(automailProperties.getProperty("Max_Runs")));
+		String seed = automailProperties.getProperty("Seed");
+		firstSeed = seed == null ? 1 : Integer.parseInt(seed);
+		differences = new SequentialInterval(confidence, 1, minRuns, maxRuns);
+	}
+
+	/**
+	 * Sweeps the seeds, from Seed on, with the given MailPool, until both intervals are
+	 * within tolerance or Max_Runs is reached
+	 */
+	public Sweep sweep(String strategy) throws SimulationFailedException, InterruptedException {
+		final Sweep sweep = new Sweep(strategy);
+		runner.runSeedsUntil(withMailPool(strategy), firstSeed, maxRuns, new SimulationRunner.IStoppingRule() {
+			public boolean add(SimulationResult result) {
+				sweep.add(result);
+				return sweep.runs() >= minRuns && isConverged(sweep);
+			}
+		});
+		return sweep;
+	}
+
+	/**
+	 * Runs every MailPool on each seed, from Seed on, until the difference of each one's mean
+	 * score and final time from the first one's is settled, or Max_Runs is reached
+	 * @return the sweep of each strategy, in the same order
+	 */
+	public List<Sweep> compare(List<String> strategies) throws SimulationFailedException, InterruptedException {
+		final List<Sweep> sweeps = new ArrayList<Sweep>();
+		List<Properties> configurations = new ArrayList<Properties>();
+		for (String strategy : strategies) {
+			sweeps.add(new Sweep(strategy));
+			configurations.add(withMailPool(strategy));
+		}
+		runner.runSeedsUntil(configurations, firstSeed, maxRuns, new SimulationRunner.IStoppingRule() {
+			private int next;
+			private SimulationResult first;
+
+			public boolean add(SimulationResult result) {
+				Sweep sweep = sweeps.get(next);
+				sweep.add(result);
+				if (next == 0) {
+					first = result;
+				} else {
+					sweep.scoreDifferences.add(result.getScore() - first.getScore());
+					sweep.timeDifferences.add(result.getFinalTime() - first.getFinalTime());
+				}
+				next = (next + 1) % sweeps.size();
+				if (next != 0 || sweep.runs() < minRuns) return false;
+				for (Sweep other : sweeps.subList(1, sweeps.size())) {
+					if (!isSettled(other)) return false;
+				}
+				return true;
+			}
+		});
+		return sweeps;
+	}
+
+	private Properties withMailPool(String strategy) {
+		Simulation.mailPoolClass(strategy);
+		Properties properties = new Properties();
+		properties.putAll(automailProperties);
+		properties.setProperty("MailPool", strategy);
+		return properties;
+	}
+
+	/**
+	 * @return whether both of the sweep's intervals are within the tolerances
+	 */
+	public boolean isConverged(Sweep sweep) {
+		return sweep.scores.relativeHalfWidth(confidence) <= scoreTolerance
+				&& sweep.finalTimes.relativeHalfWidth(confidence) <= timeTolerance;
+	}
+
+	/**
+	 * @return whether both of the sweep's differences from the first strategy are settled
+	 */
+	public boolean isSettled(Sweep sweep) {
+		return isSettled(sweep.scoreDifferences, sweep.scores.mean() - sweep.scoreDifferences.mean(), scoreTolerance)
+				&& isSettled(sweep.timeDifferences, sweep.finalTimes.mean() - sweep.timeDifferences.mean(), timeTolerance);
+	}
+
+	/**
+	 * @param firstMean the first strategy's mean, which the tolerance is a fraction of
+	 * @return whether the interval of the difference is within the tolerance, or, at a look or
+	 * at Max_Runs, the corrected interval excludes zero
+	 */
+	private boolean isSettled(RunningStatistics difference, double firstMean, double tolerance) {
+		if (difference.halfWidth(confidence) <= tolerance * Math.abs(firstMean)) return true;
+		if (!differences.isLook(difference.count()) && difference.count() < maxRuns) return false;
+		return Math.abs(difference.mean()) > differences.halfWidth(difference);
+	}
+
+	private String describe(Sweep sweep) {
+		return String.format("%-32s | score %.2f +/- %.2f (%.1f%%) | time %.1f +/- %.1f (%.1f%%) | %d runs",
+				sweep.getStrategy(),
+				sweep.scores.mean(), sweep.scores.halfWidth(confidence), sweep.scores.relativeHalfWidth(confidence) * 100,
+				sweep.finalTimes.mean(), sweep.finalTimes.halfWidth(confidence), sweep.finalTimes.relativeHalfWidth(confidence) * 100,
+				sweep.runs());
+	}
+
+	/**
+	 * @return how a difference from the first strategy stands
+	 */
+	private String describe(RunningStatistics difference) {
+		double halfWidth = differences.halfWidth(difference);
+		String verdict = difference.min() == 0 && difference.max() == 0 ? "the same on every seed"
+				: difference.mean() - halfWidth > 0 ? "higher"
+				: difference.mean() + halfWidth < 0 ? "lower" : "no clear difference";
+		return String.format("%+.2f +/- %.2f, %s", difference.mean(), halfWidth, verdict);
+	}
+
+	/**
+	 * Sweeps the MailPool of automail.properties, or compares the Sweep_Strategies if more than
+	 * one is given, and reports the intervals and how many runs they took
+	 */
+	public static void main(String[] args) throws IOException, InterruptedException {
+		Properties automailProperties = Simulation.loadProperties();
+		String listed = automailProperties.getProperty("Sweep_Strategies");
+		if (listed == null) listed = automailProperties.getProperty("MailPool");
+		List<String> strategies = new ArrayList<String>();
+		for (String strategy : listed.split(",")) {
+			if (!strategy.trim().isEmpty()) strategies.add(strategy.trim());
+		}
+		SimulationRunner runner = new SimulationRunner(Runtime.getRuntime().availableProcessors());
+		try {
+			long started = System.nanoTime();
+			SeedSweep seedSweep = new SeedSweep(runner, automailProperties);
+			List<Sweep> sweeps = new ArrayList<Sweep>();
+			if (strategies.size() == 1) {
+				sweeps.add(seedSweep.sweep(strategies.get(0)));
+			} else {
+				sweeps.addAll(seedSweep.compare(strategies));
+			}
+			long runs = 0;
+			for (Sweep sweep : sweeps) {
+				System.out.println(seedSweep.describe(sweep));
+				runs += sweep.runs();
+			}
+			for (Sweep sweep : sweeps.subList(1, sweeps.size())) {
+				System.out.printf("  %s vs %s: score %s | time %s%s%n", sweep.getStrategy(), sweeps.get(0).getStrategy(),
+						seedSweep.describe(sweep.scoreDifferences), seedSweep.describe(sweep.timeDifferences),
+						seedSweep.isSettled(sweep) ? "" : " (Max_Runs reached)");
+			}
+			if (strategies.size() == 1 && !seedSweep.isConverged(sweeps.get(0))) {
+				System.out.println("Max_Runs reached before the intervals were within tolerance");
+			}
+			System.out.printf("%d runs in %.2f s, at %.0f%% confidence%n", runs,
+					(System.nanoTime() - started) / 1e9, seedSweep.confidence * 100);
+			if (strategies.size() > 1) {
+				System.out.println("Differences at " + seedSweep.differences.describe());
+			}
+		} catch (SimulationFailedException e) {
+			e.printStackTrace();
+			System.out.println("Simulation unable to complete.");
+		} finally {
+			runner.shutdown();
+		}
+	}
+}
@@ -0,0 +1,82 @@
+package automail;
+
+/**
+ * The confidence interval of a mean which a run of seeds may stop on as soon as it excludes a
+ * value. Each look at the interval is another chance of a wrong verdict, so it is only looked
+ * at after Min_Runs runs, twice that, four times that and so on, and once more when the runs
+ * end, and the error the confidence allows is split evenly between those looks (Bonferroni).
+ * A verdict reached at any of them then holds at the stated confidence overall.
+ */
+public class SequentialInterval {
+
+	private final double confidence;
+	private final int tests;
+	private final int minRuns;
+	private final int looks;
+	/** The confidence of the interval at each look */
+	private final double lookConfidence;
+
+	/**
+	 * @param confidence the overall confidence level, between 0 and 1, such as 0.95
+	 * @param tests the number of intervals whose verdicts must all hold together
+	 * @param minRuns the runs before the first look
+	 * @param maxRuns the most runs there will be
+	 */
+	public SequentialInterval(double confidence, int tests, int minRuns, int maxRuns) {
+		this.confidence = confidence;
+		this.tests = tests;
+		this.minRuns = minRuns;
+		int looks = 1; // The last, when the runs end
+		for (long runs = minRuns; runs < maxRuns; runs *= 2) {
+			looks++;
+		}
+		this.looks = looks;
+		lookConfidence = 1 - (1 - confidence) / ((double) looks * tests);
+	}
+
+	/**
+	 * @return whether the interval may be looked at after this many runs
+	 */
+	public boolean isLook(long runs) {
+		if (runs < minRuns || runs % minRuns != 0) return false;
+		long multiple = runs / minRuns;
+		return (multiple & (multiple - 1)) == 0;
+	}
+
+	/**
+	 * @return how many looks the error is split between, the last one included
+	 */
+	public int looks() {
+		return looks;
+	}
+
+	/**
+	 * @return the overall confidence level the verdicts hold at
+	 */
+	public double confidence() {
+		return confidence;
+	}
+
+	/**
+	 * @return the confidence level of the interval at each look
+	 */
+	public double lookConfidence() {
+		return lookConfidence;
+	}
+
+	/**
+	 * @return half the width of the interval looked at
+	 */
+	public double halfWidth(RunningStatistics statistics) {
+		return statistics.halfWidth(lookConfidence);
+	}
+
+	/**
+	 * @return what the confidence of a verdict means, for a report
+	 */
+	public String describe() {
+		return String.format("%.0f%% confidence in each verdict, however early it stopped: its intervals are at %.2f%%,"
+				+ " the error split over %d looks" + (tests > 1 ? " and " + tests + " intervals" : ""),
+				confidence * 100, lookConfidence * 100, looks);
+	}
+}
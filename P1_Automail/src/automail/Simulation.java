@@ -1,16 +1,23 @@
 package automail;
 
+import events.ArrivalTraceRecorder;
+import events.AsyncEventSink;
+import events.BinaryEventSink;
+import events.ConsoleEventSink;
+import events.IEventSink;
+import events.SilentEventSink;
+import events.StatisticsEventSink;
 import exceptions.BreakingFragileItemException;
 import exceptions.ExcessiveDeliveryException;
 import exceptions.ItemTooHeavyException;
 import exceptions.MailAlreadyDeliveredException;
 import strategies.Automail;
 import strategies.IMailPool;
-import strategies.MailPool;
 
+import java.io.FileOutputStream;
 import java.io.FileReader;
 import java.io.IOException;
-import java.util.ArrayList;
+import java.io.PrintStream;
 import java.util.HashMap;
 import java.util.Properties;
 
@@ -19,28 +26,101 @@ import java.util.Properties;
  */
 public class Simulation {
     /** Constant for the mail generator */
-    private static int MAIL_TO_CREATE;
-    private static int MAIL_MAX_WEIGHT;
+    private final int MAIL_TO_CREATE;
+    private final int MAIL_MAX_WEIGHT;
     
-    private static boolean CAUTION_ENABLED;
-    private static boolean FRAGILE_ENABLED;
-    private static boolean STATISTICS_ENABLED;
+    private final boolean CAUTION_ENABLED;
+    private final boolean FRAGILE_ENABLED;
+    private final boolean STATISTICS_ENABLED;
+    /** Whether to skip idle ticks rather than step every tick */
+    private final boolean EVENT_ENGINE;
+    /** How many items the streaming mail generator holds at once, or 0 to generate all mail up front */
+    private final int STREAM_WINDOW;
+    /** Whether robots are kept in a RobotFleet's arrays instead of one object each */
+    private final boolean ARRAY_FLEET;
+    /** How many threads the tick engine steps robots on; 1 steps them one after another */
+    private final int STEP_THREADS;
+    /** The IMailPool implementation named by the MailPool property */
+    private final Class<? extends IMailPool> MAIL_POOL;
     
-    private static ArrayList<MailItem> MAIL_DELIVERED;
-    private static ArrayList<MailItem> MAIL_REJECTED;
-    private static double total_score = 0;
+    private final int ROBOTS;
+    /** The seed for mail generation, or null to randomise */
+    private final Integer SEED;
+    
+    private final Properties automailProperties;
+    private final SimulationContext context;
+    /** Collects the run's statistics, or null if they are disabled */
+    private final StatisticsEventSink statistics;
+    /** Publishes the run's progress over JMX, or null if it is disabled */
+    private final SimulationMonitor monitor;
 
-    public static void main(String[] args) throws IOException, InstantiationException, IllegalAccessException, ClassNotFoundException {
+    public static void main(String[] args) throws IOException {
+    	Properties automailProperties = loadProperties();
+        
+        /** Read the first argument and save it as a seed if it exists */
+    	String seedProp = automailProperties.getProperty("Seed");
+    	Integer seed;
+        if (args.length == 0 ) { // No arg
+        	if (seedProp == null) { // and no property
+        		seed = null; // so randomise
+        	} else { // Use property seed
+        		seed = Integer.parseInt(seedProp);
+        	}
+        } else { // Use arg seed - overrides property
+        	seed = Integer.parseInt(args[0]);
+        }
+        
+        IEventSink events = createEventSink(automailProperties);
+        Simulation simulation = new Simulation(automailProperties, seed, events);
+        simulation.printConfiguration();
+        try {
+        	simulation.run();
+		} catch (ExcessiveDeliveryException|ItemTooHeavyException|BreakingFragileItemException|IOException e) {
+			events.close();
+			e.printStackTrace();
+			System.out.println("Simulation unable to complete.");
+			System.exit(0);
+		}
+        events.close();
+        simulation.printResults();
+        simulation.exportStatistics();
+    }
+    
+    /**
+     * Reads automail.properties from the working directory, on top of the default properties
+     * @return the simulation properties
+     */
+    public static Properties loadProperties() throws IOException {
     	Properties automailProperties = new Properties();
 		// Default properties
     	automailProperties.setProperty("Robots", "Standard");
-    	automailProperties.setProperty("MailPool", "strategies.SimpleMailPool");
+    	automailProperties.setProperty("MailPool", "strategies.IndexedMailPool");
     	automailProperties.setProperty("Floors", "10");
     	automailProperties.setProperty("Mail_to_Create", "80");
     	automailProperties.setProperty("Last_Delivery_Time", "100");
     	automailProperties.setProperty("Caution", "false");
     	automailProperties.setProperty("Fragile", "false");
     	automailProperties.setProperty("Statistics", "false");
+    	automailProperties.setProperty("Jmx", "false");
+    	automailProperties.setProperty("Event_Sink", "console");
+    	automailProperties.setProperty("Event_Log_File", "events.bin");
+    	automailProperties.setProperty("Engine", "tick");
+    	automailProperties.setProperty("Mail_Generation", "eager");
+    	automailProperties.setProperty("Fleet", "objects");
+    	automailProperties.setProperty("Step_Threads", "1");
+    	automailProperties.setProperty("Mail_Stream_Window", "1000000");
+    	automailProperties.setProperty("Tube_Slots", "1");
+    	automailProperties.setProperty("Carry_Max_Weight", "0");
+    	automailProperties.setProperty("RealTime_Tick_Millis", "100");
+    	automailProperties.setProperty("RealTime_Backpressure", "1000");
+    	automailProperties.setProperty("Checkpoint_Interval", "0");
+    	automailProperties.setProperty("Checkpoint_File", "checkpoint.bin");
+    	automailProperties.setProperty("Confidence", "0.95");
+    	automailProperties.setProperty("Min_Runs", "5");
+    	automailProperties.setProperty("Max_Runs", "200");
+    	automailProperties.setProperty("Sizing_Max_Robots", "20");
+    	automailProperties.setProperty("Sweep_Score_Tolerance", "0.05");
+    	automailProperties.setProperty("Sweep_Time_Tolerance", "0.02");
 
     	// Read properties
 		FileReader inStream = null;
@@ -52,88 +132,202 @@ public class Simulation {
 	                inStream.close();
 	            }
 		}
-
-		//Seed
-		String seedProp = automailProperties.getProperty("Seed");
+		return automailProperties;
+    }
+    
+    /**
+     * Sets up a simulation run
+     * @param automailProperties the simulation properties
+     * @param seed the seed for mail generation, or null to randomise
+     * @param events receives the run's trace
+     */
+    public Simulation(Properties automailProperties, Integer seed, IEventSink events) {
+    	this.automailProperties = automailProperties;
 		// Floors
-		Building.FLOORS = Integer.parseInt(automailProperties.getProperty("Floors"));
-        System.out.println("Floors: " + Building.FLOORS);
+		int floors = Integer.parseInt(automailProperties.getProperty("Floors"));
 		// Mail_to_Create
 		MAIL_TO_CREATE = Integer.parseInt(automailProperties.getProperty("Mail_to_Create"));
-        System.out.println("Mail_to_Create: " + MAIL_TO_CREATE);
         // Mail_to_Create
      	MAIL_MAX_WEIGHT = Integer.parseInt(automailProperties.getProperty("Mail_Max_Weight"));
-        System.out.println("Mail_Max_Weight: " + MAIL_MAX_WEIGHT);
 		// Last_Delivery_Time
-		Clock.LAST_DELIVERY_TIME = Integer.parseInt(automailProperties.getProperty("Last_Delivery_Time"));
-        System.out.println("Last_Delivery_Time: " + Clock.LAST_DELIVERY_TIME);
+		int lastDeliveryTime = Integer.parseInt(automailProperties.getProperty("Last_Delivery_Time"));
         // Caution ability
         CAUTION_ENABLED = Boolean.parseBoolean(automailProperties.getProperty("Caution"));
-        System.out.println("Caution enabled: " + CAUTION_ENABLED);
         // Fragile mail generation
         FRAGILE_ENABLED = Boolean.parseBoolean(automailProperties.getProperty("Fragile"));
-        System.out.println("Fragile enabled: " + FRAGILE_ENABLED);
         // Statistics tracking
         STATISTICS_ENABLED = Boolean.parseBoolean(automailProperties.getProperty("Statistics"));
-        System.out.println("Statistics enabled: " + STATISTICS_ENABLED);
+        // Simulation engine
+        EVENT_ENGINE = automailProperties.getProperty("Engine").equals("event");
+        // Mail generation
+        STREAM_WINDOW = automailProperties.getProperty("Mail_Generation").equals("streaming")
+        		? Integer.parseInt(automailProperties.getProperty("Mail_Stream_Window")) : 0;
+        // Robot representation
+        ARRAY_FLEET = automailProperties.getProperty("Fleet").equals("arrays");
+        // Parallel robot stepping
+        STEP_THREADS = Integer.parseInt(automailProperties.getProperty("Step_Threads"));
+        // Mail pool strategy
+        MAIL_POOL = mailPoolClass(automailProperties.getProperty("MailPool"));
 		// Robots
-		int robots = Integer.parseInt(automailProperties.getProperty("Robots"));
-		System.out.print("Robots: "); System.out.println(robots);
-		assert(robots > 0);
-		// MailPool
-		IMailPool mailPool = new MailPool(robots);
-
-		// End properties
+		ROBOTS = Integer.parseInt(automailProperties.getProperty("Robots"));
+		assert(ROBOTS > 0);
 		
-        MAIL_DELIVERED = new ArrayList<MailItem>();
-        MAIL_REJECTED = new ArrayList<MailItem>();
+		SEED = seed;
+		if (STATISTICS_ENABLED) {
+			statistics = new StatisticsEventSink(events, ROBOTS);
+			events = statistics;
+		} else {
+			statistics = null;
+		}
+		if (Boolean.parseBoolean(automailProperties.getProperty("Jmx"))) {
+			monitor = new SimulationMonitor(events, ROBOTS);
+			events = monitor;
+		} else {
+			monitor = null;
+		}
+		context = new SimulationContext(floors, lastDeliveryTime, events);
+    }
+    
+    /**
+     * Prints the properties the simulation is running with
+     */
+    public void printConfiguration() {
+        System.out.println("Floors: " + context.building.FLOORS);
+        System.out.println("Mail_to_Create: " + MAIL_TO_CREATE);
+        System.out.println("Mail_Max_Weight: " + MAIL_MAX_WEIGHT);
+        System.out.println("Last_Delivery_Time: " + context.clock.LAST_DELIVERY_TIME);
+        System.out.println("Caution enabled: " + CAUTION_ENABLED);
+        System.out.println("Fragile enabled: " + FRAGILE_ENABLED);
+        System.out.println("Statistics enabled: " + STATISTICS_ENABLED);
+		System.out.print("Robots: "); System.out.println(ROBOTS);
+        System.out.println("Seed: " + (SEED == null ? "null" : SEED.toString()));
+    }
+    
+    /**
+     * Runs the simulation until all mail has been delivered or rejected. If Resume_From names
+     * a checkpoint, the run carries on from it, with the mail generated from its seed. If
+     * Checkpoint_Interval is set, a checkpoint is written to Checkpoint_File every that many ticks.
+     * @return the outcome of the run
+     * @throws IOException if the Arrival_Trace or checkpoint cannot be read, or a checkpoint
+     * cannot be written
+     */
+    public SimulationResult run() throws ExcessiveDeliveryException, ItemTooHeavyException, BreakingFragileItemException, IOException {
+    	long started = System.nanoTime();
+		// MailPool
+		IMailPool mailPool = createMailPool(MAIL_POOL, ROBOTS);
                 
         /** Used to see whether a seed is initialized or not */
         HashMap<Boolean, Integer> seedMap = new HashMap<>();
-        
-        /** Read the first argument and save it as a seed if it exists */
-        if (args.length == 0 ) { // No arg
-        	if (seedProp == null) { // and no property
-        		seedMap.put(false, 0); // so randomise
-        	} else { // Use property seed
-        		seedMap.put(true, Integer.parseInt(seedProp));
-        	}
-        } else { // Use arg seed - overrides property
-        	seedMap.put(true, Integer.parseInt(args[0]));
+        if (SEED == null) {
+        	seedMap.put(false, 0);
+        } else {
+        	seedMap.put(true, SEED);
         }
-        Integer seed = seedMap.get(true);
-        System.out.println("Seed: " + (seed == null ? "null" : seed.toString()));
-        Automail automail = new Automail(mailPool, new ReportDelivery(), robots, automailProperties);
-        MailGenerator mailGenerator = new MailGenerator(MAIL_TO_CREATE, MAIL_MAX_WEIGHT, automail.mailPool, seedMap);
-        
-        /** Initiate all the mail */
-        mailGenerator.generateAllMail(FRAGILE_ENABLED);
-        while( (MAIL_DELIVERED.size() + MAIL_REJECTED.size()) != mailGenerator.MAIL_TO_CREATE) {
-            mailGenerator.step();
-            try {
-                automail.mailPool.step();
-				for (int i=0; i<robots; i++) {
-					automail.robots[i].step();
-				}
-			} catch (ExcessiveDeliveryException|ItemTooHeavyException|BreakingFragileItemException e) {
-				e.printStackTrace();
-				System.out.println("Simulation unable to complete.");
-				System.exit(0);
-			}
-            Clock.Tick();
+        IMailDelivery delivery = new ReportDelivery(context);
+        RobotFleet fleet = null;
+        Automail automail;
+        if (ARRAY_FLEET) {
+        	fleet = new RobotFleet(ROBOTS, delivery, mailPool, context, automailProperties);
+        	automail = new Automail(mailPool, fleet.getRobots());
+        } else {
+        	automail = new Automail(mailPool, delivery, context, ROBOTS, automailProperties);
+        }
+        String resumeFrom = automailProperties.getProperty("Resume_From");
+        IArrivalSource arrivals;
+        long seed = 0;
+        String arrivalTrace = automailProperties.getProperty("Arrival_Trace");
+        if (arrivalTrace != null) {
+        	arrivals = new TraceArrivalSource(arrivalTrace, automail.mailPool, context);
+        } else {
+	        MailGenerator mailGenerator = resumeFrom != null
+	        		? new MailGenerator(MAIL_TO_CREATE, MAIL_MAX_WEIGHT, automail.mailPool, Checkpoint.readSeed(resumeFrom), context)
+	        		: new MailGenerator(MAIL_TO_CREATE, MAIL_MAX_WEIGHT, automail.mailPool, seedMap, context);
+	        seed = mailGenerator.getSeed();
+	        
+	        /** Initiate all the mail */
+	        if (STREAM_WINDOW > 0) {
+	        	mailGenerator.streamAllMail(FRAGILE_ENABLED, STREAM_WINDOW);
+	        } else {
+	        	mailGenerator.generateAllMail(FRAGILE_ENABLED);
+	        }
+	        arrivals = mailGenerator;
+        }
+        ParallelStepper stepper = null;
+        PhaseTimer phases = context.phases;
+        try {
+        	if (statistics != null) statistics.start(context.clock.Time());
+        	Checkpoint checkpoint = null;
+        	int checkpointInterval = Integer.parseInt(automailProperties.getProperty("Checkpoint_Interval"));
+        	if (resumeFrom != null || checkpointInterval > 0) {
+        		checkpoint = new Checkpoint(context, seed, arrivals, automail.mailPool, automail.robots, statistics,
+        				automailProperties.getProperty("Checkpoint_File"), checkpointInterval);
+        		if (resumeFrom != null) {
+        			checkpoint.restore(resumeFrom);
+        			if (monitor != null) monitor.restored(automail.robots, context);
+        		}
+        		if (checkpointInterval <= 0) checkpoint = null;
+        	}
+        	if (monitor != null) monitor.register();
+        	if (STEP_THREADS > 1 && !EVENT_ENGINE) {
+        		stepper = new ParallelStepper(automail.robots, automail.mailPool, context, STEP_THREADS);
+        	}
+	        if (EVENT_ENGINE) {
+	        	new EventEngine(context, arrivals, automail.mailPool, automail.robots, statistics, monitor, checkpoint).run(arrivals.getMailToCreate());
+	        } else {
+		        while( (context.getDelivered() + context.getRejected()) != arrivals.getMailToCreate()) {
+		            int time = context.clock.Time();
+		            boolean timed = phases.isEnabled();
+		            if (timed) phases.startArrivals(time, automail.mailPool);
+		            arrivals.step();
+		            if (timed) phases.finishArrivals(automail.mailPool);
+		            if (timed) phases.startDispatch(time, automail.mailPool);
+		            automail.mailPool.step();
+		            if (timed) phases.finishDispatch(automail.mailPool);
+		            if (timed) phases.startSteps(time, ROBOTS);
+		            if (stepper != null) {
+		            	stepper.step();
+		            } else if (fleet != null) {
+		            	fleet.step();
+		            } else {
+						for (int i=0; i<ROBOTS; i++) {
+							automail.robots[i].step();
+						}
+		            }
+		            if (timed) phases.finishSteps();
+		            if (statistics != null) statistics.poolDepth(context.clock.Time(), automail.mailPool.size());
+		            if (monitor != null) {
+		            	monitor.tick(time, automail.mailPool.size(), automail.mailPool.waitingRobots(), context.total_score);
+		            }
+		            context.clock.Tick();
+		            if (checkpoint != null && checkpoint.due()) checkpoint.write();
+		        }
+	        }
+        } finally {
+        	if (stepper != null) stepper.shutdown();
+        	if (monitor != null) monitor.unregister();
+        	// A streaming generator keeps its spill file open until it has read the last window
+        	if (arrivals instanceof MailGenerator) ((MailGenerator) arrivals).close();
         }
-        printResults();
+        if (statistics != null) statistics.finish(context.clock.Time());
+        return new SimulationResult(SEED, context.clock.Time(), context.total_score, context.getDelivered(), context.getRejected(),
+        		System.nanoTime() - started, statistics != null ? statistics.latencyPercentile(0.99) : -1);
     }
     
-    static class ReportDelivery implements IMailDelivery {
+    public static class ReportDelivery implements IMailDelivery {
+    	
+    	private final SimulationContext context;
+    	
+    	public ReportDelivery(SimulationContext context) {
+    		this.context = context;
+    	}
     	
     	/** Confirm the delivery and calculate the total score */
     	public void deliver(MailItem deliveryItem){
-    		if(!MAIL_DELIVERED.contains(deliveryItem)){
-    			MAIL_DELIVERED.add(deliveryItem);
-                System.out.printf("T: %3d > Deliv(%4d) [%s]%n", Clock.Time(), MAIL_DELIVERED.size(), deliveryItem.toString());
+    		context.phases.startDelivery(context.clock.Time(), deliveryItem, false);
+    		if(context.ledger.deliver(deliveryItem)){
+                context.events.mailDelivered(context.clock.Time(), context.getDelivered(), deliveryItem);
     			// Calculate delivery score
-    			total_score += calculateDeliveryScore(deliveryItem);
+    			context.total_score += calculateDeliveryScore(context.clock.Time(), deliveryItem);
     		}
     		else{
     			try {
@@ -142,13 +336,14 @@ public class Simulation {
     				e.printStackTrace();
     			}
     		}
+    		context.phases.finishDelivery();
     	}
     	
     	/** Reject the deliveryItem */
     	public void reject(MailItem deliveryItem){
-    		if(!MAIL_REJECTED.contains(deliveryItem)){
-    			MAIL_REJECTED.add(deliveryItem);
-                System.out.printf("T: %3d > Rejected(%4d) [%s]%n", Clock.Time(), MAIL_REJECTED.size(), deliveryItem.toString());
+    		context.phases.startDelivery(context.clock.Time(), deliveryItem, true);
+    		if(context.ledger.reject(deliveryItem)){
+                context.events.mailRejected(context.clock.Time(), context.getRejected(), deliveryItem);
     		}
     		else{
     			try {
@@ -157,20 +352,95 @@ public class Simulation {
     				e.printStackTrace();
     			}
     		}
+    		context.phases.finishDelivery();
     	}
 
     }
     
-    private static double calculateDeliveryScore(MailItem deliveryItem) {
+    /**
+     * @param name the fully qualified name of an IMailPool implementation
+     * @return the class, which must have a constructor taking the number of robots
+     */
+    public static Class<? extends IMailPool> mailPoolClass(String name) {
+    	try {
+    		Class<? extends IMailPool> pool = Class.forName(name).asSubclass(IMailPool.class);
+    		pool.getConstructor(int.class);
+    		return pool;
+    	} catch (ClassNotFoundException|ClassCastException|NoSuchMethodException e) {
+    		throw new IllegalArgumentException("Unknown MailPool: " + name, e);
+    	}
+    }
+    
+    /**
+     * @param pool a class returned by mailPoolClass
+     * @param robots the number of robots which will load from the pool
+     * @return a new, empty pool of the given class
+     */
+    static IMailPool createMailPool(Class<? extends IMailPool> pool, int robots) {
+    	try {
+    		return pool.getConstructor(int.class).newInstance(robots);
+    	} catch (ReflectiveOperationException e) {
+    		throw new IllegalStateException("Unable to create " + pool.getName(), e);
+    	}
+    }
+    
+    /**
+     * Creates the sink named by the Event_Sink property: console (the default) prints the
+     * trace as it happens, async writes it from a background thread (to Event_Trace_File if
+     * set, otherwise standard output), binary writes it to the Event_Log_File binary log and
+     * silent discards it. If Arrival_Trace_Record is set, every arrival is also recorded to
+     * that file.
+     */
+    public static IEventSink createEventSink(Properties automailProperties) throws IOException {
+    	String sink = automailProperties.getProperty("Event_Sink");
+    	IEventSink events;
+    	if (sink.equals("silent")) {
+    		events = new SilentEventSink();
+    	} else if (sink.equals("async")) {
+    		String traceFile = automailProperties.getProperty("Event_Trace_File");
+    		events = traceFile == null ? new AsyncEventSink() : new AsyncEventSink(traceFile);
+    	} else if (sink.equals("binary")) {
+    		events = new BinaryEventSink(automailProperties.getProperty("Event_Log_File"));
+    	} else if (sink.equals("console")) {
+    		events = new ConsoleEventSink();
+    	} else {
+    		throw new IllegalArgumentException("Unknown Event_Sink: " + sink);
+    	}
+    	String recordTrace = automailProperties.getProperty("Arrival_Trace_Record");
+    	return recordTrace == null ? events : new ArrivalTraceRecorder(events, recordTrace);
+    }
+    
+    private static double calculateDeliveryScore(int time, MailItem deliveryItem) {
     	// Penalty for longer delivery times
     	final double penalty = 1.2;
     	double priority_weight = 0;
-        return Math.pow(Clock.Time() - deliveryItem.getArrivalTime(),penalty)*(1+Math.sqrt(priority_weight));
+        return Math.pow(time - deliveryItem.getArrivalTime(),penalty)*(1+Math.sqrt(priority_weight));
     }
 
-    public static void printResults(){
-        System.out.println("T: "+Clock.Time()+" | Simulation complete!");
-        System.out.println("Final Delivery time: "+Clock.Time());
-        System.out.printf("Final Score: %.2f%n", total_score);
+    public void printResults(){
+        System.out.println("T: "+context.clock.Time()+" | Simulation complete!");
+        System.out.println("Final Delivery time: "+context.clock.Time());
+        System.out.printf("Final Score: %.2f%n", context.total_score);
+        if (statistics != null) statistics.printSummary(System.out);
+    }
+    
+    /**
+     * Writes the statistics to the files named by the Statistics_Csv and Statistics_Json
+     * properties, if they are set and statistics are enabled
+     */
+    public void exportStatistics() throws IOException {
+    	if (statistics == null) return;
+    	String csv = automailProperties.getProperty("Statistics_Csv");
+    	if (csv != null) {
+    		try (PrintStream out = new PrintStream(new FileOutputStream(csv))) {
+    			statistics.writeCsv(out);
+    		}
+    	}
+    	String json = automailProperties.getProperty("Statistics_Json");
+    	if (json != null) {
+    		try (PrintStream out = new PrintStream(new FileOutputStream(json))) {
+    			statistics.writeJson(out);
+    		}
+    	}
     }
 }
@@ -0,0 +1,76 @@
+package automail;
+
+import events.IEventSink;
+
+/**
+ * Holds everything which belongs to a single simulation run, so that several runs
+ * can execute side by side in the same JVM.
+ */
+public class SimulationContext {
+
+	public final Clock clock;
+	public final Building building;
+	public final IEventSink events;
+
+	/** Times each phase of the run's ticks */
+	final PhaseTimer phases = PhaseTimer.create();
+	/** Mail which has been delivered or rejected */
+	public final DeliveryLedger ledger = new DeliveryLedger();
+	/** The running score of the simulation */
+	double total_score = 0;
+
+	/** The next id to hand out to a mail item and to a robot */
+	private int nextMailId = 0;
+	private int nextRobotId = 0;
+
+	/**
+	 * @param floors the number of floors in the building
+	 * @param lastDeliveryTime the latest time at which mail can arrive
+	 * @param events receives the run's trace
+	 */
+	public SimulationContext(int floors, int lastDeliveryTime, IEventSink events) {
+		this.clock = new Clock(lastDeliveryTime);
+		this.building = new Building(floors);
+		this.events = events;
+	}
+
+	/**
+	 * Ids are handed out in creation order, so they are dense and the same for every run
+	 * with the same seed
+	 * @return the id for a newly created mail item
+	 */
+	int nextMailId() {
+		return nextMailId++;
+	}
+
+	/**
+	 * Reserves a block of mail ids, for items which will be created later
+	 * @param count the number of ids to reserve
+	 * @return the first id of the block
+	 */
+	int reserveMailIds(int count) {
+		int first = nextMailId;
+		nextMailId += count;
+		return first;
+	}
+
+	/**
+	 * @return the id for a newly created robot
+	 */
+	int nextRobotId() {
+		return nextRobotId++;
+	}
+
+	public int getDelivered() {
+		return ledger.getDelivered();
+	}
+
+	public int getRejected() {
+		return ledger.getRejected();
+	}
+
+	public double getScore() {
+		return total_score;
+	}
+
+}
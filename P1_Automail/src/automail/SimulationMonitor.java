@@ -0,0 +1,217 @@
+package automail;
+
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import automail.Robot.RobotState;
+import events.IEventSink;
+
+/**
+ * Publishes a run's progress over JMX. It counts robot states and deliveries from the events
+ * passing through it, then passes every event on to another sink, and the simulation gives
+ * it the time, pool depth, waiting robots and score once a tick.
+ *
+ * Only the simulation's thread writes the counters, so they are published with ordered
+ * stores rather than locks or fences, and reading them from JMX never holds up the run.
+ * The robot state counts change two at a time, so they are instead copied at the end of
+ * each tick and published together, and a reading always adds up to the whole fleet.
+ */
+public class SimulationMonitor implements IEventSink, SimulationMonitorMXBean {
+
+	private static final RobotState[] STATES = RobotState.values();
+	/** Numbers the monitors, so that every run in the process has its own MBean */
+	private static final AtomicInteger RUNS = new AtomicInteger();
+
+	private final IEventSink next;
+	private final ObjectName name;
+
+	private final AtomicInteger time = new AtomicInteger();
+	private final AtomicInteger poolDepth = new AtomicInteger();
+	private final AtomicInteger waitingRobots = new AtomicInteger();
+	/** The number of robots in each state, kept by the simulation's thread */
+	private final int[] stateCounts = new int[STATES.length];
+	/** A copy of stateCounts as it stood at the end of the last tick */
+	private volatile int[] publishedStates;
+	private final AtomicInteger delivered = new AtomicInteger();
+	private final AtomicInteger rejected = new AtomicInteger();
+	/** The total score, as the bits of a double */
+	private final AtomicLong totalScore = new AtomicLong(Double.doubleToRawLongBits(0));
+
+	/** The time and wall-clock time ticks per second was last measured from, and the result */
+	private int sampleTime;
+	private long sampleNanos = System.nanoTime();
+	private double ticksPerSecond;
+
+	/**
+	 * @param next the sink every event is passed on to
+	 * @param robots the number of robots in the run, which all begin by returning to the mailroom
+	 */
+	public SimulationMonitor(IEventSink next, int robots) {
+		this.next = next;
+		stateCounts[RobotState.RETURNING.ordinal()] = robots;
+		publishedStates = stateCounts.clone();
+		try {
+			name = new ObjectName("automail:type=Simulation,run=" + RUNS.incrementAndGet());
+		} catch (JMException e) {
+			throw new IllegalStateException("Unable to name the simulation MBean", e);
+		}
+	}
+
+	/**
+	 * Registers the monitor with the platform MBean server
+	 */
+	public void register() {
+		try {
+			ManagementFactory.getPlatformMBeanServer().registerMBean(this, name);
+		} catch (JMException e) {
+			throw new IllegalStateException("Unable to register " + name, e);
+		}
+	}
+
+	/**
+	 * Removes the monitor from the platform MBean server, if it is registered
+	 */
+	public void unregister() {
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		try {
+			if (server.isRegistered(name)) server.unregisterMBean(name);
+		} catch (JMException e) {
+			throw new IllegalStateException("Unable to unregister " + name, e);
+		}
+	}
+
+	/**
+	 * Recounts the robot states and deliveries of a run just restored from a checkpoint,
+	 * which sends no events
+	 */
+	void restored(Robot[] robots, SimulationContext context) {
+		Arrays.fill(stateCounts, 0);
+		for (Robot robot : robots) {
+			stateCounts[robot.getState().ordinal()]++;
+		}
+		publishedStates = stateCounts.clone();
+		delivered.set(context.getDelivered());
+		rejected.set(context.getRejected());
+		time.set(context.clock.Time());
+		sampleTime = context.clock.Time();
+	}
+
+	/**
+	 * Publishes the state of the run at the end of a tick
+	 * @param time the current time
+	 * @param poolDepth the number of items waiting in the pool
+	 * @param waitingRobots the number of robots waiting to be loaded
+	 * @param totalScore the score so far
+	 */
+	public void tick(int time, int poolDepth, int waitingRobots, double totalScore) {
+		this.time.lazySet(time);
+		this.poolDepth.lazySet(poolDepth);
+		this.waitingRobots.lazySet(waitingRobots);
+		this.totalScore.lazySet(Double.doubleToRawLongBits(totalScore));
+		publishedStates = stateCounts.clone();
+	}
+
+	public int getTime() {
+		return time.get();
+	}
+
+	public int getPoolDepth() {
+		return poolDepth.get();
+	}
+
+	public int getWaitingRobots() {
+		return waitingRobots.get();
+	}
+
+	public Map<String, Integer> getRobotStates() {
+		int[] states = publishedStates;
+		Map<String, Integer> counts = new LinkedHashMap<String, Integer>();
+		for (RobotState state : STATES) {
+			counts.put(state.name(), states[state.ordinal()]);
+		}
+		return counts;
+	}
+
+	public int getDelivered() {
+		return delivered.get();
+	}
+
+	public int getRejected() {
+		return rejected.get();
+	}
+
+	public double getTotalScore() {
+		return Double.longBitsToDouble(totalScore.get());
+	}
+
+	public synchronized double getTicksPerSecond() {
+		long now = System.nanoTime();
+		if (now - sampleNanos >= 1000000000L) {
+			int current = time.get();
+			ticksPerSecond = (current - sampleTime) * 1e9 / (now - sampleNanos);
+			sampleTime = current;
+			sampleNanos = now;
+		}
+		return ticksPerSecond;
+	}
+
+	public void mailArrived(int time, MailItem mailItem) {
+		next.mailArrived(time, mailItem);
+	}
+
+	public void mailReturned(int time, MailItem mailItem) {
+		next.mailReturned(time, mailItem);
+	}
+
+	public void robotStateChanged(int time, int robot, int tubeCount, RobotState from, RobotState to) {
+		stateCounts[from.ordinal()]--;
+		stateCounts[to.ordinal()]++;
+		next.robotStateChanged(time, robot, tubeCount, from, to);
+	}
+
+	public void robotDeparted(int time, int robot, int tubeCount, MailItem mailItem) {
+		next.robotDeparted(time, robot, tubeCount, mailItem);
+	}
+
+	public void robotDispatched(int time, int robot, boolean cautionEnabled) {
+		next.robotDispatched(time, robot, cautionEnabled);
+	}
+
+	public void robotWrapStage(int time, int robot, int stage) {
+		next.robotWrapStage(time, robot, stage);
+	}
+
+	public void mailWrapped(int time, MailItem mailItem) {
+		next.mailWrapped(time, mailItem);
+	}
+
+	public void mailUnwrapped(int time, MailItem mailItem) {
+		next.mailUnwrapped(time, mailItem);
+	}
+
+	public void mailDelivered(int time, int delivered, MailItem mailItem) {
+		this.delivered.lazySet(delivered);
+		next.mailDelivered(time, delivered, mailItem);
+	}
+
+	public void mailRejected(int time, int rejected, MailItem mailItem) {
+		this.rejected.lazySet(rejected);
+		next.mailRejected(time, rejected, mailItem);
+	}
+
+	public void message(String message) {
+		next.message(message);
+	}
+
+	public void close() {
+		next.close();
+	}
+}
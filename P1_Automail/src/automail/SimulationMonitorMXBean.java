@@ -0,0 +1,46 @@
+package automail;
+
+import java.util.Map;
+
+/**
+ * The live state of a running simulation, as seen over JMX, for example from jconsole.
+ * The values are published by the simulation's own thread, so they may be a tick behind.
+ */
+public interface SimulationMonitorMXBean {
+
+	/**
+	 * @return the simulation's current time
+	 */
+	int getTime();
+
+	/**
+	 * @return the number of mail items waiting in the pool at the end of the last tick
+	 */
+	int getPoolDepth();
+
+	/**
+	 * @return the number of robots waiting in the mailroom to be loaded
+	 */
+	int getWaitingRobots();
+
+	/**
+	 * @return the number of robots in each state at the end of the last tick, by state name,
+	 * which always add up to the number of robots
+	 */
+	Map<String, Integer> getRobotStates();
+
+	int getDelivered();
+
+	int getRejected();
+
+	/**
+	 * @return the score of the mail delivered so far
+	 */
+	double getTotalScore();
+
+	/**
+	 * @return the simulated ticks per second of wall-clock time, measured over the last
+	 * second or more since it was last asked for
+	 */
+	double getTicksPerSecond();
+}
@@ -0,0 +1,83 @@
+package automail;
+
+/**
+ * The outcome of a single simulation run
+ */
+public class SimulationResult {
+
+	private final Integer seed;
+	private final int finalTime;
+	private final double score;
+	private final int delivered;
+	private final int rejected;
+	private final long elapsedNanos;
+	private final int latencyP99;
+
+	/**
+	 * @param seed the seed the run used, or null if it was randomised
+	 * @param finalTime the time at which the last item was delivered or rejected
+	 * @param score the final score
+	 * @param delivered the number of items delivered
+	 * @param rejected the number of items rejected
+	 * @param elapsedNanos the wall-clock time the run took
+	 */
+	public SimulationResult(Integer seed, int finalTime, double score, int delivered, int rejected, long elapsedNanos) {
+		this(seed, finalTime, score, delivered, rejected, elapsedNanos, -1);
+	}
+
+	/**
+	 * @param seed the seed the run used, or null if it was randomised
+	 * @param finalTime the time at which the last item was delivered or rejected
+	 * @param score the final score
+	 * @param delivered the number of items delivered
+	 * @param rejected the number of items rejected
+	 * @param elapsedNanos the wall-clock time the run took
+	 * @param latencyP99 an upper bound on the 99th percentile delivery latency, or -1 if statistics were disabled
+	 */
+	public SimulationResult(Integer seed, int finalTime, double score, int delivered, int rejected, long elapsedNanos, int latencyP99) {
+		this.seed = seed;
+		this.finalTime = finalTime;
+		this.score = score;
+		this.delivered = delivered;
+		this.rejected = rejected;
+		this.elapsedNanos = elapsedNanos;
+		this.latencyP99 = latencyP99;
+	}
+
+	public Integer getSeed() {
+		return seed;
+	}
+
+	public int getFinalTime() {
+		return finalTime;
+	}
+
+	public double getScore() {
+		return score;
+	}
+
+	public int getDelivered() {
+		return delivered;
+	}
+
+	public int getRejected() {
+		return rejected;
+	}
+
+	public long getElapsedNanos() {
+		return elapsedNanos;
+	}
+
+	/**
+	 * @return an upper bound on the 99th percentile delivery latency, or -1 if statistics were disabled
+	 */
+	public int getLatencyP99() {
+		return latencyP99;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("Seed: %s | Final Delivery time: %d | Final Score: %.2f | Delivered: %d | Rejected: %d",
+				seed, finalTime, score, delivered, rejected);
+	}
+}
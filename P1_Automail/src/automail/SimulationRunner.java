@@ -0,0 +1,225 @@
+package automail;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import events.SilentEventSink;
+import exceptions.BreakingFragileItemException;
+import exceptions.ExcessiveDeliveryException;
+import exceptions.ItemTooHeavyException;
+import exceptions.SimulationFailedException;
+
+/**
+ * Runs many independent simulations in parallel on a thread pool. Each run has its own
+ * SimulationContext and a silent event sink, so only the results are kept.
+ */
+public class SimulationRunner {
+
+	/**
+	 * Decides, one result at a time, when a series of runs has gone far enough
+	 */
+	public interface IStoppingRule {
+
+		/**
+		 * @param result the next run's result, in seed order
+		 * @return whether to stop
+		 */
+		boolean add(SimulationResult result);
+	}
+
+	/**
+	 * The fewest runs a stopping rule should judge a confidence interval from, as the spread of
+	 * fewer is too unreliable an estimate of the variance
+	 */
+	public static final int MIN_RUNS = 4;
+
+	private final ExecutorService executor;
+	private final int threads;
+
+	/**
+	 * @param threads the number of simulations to run at once
+	 */
+	public SimulationRunner(int threads) {
+		executor = Executors.newFixedThreadPool(threads);
+		this.threads = threads;
+	}
+
+	/**
+	 * Runs the simulation for every seed, with the same properties
+	 * @param automailProperties the simulation properties
+	 * @param seeds the seeds to run
+	 * @return the results, in the same order as the seeds
+	 */
+	public List<SimulationResult> runSeeds(Properties automailProperties, List<Integer> seeds)
+			throws SimulationFailedException, InterruptedException {
+		List<Future<SimulationResult>> futures = new ArrayList<Future<SimulationResult>>();
+		for (Integer seed : seeds) {
+			futures.add(submit(automailProperties, seed));
+		}
+		return collect(futures);
+	}
+
+	/**
+	 * Runs the simulation once for every configuration, using each configuration's Seed property
+	 * @param configurations the simulation properties for each run
+	 * @return the results, in the same order as the configurations
+	 */
+	public List<SimulationResult> runConfigurations(List<Properties> configurations)
+			throws SimulationFailedException, InterruptedException {
+		List<Future<SimulationResult>> futures = new ArrayList<Future<SimulationResult>>();
+		for (Properties configuration : configurations) {
+			String seed = configuration.getProperty("Seed");
+			futures.add(submit(configuration, seed == null ? null : Integer.valueOf(seed)));
+		}
+		return collect(futures);
+	}
+
+	/**
+	 * Runs the simulation for consecutive seeds, with as many running at once as there are
+	 * threads, and gives the results to the rule in seed order until it says to stop. Runs
+	 * begun beyond that point are cancelled, or their results ignored, so which runs are
+	 * counted does not depend on the number of threads.
+	 * @param automailProperties the simulation properties
+	 * @param firstSeed the seed of the first run
+	 * @param maxRuns the most runs to make if the rule never stops
+	 * @param rule given each result in turn
+	 * @return the number of results given to the rule
+	 */
+	public int runSeedsUntil(Properties automailProperties, int firstSeed, int maxRuns, IStoppingRule rule)
+			throws SimulationFailedException, InterruptedException {
+		return runSeedsUntil(Collections.singletonList(automailProperties), firstSeed, maxRuns, rule);
+	}
+
+	/**
+	 * Runs every configuration for each of a series of consecutive seeds, as runSeedsUntil does
+	 * a single one, so that they can be compared seed by seed. The rule is given the results
+	 * of each seed in the order of the configurations.
+	 * @param configurations the simulation properties of each configuration
+	 * @param firstSeed the seed of the first runs
+	 * @param maxSeeds the most seeds to run each configuration with if the rule never stops
+	 * @param rule given each result in turn
+	 * @return the number of results given to the rule
+	 */
+	public int runSeedsUntil(List<Properties> configurations, int firstSeed, int maxSeeds, IStoppingRule rule)
+			throws SimulationFailedException, InterruptedException {
+		int maxRuns = maxSeeds * configurations.size();
+		ArrayDeque<Future<SimulationResult>> running = new ArrayDeque<Future<SimulationResult>>();
+		int submitted = 0;
+		int counted = 0;
+		try {
+			while (counted < maxRuns) {
+				while (submitted < maxRuns && running.size() < threads) {
+					int seed = firstSeed + submitted / configurations.size();
+					running.add(submit(configurations.get(submitted++ % configurations.size()), seed));
+				}
+				List<Future<SimulationResult>> next = new ArrayList<Future<SimulationResult>>(1);
+				next.add(running.remove());
+				counted++;
+				if (rule.add(collect(next).get(0))) break;
+			}
+		} finally {
+			for (Future<SimulationResult> future : running) {
+				future.cancel(false);
+			}
+		}
+		return counted;
+	}
+
+	/**
+	 * Queues a single run
+	 * @param automailProperties the simulation properties
+	 * @param seed the seed for mail generation, or null to randomise
+	 * @return the pending result of the run
+	 */
+	public Future<SimulationResult> submit(final Properties automailProperties, final Integer seed) {
+		return executor.submit(new Callable<SimulationResult>() {
+			public SimulationResult call() throws SimulationFailedException {
+				Simulation simulation = new Simulation(automailProperties, seed, new SilentEventSink());
+				try {
+					return simulation.run();
+				} catch (ExcessiveDeliveryException|ItemTooHeavyException|BreakingFragileItemException|IOException e) {
+					throw new SimulationFailedException(seed, e);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Waits for every run to finish
+	 * @param futures the pending runs
+	 * @return the results, in the same order as the runs
+	 */
+	public static List<SimulationResult> collect(List<Future<SimulationResult>> futures)
+			throws SimulationFailedException, InterruptedException {
+		List<SimulationResult> results = new ArrayList<SimulationResult>(futures.size());
+		for (Future<SimulationResult> future : futures) {
+			try {
+				results.add(future.get());
+			} catch (ExecutionException e) {
+				if (e.getCause() instanceof SimulationFailedException) {
+					throw (SimulationFailedException) e.getCause();
+				}
+				throw new IllegalStateException(e.getCause());
+			}
+		}
+		return results;
+	}
+
+	/**
+	 * Stops the worker threads once all queued runs have finished
+	 */
+	public void shutdown() {
+		executor.shutdown();
+	}
+
+	/**
+	 * @param args seeds, or inclusive ranges of seeds such as 1-100
+	 * @return every seed, in order
+	 */
+	static List<Integer> parseSeeds(String[] args) {
+		List<Integer> seeds = new ArrayList<Integer>();
+		for (String arg : args) {
+			int dash = arg.indexOf('-', 1);
+			if (dash < 0) {
+				seeds.add(Integer.parseInt(arg));
+			} else {
+				int last = Integer.parseInt(arg.substring(dash + 1));
+				for (int seed = Integer.parseInt(arg.substring(0, dash)); seed <= last; seed++) seeds.add(seed);
+			}
+		}
+		return seeds;
+	}
+
+	/**
+	 * Runs automail.properties for each seed given on the command line. A seed may also be
+	 * given as an inclusive range, such as 1-100.
+	 */
+	public static void main(String[] args) throws IOException, InterruptedException {
+		Properties automailProperties = Simulation.loadProperties();
+		List<Integer> seeds = parseSeeds(args);
+		if (seeds.isEmpty()) {
+			System.out.println("Usage: SimulationRunner <seed|first-last>...");
+			return;
+		}
+		SimulationRunner runner = new SimulationRunner(Runtime.getRuntime().availableProcessors());
+		try {
+			for (SimulationResult result : runner.runSeeds(automailProperties, seeds)) {
+				System.out.println(result);
+			}
+		} catch (SimulationFailedException e) {
+			e.printStackTrace();
+			System.out.println("Simulation unable to complete.");
+		} finally {
+			runner.shutdown();
+		}
+	}
+}
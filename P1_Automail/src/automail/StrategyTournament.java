@@ -0,0 +1,166 @@
+package automail;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.Future;
+
+import exceptions.SimulationFailedException;
+
+/**
+ * Runs every mail pool strategy over the same seeds, in parallel, and reports how each one
+ * scored, how long its deliveries took and how much wall-clock time its runs cost.
+ */
+public class StrategyTournament {
+
+	/**
+	 * The results of one strategy over every seed
+	 */
+	public static class Standing {
+
+		private final String strategy;
+		private final double[] scores;
+		private final double[] finalTimes;
+		private final double[] runMillis;
+
+		Standing(String strategy, List<SimulationResult> results) {
+			this.strategy = strategy;
+			scores = new double[results.size()];
+			finalTimes = new double[results.size()];
+			runMillis = new double[results.size()];
+			for (int i = 0; i < results.size(); i++) {
+				scores[i] = results.get(i).getScore();
+				finalTimes[i] = results.get(i).getFinalTime();
+				runMillis[i] = results.get(i).getElapsedNanos() / 1e6;
+			}
+			Arrays.sort(scores);
+			Arrays.sort(finalTimes);
+			Arrays.sort(runMillis);
+		}
+
+		public String getStrategy() {
+			return strategy;
+		}
+
+		public double meanScore() {
+			return mean(scores);
+		}
+
+		/**
+		 * @param fraction between 0 and 1
+		 * @return the score at the given percentile
+		 */
+		public double scorePercentile(double fraction) {
+			return percentile(scores, fraction);
+		}
+
+		public double meanFinalTime() {
+			return mean(finalTimes);
+		}
+
+		/**
+		 * @param fraction between 0 and 1
+		 * @return the final delivery time at the given percentile
+		 */
+		public double finalTimePercentile(double fraction) {
+			return percentile(finalTimes, fraction);
+		}
+
+		/**
+		 * @return the mean wall-clock time of a run, in milliseconds
+		 */
+		public double meanRunMillis() {
+			return mean(runMillis);
+		}
+
+		@Override
+		public String toString() {
+			return String.format("%-32s | score mean %14.2f p50 %14.2f p90 %14.2f | time mean %8.1f p50 %6.0f p90 %6.0f | run %8.2f ms",
+					strategy, meanScore(), scorePercentile(0.5), scorePercentile(0.9),
+					meanFinalTime(), finalTimePercentile(0.5), finalTimePercentile(0.9), meanRunMillis());
+		}
+	}
+
+	private static double mean(double[] values) {
+		double sum = 0;
+		for (double value : values) sum += value;
+		return values.length == 0 ? 0 : sum / values.length;
+	}
+
+	/**
+	 * @param sorted values in ascending order
+	 * @param fraction between 0 and 1
+	 * @return the nearest-rank percentile
+	 */
+	private static double percentile(double[] sorted, double fraction) {
+		if (sorted.length == 0) return 0;
+		int rank = (int) Math.ceil(fraction * sorted.length);
+		return sorted[Math.max(rank, 1) - 1];
+	}
+
+	/**
+	 * Runs every strategy over every seed
+	 * @param runner runs the simulations
+	 * @param automailProperties the simulation properties, apart from MailPool
+	 * @param strategies the IMailPool implementations to compare
+	 * @param seeds the seeds each strategy is run with
+	 * @return the standing of each strategy, in the same order as the strategies
+	 */
+	public static List<Standing> run(SimulationRunner runner, Properties automailProperties, List<String> strategies, List<Integer> seeds)
+			throws SimulationFailedException, InterruptedException {
+		// Queue every run before waiting for any, so strategies run side by side
+		List<List<Future<SimulationResult>>> pending = new ArrayList<List<Future<SimulationResult>>>();
+		for (String strategy : strategies) {
+			Simulation.mailPoolClass(strategy);
+			Properties properties = new Properties();
+			properties.putAll(automailProperties);
+			properties.setProperty("MailPool", strategy);
+			List<Future<SimulationResult>> futures = new ArrayList<Future<SimulationResult>>();
+			for (Integer seed : seeds) {
+				futures.add(runner.submit(properties, seed));
+			}
+			pending.add(futures);
+		}
+		List<Standing> standings = new ArrayList<Standing>();
+		for (int i = 0; i < strategies.size(); i++) {
+			standings.add(new Standing(strategies.get(i), SimulationRunner.collect(pending.get(i))));
+		}
+		return standings;
+	}
+
+	/**
+	 * Runs the Tournament_Strategies of automail.properties for each seed given on the command
+	 * line. A seed may also be given as an inclusive range, such as 1-100.
+	 */
+	public static void main(String[] args) throws IOException, InterruptedException {
+		Properties automailProperties = Simulation.loadProperties();
+		List<Integer> seeds = SimulationRunner.parseSeeds(args);
+		if (seeds.isEmpty()) {
+			System.out.println("Usage: StrategyTournament <seed|first-last>...");
+			return;
+		}
+		List<String> strategies = new ArrayList<String>();
+		for (String strategy : automailProperties.getProperty("Tournament_Strategies").split(",")) {
+			if (!strategy.trim().isEmpty()) strategies.add(strategy.trim());
+		}
+		SimulationRunner runner = new SimulationRunner(Runtime.getRuntime().availableProcessors());
+		try {
+			long started = System.nanoTime();
+			List<Standing> standings = run(runner, automailProperties, strategies, seeds);
+			System.out.printf("%d strategies x %d seeds in %.2f s%n", strategies.size(), seeds.size(), (System.nanoTime() - started) / 1e9);
+			Standing best = null;
+			for (Standing standing : standings) {
+				System.out.println(standing);
+				if (best == null || standing.meanScore() < best.meanScore()) best = standing;
+			}
+			if (best != null) System.out.println("Lowest mean score: " + best.getStrategy());
+		} catch (SimulationFailedException e) {
+			e.printStackTrace();
+			System.out.println("Simulation unable to complete.");
+		} finally {
+			runner.shutdown();
+		}
+	}
+}
@@ -0,0 +1,98 @@
+package automail;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+import strategies.IMailPool;
+
+/**
+ * Replays the mail recorded in an arrival trace, reading it straight out of a memory-mapped
+ * file. A trace is a header followed by one fixed size record per item, in arrival order:
+ * <pre>
+ * header: int MAGIC, int VERSION, long item count
+ * record: int id, int arrival time, int destination floor, int weight with the fragile flag in the top bit
+ * </pre>
+ * All values are big-endian. Items keep the ids they had in the recorded run, which follow the
+ * order they were generated in rather than the order they arrived in, so that strategies which
+ * break ties on ids replay the run exactly.
+ */
+public class TraceArrivalSource implements IArrivalSource {
+
+	public static final int MAGIC = 0x414D5452; // "AMTR"
+	public static final int VERSION = 2;
+	public static final int HEADER_SIZE = 16;
+	public static final int RECORD_SIZE = 16;
+	public static final int FRAGILE = 0x80000000;
+
+	private final IMailPool mailPool;
+	private final SimulationContext context;
+	private final MappedByteBuffer trace;
+	private final int count;
+	/** The next record to arrive */
+	private int next;
+
+	/**
+	 * @param fileName the trace to replay
+	 * @param mailPool where mail items go on arrival
+	 * @param context the simulation run the mail belongs to
+	 * @throws IOException if the trace cannot be read or is not an arrival trace
+	 */
+	public TraceArrivalSource(String fileName, IMailPool mailPool, SimulationContext context) throws IOException {
+		this.mailPool = mailPool;
+		this.context = context;
+		try (RandomAccessFile file = new RandomAccessFile(fileName, "r"); FileChannel channel = file.getChannel()) {
+			if (channel.size() > Integer.MAX_VALUE) {
+				throw new IOException(fileName + " is too large to map");
+			}
+			trace = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		}
+		if (trace.capacity() < HEADER_SIZE || trace.getInt(0) != MAGIC || trace.getInt(4) != VERSION) {
+			throw new IOException(fileName + " is not an arrival trace");
+		}
+		long items = trace.getLong(8);
+		if (items < 0 || HEADER_SIZE + items * RECORD_SIZE > trace.capacity()) {
+			throw new IOException(fileName + " is truncated");
+		}
+		count = (int) items;
+		// Ids after the trace's go to any other mail, as they did in the recorded run
+		context.reserveMailIds(count);
+		next = 0;
+	}
+
+	private int time(int record) {
+		return trace.getInt(HEADER_SIZE + record * RECORD_SIZE + 4);
+	}
+
+	@Override
+	public int getMailToCreate() {
+		return count;
+	}
+
+	@Override
+	public int nextArrivalTime(int time) {
+		return next < count ? time(next) : Integer.MAX_VALUE;
+	}
+
+	@Override
+	public void skipTo(int time) {
+		while (next < count && time(next) < time) {
+			next++;
+		}
+	}
+
+	@Override
+	public void step() {
+		int time = context.clock.Time();
+		while (next < count && time(next) <= time) {
+			int offset = HEADER_SIZE + next * RECORD_SIZE;
+			int floor = trace.getInt(offset + 8);
+			int weight = trace.getInt(offset + 12);
+			MailItem mailItem = new MailItem(trace.getInt(offset), floor, trace.getInt(offset + 4), weight & ~FRAGILE, (weight & FRAGILE) != 0);
+			context.events.mailArrived(time, mailItem);
+			mailPool.addToPool(mailItem);
+			next++;
+		}
+	}
+}
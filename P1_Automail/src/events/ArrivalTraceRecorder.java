@@ -0,0 +1,112 @@
+package events;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+import automail.MailItem;
+import automail.Robot.RobotState;
+import automail.TraceArrivalSource;
+
+/**
+ * Records every arrival in a run to an arrival trace, which TraceArrivalSource can replay,
+ * and passes every event on to another sink. The item count in the header is filled in when
+ * the sink is closed.
+ */
+public class ArrivalTraceRecorder implements IEventSink {
+
+	private final IEventSink next;
+	private final RandomAccessFile file;
+	private final FileChannel channel;
+	private final ByteBuffer buffer = ByteBuffer.allocateDirect(TraceArrivalSource.RECORD_SIZE * 4096);
+	private long count;
+
+	/**
+	 * @param next the sink every event is passed on to
+	 * @param fileName the file the trace is written to
+	 * @throws IOException if the file cannot be opened for writing
+	 */
+	public ArrivalTraceRecorder(IEventSink next, String fileName) throws IOException {
+		this.next = next;
+		this.file = new RandomAccessFile(fileName, "rw");
+		file.setLength(0);
+		this.channel = file.getChannel();
+		buffer.putInt(TraceArrivalSource.MAGIC).putInt(TraceArrivalSource.VERSION).putLong(0);
+	}
+
+	private void flush() throws IOException {
+		buffer.flip();
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+		buffer.clear();
+	}
+
+	public void mailArrived(int time, MailItem mailItem) {
+		try {
+			if (buffer.remaining() < TraceArrivalSource.RECORD_SIZE) flush();
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		buffer.putInt(mailItem.getId()).putInt(time).putInt(mailItem.getDestFloor())
+			.putInt(mailItem.getWeight() | (mailItem.getFragile() ? TraceArrivalSource.FRAGILE : 0));
+		count++;
+		next.mailArrived(time, mailItem);
+	}
+
+	public void mailReturned(int time, MailItem mailItem) {
+		next.mailReturned(time, mailItem);
+	}
+
+	public void robotStateChanged(int time, int robot, int tubeCount, RobotState from, RobotState to) {
+		next.robotStateChanged(time, robot, tubeCount, from, to);
+	}
+
+	public void robotDeparted(int time, int robot, int tubeCount, MailItem mailItem) {
+		next.robotDeparted(time, robot, tubeCount, mailItem);
+	}
+
+	public void robotDispatched(int time, int robot, boolean cautionEnabled) {
+		next.robotDispatched(time, robot, cautionEnabled);
+	}
+
+	public void robotWrapStage(int time, int robot, int stage) {
+		next.robotWrapStage(time, robot, stage);
+	}
+
+	public void mailWrapped(int time, MailItem mailItem) {
+		next.mailWrapped(time, mailItem);
+	}
+
+	public void mailUnwrapped(int time, MailItem mailItem) {
+		next.mailUnwrapped(time, mailItem);
+	}
+
+	public void mailDelivered(int time, int delivered, MailItem mailItem) {
+		next.mailDelivered(time, delivered, mailItem);
+	}
+
+	public void mailRejected(int time, int rejected, MailItem mailItem) {
+		next.mailRejected(time, rejected, mailItem);
+	}
+
+	public void message(String message) {
+		next.message(message);
+	}
+
+	public void close() {
+		try {
+			flush();
+			buffer.putLong(count).flip();
+			channel.write(buffer, 8);
+			buffer.clear();
+			file.close();
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		} finally {
+			next.close();
+		}
+	}
+}
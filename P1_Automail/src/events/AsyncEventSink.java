@@ -0,0 +1,239 @@
+package events;
+
+import java.io.BufferedOutputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import automail.MailItem;
+import automail.Robot.RobotState;
+
+/**
+ * Records events into fixed size batches and hands full batches to a background thread,
+ * which writes them out in the same text format as ConsoleEventSink. The simulation thread
+ * only copies the raw values into preallocated arrays; all formatting and I/O happens on
+ * the writer thread.
+ */
+public class AsyncEventSink implements IEventSink {
+
+	private static final int BATCH_SIZE = 4096;
+	private static final int BATCHES = 4;
+
+	private static final byte MAIL_ARRIVED = 0;
+	private static final byte MAIL_RETURNED = 1;
+	private static final byte ROBOT_STATE_CHANGED = 2;
+	private static final byte ROBOT_DEPARTED = 3;
+	private static final byte ROBOT_DISPATCHED = 4;
+	private static final byte ROBOT_WRAP_STAGE = 5;
+	private static final byte MAIL_WRAPPED = 6;
+	private static final byte MAIL_UNWRAPPED = 7;
+	private static final byte MAIL_DELIVERED = 8;
+	private static final byte MAIL_REJECTED = 9;
+	private static final byte MESSAGE = 10;
+
+	/** A reusable block of events, stored column by column */
+	private static class Batch {
+		final byte[] kind = new byte[BATCH_SIZE];
+		final int[] time = new int[BATCH_SIZE];
+		final int[] count = new int[BATCH_SIZE];
+		/** The robot's number, for robot events */
+		final int[] robot = new int[BATCH_SIZE];
+		final Object[] a = new Object[BATCH_SIZE];
+		final Object[] b = new Object[BATCH_SIZE];
+		final Object[] c = new Object[BATCH_SIZE];
+		int size = 0;
+	}
+
+	/** Tells the writer thread to stop */
+	private static final Batch END = new Batch();
+
+	private final BlockingQueue<Batch> full;
+	private final BlockingQueue<Batch> free;
+	private final PrintStream out;
+	private final boolean ownsStream;
+	private final Thread writer;
+	private Batch current;
+
+	/**
+	 * Writes the trace to standard output
+	 */
+	public AsyncEventSink() {
+		this(System.out, false);
+	}
+
+	/**
+	 * @param fileName the file the trace is written to
+	 * @throws FileNotFoundException if the file cannot be opened for writing
+	 */
+	public AsyncEventSink(String fileName) throws FileNotFoundException {
+		this(new FileOutputStream(fileName), true);
+	}
+
+	private AsyncEventSink(OutputStream stream, boolean ownsStream) {
+		this.out = new PrintStream(new BufferedOutputStream(stream, 1 << 16), false);
+		this.ownsStream = ownsStream;
+		full = new ArrayBlockingQueue<Batch>(BATCHES + 1);
+		free = new ArrayBlockingQueue<Batch>(BATCHES);
+		for (int i = 1; i < BATCHES; i++) free.add(new Batch());
+		current = new Batch();
+		writer = new Thread(new Runnable() {
+			public void run() {
+				write();
+			}
+		}, "event-writer");
+		writer.setDaemon(true);
+		writer.start();
+	}
+
+	/**
+	 * Body of the writer thread: formats each batch in turn and returns it to the free list
+	 */
+	private void write() {
+		ConsoleEventSink formatter = new ConsoleEventSink(out);
+		try {
+			Batch batch;
+			while ((batch = full.take()) != END) {
+				for (int i = 0; i < batch.size; i++) {
+					replay(formatter, batch, i);
+				}
+				Arrays.fill(batch.a, 0, batch.size, null);
+				Arrays.fill(batch.b, 0, batch.size, null);
+				Arrays.fill(batch.c, 0, batch.size, null);
+				batch.size = 0;
+				if (full.isEmpty()) out.flush();
+				free.put(batch);
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		out.flush();
+	}
+
+	private static void replay(ConsoleEventSink formatter, Batch batch, int i) {
+		int time = batch.time[i];
+		switch (batch.kind[i]) {
+			case MAIL_ARRIVED:
+				formatter.mailArrived(time, (MailItem) batch.b[i]);
+				break;
+			case MAIL_RETURNED:
+				formatter.mailReturned(time, (MailItem) batch.b[i]);
+				break;
+			case ROBOT_STATE_CHANGED:
+				formatter.robotStateChanged(time, batch.robot[i], batch.count[i], (RobotState) batch.b[i], (RobotState) batch.c[i]);
+				break;
+			case ROBOT_DEPARTED:
+				formatter.robotDeparted(time, batch.robot[i], batch.count[i], (MailItem) batch.b[i]);
+				break;
+			case ROBOT_DISPATCHED:
+				formatter.robotDispatched(time, batch.robot[i], batch.count[i] != 0);
+				break;
+			case ROBOT_WRAP_STAGE:
+				formatter.robotWrapStage(time, batch.robot[i], batch.count[i]);
+				break;
+			case MAIL_WRAPPED:
+				formatter.mailWrapped(time, (MailItem) batch.b[i]);
+				break;
+			case MAIL_UNWRAPPED:
+				formatter.mailUnwrapped(time, (MailItem) batch.b[i]);
+				break;
+			case MAIL_DELIVERED:
+				formatter.mailDelivered(time, batch.count[i], (MailItem) batch.b[i]);
+				break;
+			case MAIL_REJECTED:
+				formatter.mailRejected(time, batch.count[i], (MailItem) batch.b[i]);
+				break;
+			case MESSAGE:
+				formatter.message((String) batch.a[i]);
+				break;
+		}
+	}
+
+	/**
+	 * Appends an event to the current batch, handing it to the writer once it is full
+	 */
+	private void record(byte kind, int time, int count, int robot, Object a, Object b, Object c) {
+		Batch batch = current;
+		int i = batch.size++;
+		batch.kind[i] = kind;
+		batch.time[i] = time;
+		batch.count[i] = count;
+		batch.robot[i] = robot;
+		batch.a[i] = a;
+		batch.b[i] = b;
+		batch.c[i] = c;
+		if (batch.size == BATCH_SIZE) {
+			try {
+				full.put(batch);
+				current = free.take();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IllegalStateException("Interrupted while writing events", e);
+			}
+		}
+	}
+
+	public void mailArrived(int time, MailItem mailItem) {
+		record(MAIL_ARRIVED, time, 0, 0, null, mailItem, null);
+	}
+
+	public void mailReturned(int time, MailItem mailItem) {
+		record(MAIL_RETURNED, time, 0, 0, null, mailItem, null);
+	}
+
+	public void robotStateChanged(int time, int robot, int tubeCount, RobotState from, RobotState to) {
+		record(ROBOT_STATE_CHANGED, time, tubeCount, robot, null, from, to);
+	}
+
+	public void robotDeparted(int time, int robot, int tubeCount, MailItem mailItem) {
+		record(ROBOT_DEPARTED, time, tubeCount, robot, null, mailItem, null);
+	}
+
+	public void robotDispatched(int time, int robot, boolean cautionEnabled) {
+		record(ROBOT_DISPATCHED, time, cautionEnabled ? 1 : 0, robot, null, null, null);
+	}
+
+	public void robotWrapStage(int time, int robot, int stage) {
+		record(ROBOT_WRAP_STAGE, time, stage, robot, null, null, null);
+	}
+
+	public void mailWrapped(int time, MailItem mailItem) {
+		record(MAIL_WRAPPED, time, 0, 0, null, mailItem, null);
+	}
+
+	public void mailUnwrapped(int time, MailItem mailItem) {
+		record(MAIL_UNWRAPPED, time, 0, 0, null, mailItem, null);
+	}
+
+	public void mailDelivered(int time, int delivered, MailItem mailItem) {
+		record(MAIL_DELIVERED, time, delivered, 0, null, mailItem, null);
+	}
+
+	public void mailRejected(int time, int rejected, MailItem mailItem) {
+		record(MAIL_REJECTED, time, rejected, 0, null, mailItem, null);
+	}
+
+	public void message(String message) {
+		record(MESSAGE, 0, 0, 0, message, null, null);
+	}
+
+	/**
+	 * Hands over the last partial batch and waits for the writer thread to finish
+	 */
+	public void close() {
+		try {
+			full.put(current);
+			full.put(END);
+			writer.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		if (ownsStream) {
+			out.close();
+		}
+	}
+
+}
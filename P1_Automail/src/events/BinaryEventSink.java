@@ -0,0 +1,184 @@
+package events;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+
+import automail.MailItem;
+import automail.Robot.RobotState;
+
+/**
+ * Writes every event to an append-only binary log instead of formatting it as text, so that a
+ * full trace of a large run costs a few bytes per event and no string formatting.
+ * EventLogDecoder renders a log back to the text ConsoleEventSink writes.
+ *
+ * The log starts with a header of MAGIC, VERSION and RECORD_SIZE, as ints. Then every event
+ * is one fixed-width record of RECORD_SIZE bytes:
+ *
+ *   0  byte  kind
+ *   1  byte  from state ordinal (state changes)
+ *   2  byte  to state ordinal (state changes)
+ *   3  byte  flags: FRAGILE, WRAPPED, CAUTION
+ *   4  int   time
+ *   8  int   robot number, or message as an index into the log's string table
+ *  12  int   count: tube count, wrapping stage, or items delivered or rejected so far
+ *  16  int   mail id
+ *  20  int   mail arrival time
+ *  24  int   mail destination floor
+ *  28  int   mail weight
+ *
+ * Messages are written once, by a DEFINE record (the string's index at 8 and its length at
+ * 12) followed by that many bytes of UTF-8, before the first record using them.
+ */
+public class BinaryEventSink implements IEventSink {
+
+	public static final int MAGIC = 0x414D4556;
+	public static final int VERSION = 2;
+	public static final int RECORD_SIZE = 32;
+
+	public static final byte DEFINE = 0;
+	public static final byte MAIL_ARRIVED = 1;
+	public static final byte MAIL_RETURNED = 2;
+	public static final byte ROBOT_STATE_CHANGED = 3;
+	public static final byte ROBOT_DEPARTED = 4;
+	public static final byte ROBOT_DISPATCHED = 5;
+	public static final byte ROBOT_WRAP_STAGE = 6;
+	public static final byte MAIL_WRAPPED = 7;
+	public static final byte MAIL_UNWRAPPED = 8;
+	public static final byte MAIL_DELIVERED = 9;
+	public static final byte MAIL_REJECTED = 10;
+	public static final byte MESSAGE = 11;
+
+	public static final int FRAGILE = 1;
+	public static final int WRAPPED = 1 << 1;
+	public static final int CAUTION = 1 << 2;
+
+	private final FileOutputStream file;
+	private final FileChannel channel;
+	private final ByteBuffer buffer = ByteBuffer.allocateDirect(RECORD_SIZE * 4096);
+	/** The string table: the index each message was defined with */
+	private final HashMap<String, Integer> strings = new HashMap<String, Integer>();
+
+	/**
+	 * @param fileName the file the log is written to, replacing anything already there
+	 * @throws IOException if the file cannot be opened for writing
+	 */
+	public BinaryEventSink(String fileName) throws IOException {
+		this.file = new FileOutputStream(fileName);
+		this.channel = file.getChannel();
+		buffer.putInt(MAGIC).putInt(VERSION).putInt(RECORD_SIZE);
+	}
+
+	private void flush() throws IOException {
+		buffer.flip();
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+		buffer.clear();
+	}
+
+	/**
+	 * Makes room for a record and writes its first 16 bytes
+	 */
+	private void header(byte kind, int from, int to, int flags, int time, int string, int count) {
+		try {
+			if (buffer.remaining() < RECORD_SIZE) flush();
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		buffer.put(kind).put((byte) from).put((byte) to).put((byte) flags)
+			.putInt(time).putInt(string).putInt(count);
+	}
+
+	private void record(byte kind, int from, int to, int flags, int time, int string, int count) {
+		header(kind, from, to, flags, time, string, count);
+		buffer.putLong(0).putLong(0);
+	}
+
+	private void record(byte kind, int flags, int time, int string, int count, MailItem mailItem) {
+		header(kind, 0, 0, flags | (mailItem.getFragile() ? FRAGILE : 0) | (mailItem.getWrapped() ? WRAPPED : 0),
+				time, string, count);
+		buffer.putInt(mailItem.getId()).putInt(mailItem.getArrivalTime())
+			.putInt(mailItem.getDestFloor()).putInt(mailItem.getWeight());
+	}
+
+	/**
+	 * @return the string's index in the table, defining it first if it is new
+	 */
+	private int string(String value) {
+		Integer index = strings.get(value);
+		if (index != null) return index;
+		index = strings.size();
+		strings.put(value, index);
+		byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+		record(DEFINE, 0, 0, 0, 0, index, bytes.length);
+		try {
+			for (int written = 0; written < bytes.length; ) {
+				if (!buffer.hasRemaining()) flush();
+				int length = Math.min(buffer.remaining(), bytes.length - written);
+				buffer.put(bytes, written, length);
+				written += length;
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		return index;
+	}
+
+	public void mailArrived(int time, MailItem mailItem) {
+		record(MAIL_ARRIVED, 0, time, 0, 0, mailItem);
+	}
+
+	public void mailReturned(int time, MailItem mailItem) {
+		record(MAIL_RETURNED, 0, time, 0, 0, mailItem);
+	}
+
+	public void robotStateChanged(int time, int robot, int tubeCount, RobotState from, RobotState to) {
+		record(ROBOT_STATE_CHANGED, from.ordinal(), to.ordinal(), 0, time, robot, tubeCount);
+	}
+
+	public void robotDeparted(int time, int robot, int tubeCount, MailItem mailItem) {
+		record(ROBOT_DEPARTED, 0, time, robot, tubeCount, mailItem);
+	}
+
+	public void robotDispatched(int time, int robot, boolean cautionEnabled) {
+		record(ROBOT_DISPATCHED, 0, 0, cautionEnabled ? CAUTION : 0, time, robot, 0);
+	}
+
+	public void robotWrapStage(int time, int robot, int stage) {
+		record(ROBOT_WRAP_STAGE, 0, 0, 0, time, robot, stage);
+	}
+
+	public void mailWrapped(int time, MailItem mailItem) {
+		record(MAIL_WRAPPED, 0, time, 0, 0, mailItem);
+	}
+
+	public void mailUnwrapped(int time, MailItem mailItem) {
+		record(MAIL_UNWRAPPED, 0, time, 0, 0, mailItem);
+	}
+
+	public void mailDelivered(int time, int delivered, MailItem mailItem) {
+		record(MAIL_DELIVERED, 0, time, 0, delivered, mailItem);
+	}
+
+	public void mailRejected(int time, int rejected, MailItem mailItem) {
+		record(MAIL_REJECTED, 0, time, 0, rejected, mailItem);
+	}
+
+	public void message(String message) {
+		record(MESSAGE, 0, 0, 0, 0, string(message), 0);
+	}
+
+	public void close() {
+		try {
+			flush();
+			file.close();
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+}
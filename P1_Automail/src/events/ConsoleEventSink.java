@@ -0,0 +1,81 @@
+package events;
+
+import java.io.PrintStream;
+
+import automail.MailItem;
+import automail.Robot.RobotState;
+
+/**
+ * Writes every event as a line of text, in the simulation's original trace format.
+ */
+public class ConsoleEventSink implements IEventSink {
+
+	private final PrintStream out;
+
+	/**
+	 * Writes the trace to standard output
+	 */
+	public ConsoleEventSink() {
+		this(System.out);
+	}
+
+	/**
+	 * @param out where the trace is written
+	 */
+	public ConsoleEventSink(PrintStream out) {
+		this.out = out;
+	}
+
+	public void mailArrived(int time, MailItem mailItem) {
+		out.printf("T: %3d > + addToPool [%s]%n", time, mailItem.toString());
+	}
+
+	public void mailReturned(int time, MailItem mailItem) {
+		out.printf("T: %3d >  +addToPool [%s]%n", time, mailItem.toString());
+	}
+
+	public void robotStateChanged(int time, int robot, int tubeCount, RobotState from, RobotState to) {
+		out.printf("T: %3d > %7s changed from %s to %s%n", time, idTube(robot, tubeCount), from, to);
+	}
+
+	public void robotDeparted(int time, int robot, int tubeCount, MailItem mailItem) {
+		out.printf("T: %3d > %9s-> [%s]%n", time, idTube(robot, tubeCount), mailItem.toString());
+	}
+
+	public void robotDispatched(int time, int robot, boolean cautionEnabled) {
+		out.println("Caution enabled in Robot: " + cautionEnabled);
+	}
+
+	public void robotWrapStage(int time, int robot, int stage) {
+		out.println("WRAPPING STAGE " + stage);
+	}
+
+	public void mailWrapped(int time, MailItem mailItem) {
+		out.println("WRAPPING ITEM");
+	}
+
+	public void mailUnwrapped(int time, MailItem mailItem) {
+		out.println("UNWRAPPING ITEM");
+	}
+
+	public void mailDelivered(int time, int delivered, MailItem mailItem) {
+		out.printf("T: %3d > Deliv(%4d) [%s]%n", time, delivered, mailItem.toString());
+	}
+
+	public void mailRejected(int time, int rejected, MailItem mailItem) {
+		out.printf("T: %3d > Rejected(%4d) [%s]%n", time, rejected, mailItem.toString());
+	}
+
+	public void message(String message) {
+		out.println(message);
+	}
+
+	public void close() {
+		out.flush();
+	}
+
+	private static String idTube(int robot, int tubeCount) {
+		return String.format("R%d(%1d)", robot, tubeCount);
+	}
+
+}
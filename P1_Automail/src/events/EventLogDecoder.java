@@ -0,0 +1,123 @@
+package events;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+
+import automail.MailItem;
+import automail.Robot.RobotState;
+
+/**
+ * Reads a log written by BinaryEventSink and replays its events, in order, into another sink.
+ * Run on its own, it renders the log as the text trace ConsoleEventSink would have written.
+ *
+ * Usage: EventLogDecoder log [output]  (standard output if no output file is given)
+ */
+public class EventLogDecoder {
+
+	private static final RobotState[] STATES = RobotState.values();
+
+	public static void main(String[] args) throws IOException {
+		if (args.length < 1) {
+			System.err.println("Usage: EventLogDecoder log [output]");
+			System.exit(1);
+		}
+		PrintStream out = args.length > 1
+				? new PrintStream(new BufferedOutputStream(new FileOutputStream(args[1]), 1 << 16))
+				: new PrintStream(new BufferedOutputStream(System.out, 1 << 16));
+		try (InputStream in = new FileInputStream(args[0])) {
+			decode(in, new ConsoleEventSink(out));
+		} finally {
+			out.flush();
+			if (args.length > 1) out.close();
+		}
+	}
+
+	/**
+	 * Replays every event in the log. The sink is not closed.
+	 * @param in the log, from its start
+	 * @param events where the events are replayed
+	 * @return the number of events replayed
+	 * @throws IOException if the log cannot be read, is not an event log, or ends part way through a record
+	 */
+	public static long decode(InputStream in, IEventSink events) throws IOException {
+		DataInputStream data = new DataInputStream(new BufferedInputStream(in, 1 << 16));
+		if (data.readInt() != BinaryEventSink.MAGIC) throw new IOException("Not an event log");
+		int version = data.readInt();
+		if (version != BinaryEventSink.VERSION) throw new IOException("Unsupported event log version " + version);
+		if (data.readInt() != BinaryEventSink.RECORD_SIZE) throw new IOException("Unexpected event log record size");
+		ArrayList<String> strings = new ArrayList<String>();
+		long decoded = 0;
+		while (true) {
+			int kind = data.read();
+			if (kind < 0) return decoded;
+			try {
+				int from = data.readUnsignedByte();
+				int to = data.readUnsignedByte();
+				int flags = data.readUnsignedByte();
+				int time = data.readInt();
+				int string = data.readInt();
+				int count = data.readInt();
+				int id = data.readInt();
+				int arrival = data.readInt();
+				int floor = data.readInt();
+				int weight = data.readInt();
+				boolean fragile = (flags & BinaryEventSink.FRAGILE) != 0;
+				String name = kind == BinaryEventSink.DEFINE || string >= strings.size() ? null : strings.get(string);
+				switch (kind) {
+					case BinaryEventSink.DEFINE:
+						byte[] bytes = new byte[count];
+						data.readFully(bytes);
+						strings.add(new String(bytes, StandardCharsets.UTF_8));
+						continue;
+					case BinaryEventSink.MAIL_ARRIVED:
+						events.mailArrived(time, new MailItem(id, floor, arrival, weight, fragile));
+						break;
+					case BinaryEventSink.MAIL_RETURNED:
+						events.mailReturned(time, new MailItem(id, floor, arrival, weight, fragile));
+						break;
+					case BinaryEventSink.ROBOT_STATE_CHANGED:
+						events.robotStateChanged(time, string, count, STATES[from], STATES[to]);
+						break;
+					case BinaryEventSink.ROBOT_DEPARTED:
+						events.robotDeparted(time, string, count, new MailItem(id, floor, arrival, weight, fragile));
+						break;
+					case BinaryEventSink.ROBOT_DISPATCHED:
+						events.robotDispatched(time, string, (flags & BinaryEventSink.CAUTION) != 0);
+						break;
+					case BinaryEventSink.ROBOT_WRAP_STAGE:
+						events.robotWrapStage(time, string, count);
+						break;
+					case BinaryEventSink.MAIL_WRAPPED:
+						events.mailWrapped(time, new MailItem(id, floor, arrival, weight, fragile));
+						break;
+					case BinaryEventSink.MAIL_UNWRAPPED:
+						events.mailUnwrapped(time, new MailItem(id, floor, arrival, weight, fragile));
+						break;
+					case BinaryEventSink.MAIL_DELIVERED:
+						events.mailDelivered(time, count, new MailItem(id, floor, arrival, weight, fragile));
+						break;
+					case BinaryEventSink.MAIL_REJECTED:
+						events.mailRejected(time, count, new MailItem(id, floor, arrival, weight, fragile));
+						break;
+					case BinaryEventSink.MESSAGE:
+						events.message(name);
+						break;
+					default:
+						throw new IOException("Unknown event kind " + kind + " after " + decoded + " events");
+				}
+			} catch (EOFException e) {
+				throw new IOException("Event log ends part way through a record, after " + decoded + " events", e);
+			}
+			decoded++;
+		}
+	}
+}
@@ -0,0 +1,103 @@
+package events;
+
+import automail.MailItem;
+import automail.Robot.RobotState;
+
+/**
+ * An IEventSink receives everything of interest that happens during a simulation.
+ * The simulation only reports the raw values; it is up to the sink whether (and when)
+ * they are turned into text.
+ */
+public interface IEventSink {
+
+	/**
+	 * A new mail item has arrived at the building and been added to the pool
+	 * @param time the current time
+	 * @param mailItem the item which arrived
+	 */
+	void mailArrived(int time, MailItem mailItem);
+
+	/**
+	 * A robot has brought an undelivered item back to the pool
+	 * @param time the current time
+	 * @param mailItem the item which was returned
+	 */
+	void mailReturned(int time, MailItem mailItem);
+
+	/**
+	 * A robot has moved from one state to another
+	 * @param time the current time
+	 * @param robot the robot's number, n in its id Rn
+	 * @param tubeCount the number of items in the robot's tube
+	 * @param from the previous state
+	 * @param to the new state
+	 */
+	void robotStateChanged(int time, int robot, int tubeCount, RobotState from, RobotState to);
+
+	/**
+	 * A robot has set off to deliver an item
+	 * @param time the current time
+	 * @param robot the robot's number, n in its id Rn
+	 * @param tubeCount the number of items in the robot's tube
+	 * @param mailItem the item being delivered
+	 */
+	void robotDeparted(int time, int robot, int tubeCount, MailItem mailItem);
+
+	/**
+	 * A waiting robot has received its dispatch
+	 * @param time the current time
+	 * @param robot the robot's number, n in its id Rn
+	 * @param cautionEnabled whether the robot is in caution mode
+	 */
+	void robotDispatched(int time, int robot, boolean cautionEnabled);
+
+	/**
+	 * A robot has completed a stage of wrapping a fragile item
+	 * @param time the current time
+	 * @param robot the robot's number, n in its id Rn
+	 * @param stage the wrapping stage, 1 or 2
+	 */
+	void robotWrapStage(int time, int robot, int stage);
+
+	/**
+	 * A fragile item has been wrapped
+	 * @param time the current time
+	 * @param mailItem the item which was wrapped
+	 */
+	void mailWrapped(int time, MailItem mailItem);
+
+	/**
+	 * A fragile item has been unwrapped
+	 * @param time the current time
+	 * @param mailItem the item which was unwrapped
+	 */
+	void mailUnwrapped(int time, MailItem mailItem);
+
+	/**
+	 * A mail item has been delivered
+	 * @param time the current time
+	 * @param delivered the number of items delivered so far, including this one
+	 * @param mailItem the item which was delivered
+	 */
+	void mailDelivered(int time, int delivered, MailItem mailItem);
+
+	/**
+	 * A mail item has been rejected
+	 * @param time the current time
+	 * @param rejected the number of items rejected so far, including this one
+	 * @param mailItem the item which was rejected
+	 */
+	void mailRejected(int time, int rejected, MailItem mailItem);
+
+	/**
+	 * A free-form diagnostic message
+	 * @param message the message, which should be a constant
+	 */
+	void message(String message);
+
+	/**
+	 * Flushes anything still buffered and releases the sink's resources
+	 */
+	void close();
+
+}
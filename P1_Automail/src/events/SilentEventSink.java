@@ -0,0 +1,35 @@
+package events;
+
+import automail.MailItem;
+import automail.Robot.RobotState;
+
+/**
+ * Discards every event, for benchmark runs where only the final results are of interest.
+ */
+public class SilentEventSink implements IEventSink {
+
+	public void mailArrived(int time, MailItem mailItem) {}
+
+	public void mailReturned(int time, MailItem mailItem) {}
+
+	public void robotStateChanged(int time, int robot, int tubeCount, RobotState from, RobotState to) {}
+
+	public void robotDeparted(int time, int robot, int tubeCount, MailItem mailItem) {}
+
+	public void robotDispatched(int time, int robot, boolean cautionEnabled) {}
+
+	public void robotWrapStage(int time, int robot, int stage) {}
+
+	public void mailWrapped(int time, MailItem mailItem) {}
+
+	public void mailUnwrapped(int time, MailItem mailItem) {}
+
+	public void mailDelivered(int time, int delivered, MailItem mailItem) {}
+
+	public void mailRejected(int time, int rejected, MailItem mailItem) {}
+
+	public void message(String message) {}
+
+	public void close() {}
+
+}
@@ -0,0 +1,435 @@
+package events;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.Locale;
+
+import automail.MailItem;
+import automail.Robot.RobotState;
+
+/**
+ * Collects statistics about a run from the events passing through it, then passes every
+ * event on to another sink. All counters are fixed size primitive arrays allocated up front,
+ * so recording an event never allocates. A run without statistics does not create one of
+ * these at all.
+ *
+ * Time spent in each robot state is accounted when the robot leaves the state, and the pool
+ * depth is accounted from one sample to the next, so both are the same whether the run steps
+ * every tick or skips idle ticks.
+ */
+public class StatisticsEventSink implements IEventSink {
+
+	/** Latencies below this are counted exactly, above it in SUB_BUCKETS per power of two */
+	private static final int EXACT = 16;
+	private static final int SUB_BITS = 3;
+	private static final int SUB_BUCKETS = 1 << SUB_BITS;
+	private static final int LATENCY_BUCKETS = EXACT + (31 - 4) * SUB_BUCKETS;
+	/** The number of periods the run is divided into for the pool depth */
+	private static final int DEPTH_BUCKETS = 64;
+	private static final RobotState[] STATES = RobotState.values();
+
+	private final IEventSink next;
+	private final int robots;
+
+	private int delivered;
+	private int rejected;
+	private int rejectedFragile;
+
+	private final long[] latencyCounts = new long[LATENCY_BUCKETS];
+	private long latencySum;
+	private int latencyMax;
+
+	/** Ticks each robot has spent in each state, indexed by robot * STATES.length + state */
+	private final long[] stateTicks;
+	private final byte[] state;
+	private final int[] since;
+	private final int[] trips;
+
+	/** Pool depth summed over the ticks of each period, and the largest depth in it */
+	private final long[] depthTicks = new long[DEPTH_BUCKETS];
+	private final int[] depthMax = new int[DEPTH_BUCKETS];
+	private int depthWidth = 1;
+	private int lastSample;
+	private int lastDepth;
+	private int start;
+	private int end;
+
+	/**
+	 * @param next the sink every event is passed on to
+	 * @param robots the number of robots in the run
+	 */
+	public StatisticsEventSink(IEventSink next, int robots) {
+		this.next = next;
+		this.robots = robots;
+		stateTicks = new long[robots * STATES.length];
+		state = new byte[robots];
+		since = new int[robots];
+		trips = new int[robots];
+	}
+
+	/**
+	 * Starts the clock for every robot, which begins by returning to the mailroom
+	 * @param time the time the run starts
+	 */
+	public void start(int time) {
+		for (int i = 0; i < robots; i++) {
+			state[i] = (byte) RobotState.RETURNING.ordinal();
+			since[i] = time;
+		}
+		start = lastSample = end = time;
+		lastDepth = 0;
+	}
+
+	/**
+	 * Records the depth of the mail pool at the end of a tick. The depth is taken to be
+	 * unchanged until the next sample.
+	 * @param time the current time
+	 * @param depth the number of items waiting in the pool
+	 */
+	public void poolDepth(int time, int depth) {
+		addDepth(lastSample, time, lastDepth);
+		lastSample = time;
+		lastDepth = depth;
+	}
+
+	/**
+	 * Accounts for the time every robot has spent in its current state and the pool depth
+	 * since the last sample
+	 * @param time the time the run finished
+	 */
+	public void finish(int time) {
+		for (int i = 0; i < robots; i++) {
+			stateTicks[i * STATES.length + state[i]] += time - since[i];
+			since[i] = time;
+		}
+		poolDepth(time, lastDepth);
+		end = time;
+	}
+
+	/**
+	 * Writes everything collected so far, so that a run resumed from a checkpoint reports
+	 * statistics for the whole run
+	 */
+	public void writeCheckpoint(DataOutput out) throws IOException {
+		out.writeInt(delivered);
+		out.writeInt(rejected);
+		out.writeInt(rejectedFragile);
+		writeLongs(out, latencyCounts);
+		out.writeLong(latencySum);
+		out.writeInt(latencyMax);
+		writeLongs(out, stateTicks);
+		for (int i = 0; i < robots; i++) {
+			out.writeByte(state[i]);
+			out.writeInt(since[i]);
+			out.writeInt(trips[i]);
+		}
+		writeLongs(out, depthTicks);
+		for (int i = 0; i < DEPTH_BUCKETS; i++) {
+			out.writeInt(depthMax[i]);
+		}
+		out.writeInt(depthWidth);
+		out.writeInt(lastSample);
+		out.writeInt(lastDepth);
+		out.writeInt(start);
+		out.writeInt(end);
+	}
+
+	/**
+	 * Replaces everything collected so far with what writeCheckpoint wrote
+	 * @throws IOException if it was written for a different number of robots
+	 */
+	public void readCheckpoint(DataInput in) throws IOException {
+		delivered = in.readInt();
+		rejected = in.readInt();
+		rejectedFragile = in.readInt();
+		readLongs(in, latencyCounts);
+		latencySum = in.readLong();
+		latencyMax = in.readInt();
+		readLongs(in, stateTicks);
+		for (int i = 0; i < robots; i++) {
+			state[i] = in.readByte();
+			since[i] = in.readInt();
+			trips[i] = in.readInt();
+		}
+		readLongs(in, depthTicks);
+		for (int i = 0; i < DEPTH_BUCKETS; i++) {
+			depthMax[i] = in.readInt();
+		}
+		depthWidth = in.readInt();
+		lastSample = in.readInt();
+		lastDepth = in.readInt();
+		start = in.readInt();
+		end = in.readInt();
+	}
+
+	private static void writeLongs(DataOutput out, long[] values) throws IOException {
+		out.writeInt(values.length);
+		for (long value : values) {
+			out.writeLong(value);
+		}
+	}
+
+	private static void readLongs(DataInput in, long[] values) throws IOException {
+		int length = in.readInt();
+		if (length != values.length) throw new IOException("Statistics were written for a different run: " + length + " values, not " + values.length);
+		for (int i = 0; i < length; i++) {
+			values[i] = in.readLong();
+		}
+	}
+
+	private void addDepth(int from, int to, int depth) {
+		while (to - start > (long) depthWidth * DEPTH_BUCKETS) {
+			// Halve the resolution to make room
+			for (int i = 0; i < DEPTH_BUCKETS / 2; i++) {
+				depthTicks[i] = depthTicks[2 * i] + depthTicks[2 * i + 1];
+				depthMax[i] = Math.max(depthMax[2 * i], depthMax[2 * i + 1]);
+			}
+			for (int i = DEPTH_BUCKETS / 2; i < DEPTH_BUCKETS; i++) {
+				depthTicks[i] = 0;
+				depthMax[i] = 0;
+			}
+			depthWidth *= 2;
+		}
+		while (from < to) {
+			int bucket = (from - start) / depthWidth;
+			int bucketEnd = Math.min(to, start + (bucket + 1) * depthWidth);
+			depthTicks[bucket] += (long) depth * (bucketEnd - from);
+			if (depth > depthMax[bucket]) depthMax[bucket] = depth;
+			from = bucketEnd;
+		}
+	}
+
+	private static int latencyBucket(int latency) {
+		if (latency < EXACT) return latency;
+		int power = 31 - Integer.numberOfLeadingZeros(latency);
+		return EXACT + (power - 4) * SUB_BUCKETS + ((latency >>> (power - SUB_BITS)) & (SUB_BUCKETS - 1));
+	}
+
+	/**
+	 * @return the smallest latency counted in the given bucket
+	 */
+	private static int latencyLow(int bucket) {
+		if (bucket < EXACT) return bucket;
+		int power = 4 + (bucket - EXACT) / SUB_BUCKETS;
+		return (SUB_BUCKETS + (bucket - EXACT) % SUB_BUCKETS) << (power - SUB_BITS);
+	}
+
+	/**
+	 * @return the largest latency counted in the given bucket
+	 */
+	private static int latencyHigh(int bucket) {
+		if (bucket < EXACT) return bucket;
+		int power = 4 + (bucket - EXACT) / SUB_BUCKETS;
+		return latencyLow(bucket) + (1 << (power - SUB_BITS)) - 1;
+	}
+
+	/**
+	 * @param fraction between 0 and 1
+	 * @return an upper bound on the given quantile of the delivery latency
+	 */
+	public int latencyPercentile(double fraction) {
+		long rank = (long) Math.ceil(fraction * delivered);
+		long seen = 0;
+		for (int i = 0; i < LATENCY_BUCKETS; i++) {
+			seen += latencyCounts[i];
+			if (seen >= rank && seen > 0) return Math.min(latencyHigh(i), latencyMax);
+		}
+		return latencyMax;
+	}
+
+	public void mailArrived(int time, MailItem mailItem) {
+		next.mailArrived(time, mailItem);
+	}
+
+	public void mailReturned(int time, MailItem mailItem) {
+		next.mailReturned(time, mailItem);
+	}
+
+	public void robotStateChanged(int time, int robot, int tubeCount, RobotState from, RobotState to) {
+		stateTicks[robot * STATES.length + from.ordinal()] += time - since[robot];
+		since[robot] = time;
+		state[robot] = (byte) to.ordinal();
+		next.robotStateChanged(time, robot, tubeCount, from, to);
+	}
+
+	public void robotDeparted(int time, int robot, int tubeCount, MailItem mailItem) {
+		next.robotDeparted(time, robot, tubeCount, mailItem);
+	}
+
+	public void robotDispatched(int time, int robot, boolean cautionEnabled) {
+		trips[robot]++;
+		next.robotDispatched(time, robot, cautionEnabled);
+	}
+
+	public void robotWrapStage(int time, int robot, int stage) {
+		next.robotWrapStage(time, robot, stage);
+	}
+
+	public void mailWrapped(int time, MailItem mailItem) {
+		next.mailWrapped(time, mailItem);
+	}
+
+	public void mailUnwrapped(int time, MailItem mailItem) {
+		next.mailUnwrapped(time, mailItem);
+	}
+
+	public void mailDelivered(int time, int delivered, MailItem mailItem) {
+		int latency = time - mailItem.getArrivalTime();
+		this.delivered++;
+		latencyCounts[latencyBucket(latency)]++;
+		latencySum += latency;
+		if (latency > latencyMax) latencyMax = latency;
+		next.mailDelivered(time, delivered, mailItem);
+	}
+
+	public void mailRejected(int time, int rejected, MailItem mailItem) {
+		this.rejected++;
+		if (mailItem.getFragile()) rejectedFragile++;
+		next.mailRejected(time, rejected, mailItem);
+	}
+
+	public void message(String message) {
+		next.message(message);
+	}
+
+	public void close() {
+		next.close();
+	}
+
+	/**
+	 * @return the number of periods of the run with a pool depth recorded
+	 */
+	private int depthBuckets() {
+		return Math.min(DEPTH_BUCKETS, (end - start + depthWidth - 1) / depthWidth);
+	}
+
+	private long poolDepthTicks() {
+		long sum = 0;
+		for (int i = 0; i < DEPTH_BUCKETS; i++) sum += depthTicks[i];
+		return sum;
+	}
+
+	private int poolDepthMax() {
+		int max = 0;
+		for (int i = 0; i < DEPTH_BUCKETS; i++) max = Math.max(max, depthMax[i]);
+		return max;
+	}
+
+	/**
+	 * Prints a summary of the statistics
+	 * @param out where the summary is printed
+	 */
+	public void printSummary(PrintStream out) {
+		int ticks = end - start;
+		out.println("Statistics:");
+		out.printf("  Delivered: %d | Rejected: %d (fragile: %d)%n", delivered, rejected, rejectedFragile);
+		out.printf("  Delivery latency: mean %.2f | p50 %d | p90 %d | p99 %d | max %d%n",
+				delivered == 0 ? 0.0 : (double) latencySum / delivered,
+				latencyPercentile(0.5), latencyPercentile(0.9), latencyPercentile(0.99), latencyMax);
+		out.printf("  Pool depth: mean %.2f | max %d%n",
+				ticks == 0 ? 0.0 : (double) poolDepthTicks() / ticks, poolDepthMax());
+		long totalTrips = 0;
+		int minTrips = Integer.MAX_VALUE, maxTrips = 0;
+		for (int i = 0; i < robots; i++) {
+			totalTrips += trips[i];
+			minTrips = Math.min(minTrips, trips[i]);
+			maxTrips = Math.max(maxTrips, trips[i]);
+		}
+		out.printf("  Trips per robot: mean %.2f | min %d | max %d | items per trip %.2f%n",
+				robots == 0 ? 0.0 : (double) totalTrips / robots, robots == 0 ? 0 : minTrips, maxTrips,
+				totalTrips == 0 ? 0.0 : (double) delivered / totalTrips);
+		out.print("  Robot time by state:");
+		for (int s = 0; s < STATES.length; s++) {
+			long sum = 0;
+			for (int i = 0; i < robots; i++) sum += stateTicks[i * STATES.length + s];
+			if (sum > 0) {
+				out.printf(" %s %.1f%%", STATES[s], 100.0 * sum / ((long) ticks * robots));
+			}
+		}
+		out.println();
+	}
+
+	/**
+	 * Writes the statistics as CSV, one value per row
+	 * @param out where the statistics are written
+	 */
+	public void writeCsv(PrintStream out) {
+		out.println("metric,key,value");
+		out.println("delivered,," + delivered);
+		out.println("rejected,," + rejected);
+		out.println("rejected_fragile,," + rejectedFragile);
+		out.println("latency_sum,," + latencySum);
+		out.println("latency_max,," + latencyMax);
+		for (int i = 0; i < LATENCY_BUCKETS; i++) {
+			if (latencyCounts[i] > 0) {
+				out.println("latency_count," + latencyLow(i) + "-" + latencyHigh(i) + "," + latencyCounts[i]);
+			}
+		}
+		for (int i = 0; i < depthBuckets(); i++) {
+			int from = start + i * depthWidth;
+			int width = Math.min(depthWidth, end - from);
+			out.printf(Locale.ROOT, "pool_depth_mean,%d,%.4f%n", from, (double) depthTicks[i] / width);
+			out.println("pool_depth_max," + from + "," + depthMax[i]);
+		}
+		for (int i = 0; i < robots; i++) {
+			out.println("robot_trips,R" + i + "," + trips[i]);
+			for (int s = 0; s < STATES.length; s++) {
+				out.println("robot_ticks_" + STATES[s] + ",R" + i + "," + stateTicks[i * STATES.length + s]);
+			}
+		}
+	}
+
+	/**
+	 * Writes the statistics as a JSON object
+	 * @param out where the statistics are written
+	 */
+	public void writeJson(PrintStream out) {
+		out.println("{");
+		out.println("  \"delivered\": " + delivered + ",");
+		out.println("  \"rejected\": " + rejected + ",");
+		out.println("  \"rejectedFragile\": " + rejectedFragile + ",");
+		out.println("  \"latency\": {");
+		out.println("    \"sum\": " + latencySum + ",");
+		out.println("    \"max\": " + latencyMax + ",");
+		out.println("    \"p50\": " + latencyPercentile(0.5) + ",");
+		out.println("    \"p90\": " + latencyPercentile(0.9) + ",");
+		out.println("    \"p99\": " + latencyPercentile(0.99) + ",");
+		out.print("    \"histogram\": [");
+		String separator = "";
+		for (int i = 0; i < LATENCY_BUCKETS; i++) {
+			if (latencyCounts[i] > 0) {
+				out.print(separator + "{\"low\": " + latencyLow(i) + ", \"high\": " + latencyHigh(i) + ", \"count\": " + latencyCounts[i] + "}");
+				separator = ", ";
+			}
+		}
+		out.println("]");
+		out.println("  },");
+		out.println("  \"poolDepth\": {");
+		out.println("    \"start\": " + start + ",");
+		out.println("    \"period\": " + depthWidth + ",");
+		out.print("    \"mean\": [");
+		for (int i = 0; i < depthBuckets(); i++) {
+			int width = Math.min(depthWidth, end - start - i * depthWidth);
+			out.print((i == 0 ? "" : ", ") + String.format(Locale.ROOT, "%.4f", (double) depthTicks[i] / width));
+		}
+		out.println("],");
+		out.print("    \"max\": [");
+		for (int i = 0; i < depthBuckets(); i++) {
+			out.print((i == 0 ? "" : ", ") + depthMax[i]);
+		}
+		out.println("]");
+		out.println("  },");
+		out.println("  \"robots\": [");
+		for (int i = 0; i < robots; i++) {
+			out.print("    {\"id\": \"R" + i + "\", \"trips\": " + trips[i] + ", \"ticks\": {");
+			for (int s = 0; s < STATES.length; s++) {
+				out.print((s == 0 ? "" : ", ") + "\"" + STATES[s] + "\": " + stateTicks[i * STATES.length + s]);
+			}
+			out.println("}}" + (i + 1 < robots ? "," : ""));
+		}
+		out.println("  ]");
+		out.println("}");
+	}
+}
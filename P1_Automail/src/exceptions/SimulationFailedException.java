@@ -0,0 +1,12 @@
+package exceptions;
+
+/**
+ * An exception thrown when a simulation run cannot complete.
+ */
+public class SimulationFailedException extends Exception {
+	private static final long serialVersionUID = 1L;
+
+	public SimulationFailedException(Integer seed, Throwable cause) {
+		super("Simulation unable to complete (seed " + seed + ")", cause);
+	}
+}
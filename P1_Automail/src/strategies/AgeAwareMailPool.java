@@ -0,0 +1,234 @@
+package strategies;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.ListIterator;
+
+import automail.Building;
+import automail.MailItem;
+import automail.Robot;
+import events.IEventSink;
+import exceptions.BreakingFragileItemException;
+import exceptions.ItemTooHeavyException;
+
+/**
+ * A MailPool which loads next the item whose (age)^1.2 score penalty grows fastest for the
+ * robot time its delivery adds to the trip, so that mail for high floors is not held back
+ * indefinitely by a stream of newer mail for low floors. Mail is kept in one FIFO bucket per
+ * floor, as in IndexedMailPool, and only the floors' oldest items are ranked, at each load.
+ */
+public class AgeAwareMailPool implements IMailPool {
+
+	/** The exponent of an item's age in its delivery score */
+	private static final double PENALTY = 1.2;
+
+	/** Waiting mail, indexed by destination floor */
+	private ArrayList<ArrayDeque<MailItem>> buckets;
+	/** Floors which currently have at least one waiting item */
+	private BitSet occupied;
+	private int size;
+	private LinkedList<Robot> robots;
+	/** The latest time the pool has seen, from a load or an arrival */
+	private int now;
+
+	public AgeAwareMailPool(int nrobots){
+		// Start empty
+		buckets = new ArrayList<ArrayDeque<MailItem>>();
+		occupied = new BitSet();
+		size = 0;
+		robots = new LinkedList<Robot>();
+	}
+
+	public void addToPool(MailItem mailItem) {
+		int floor = mailItem.getDestFloor();
+		while (buckets.size() <= floor) {
+			buckets.add(null);
+		}
+		ArrayDeque<MailItem> bucket = buckets.get(floor);
+		if (bucket == null) {
+			bucket = new ArrayDeque<MailItem>();
+			buckets.set(floor, bucket);
+		}
+		bucket.addLast(mailItem);
+		occupied.set(floor);
+		size++;
+		now = Math.max(now, mailItem.getArrivalTime());
+	}
+
+	/**
+	 * Smith's rule for a score which grows as (age)^1.2: the rate at which an item's penalty
+	 * grows if it waits, when delivered a round trip from now, over the robot time it adds to
+	 * a trip which already reaches reach floors up, none if it is on the way
+	 */
+	private static double rank(MailItem mailItem, int time, int reach) {
+		int floors = Math.abs(mailItem.getDestFloor() - Building.MAILROOM_LOCATION);
+		double age = Math.max(1, time - mailItem.getArrivalTime() + floors);
+		return Math.pow(age, PENALTY - 1) / Math.max(1, 2 * (floors - reach));
+	}
+
+	/**
+	 * @return whether a should be loaded before b at time on a trip reaching reach floors up:
+	 * higher rank, then older, then lower floor
+	 */
+	private static boolean before(MailItem a, MailItem b, int time, int reach) {
+		int order = Double.compare(rank(b, time, reach), rank(a, time, reach));
+		if (order == 0) order = Integer.compare(a.getArrivalTime(), b.getArrivalTime());
+		if (order == 0) order = Integer.compare(a.getDestFloor(), b.getDestFloor());
+		return order < 0;
+	}
+
+	/**
+	 * @return the floor whose oldest item should be loaded next onto a trip reaching reach
+	 * floors up, or -1 if the pool is empty
+	 */
+	private int next(int reach) {
+		int best = -1;
+		for (int floor = occupied.nextSetBit(0); floor >= 0; floor = occupied.nextSetBit(floor + 1)) {
+			if (best < 0 || before(buckets.get(floor).peekFirst(), buckets.get(best).peekFirst(), now, reach)) {
+				best = floor;
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * @return the highest priority item for a trip reaching reach floors up, without removing
+	 * it, or null if the pool is empty
+	 */
+	private MailItem peek(int reach) {
+		int floor = next(reach);
+		return floor < 0 ? null : buckets.get(floor).peekFirst();
+	}
+
+	/**
+	 * Removes the highest priority item for a trip reaching reach floors up from the pool
+	 * @return the removed item
+	 */
+	private MailItem poll(int reach) {
+		int floor = next(reach);
+		ArrayDeque<MailItem> bucket = buckets.get(floor);
+		MailItem mailItem = bucket.pollFirst();
+		if (bucket.isEmpty()) {
+			occupied.clear(floor);
+		}
+		size--;
+		return mailItem;
+	}
+
+	@Override
+	public void step() throws ItemTooHeavyException, BreakingFragileItemException {
+		ListIterator<Robot> i = robots.listIterator();
+		while (i.hasNext()) {
+			loadRobot(i);
+		}
+	}
+
+	private void loadRobot(ListIterator<Robot> i) throws ItemTooHeavyException, BreakingFragileItemException {
+		Robot robot = i.next();
+		IEventSink events = robot.getEvents();
+		events.message("NEXT EXISTS");
+		assert(robot.isEmpty());
+		boolean caution_mode = robot.isCautionMode();
+		boolean fragile_mode = robot.isFragileMode();
+		now = Math.max(now, robot.getClock().Time());
+
+		if( fragile_mode == false ) {
+			if (size > 0) {
+				MailItem hand = poll(0);
+				robot.addToHand(hand); // hand first as we want higher priority delivered first
+				int reach = Math.abs(hand.getDestFloor() - Building.MAILROOM_LOCATION);
+				while (size > 0 && robot.tubeFull() == false && robot.canCarry(peek(reach))) {
+					MailItem mailItem = poll(reach);
+					robot.addToTube(mailItem);
+					reach = Math.max(reach, Math.abs(mailItem.getDestFloor() - Building.MAILROOM_LOCATION));
+				}
+				robot.dispatch(); // send the robot off if it has any items to deliver
+				i.remove();       // remove from mailPool queue
+			}
+		}
+		else {
+			while ( size > 0 ) {
+				MailItem current = peek(0);
+
+				if(current.getFragile() == true) {
+					events.message("SPECIAL ITEM CAME IN HOT");
+					if(caution_mode == false) {
+						events.message(" -But rejected cause caution mode off");
+						robot.getDelivery().reject(poll(0));
+						continue;
+					}
+					else {
+						if(robot.specialEmpty() == true && robot.canCarry(current)) {
+							robot.addToSpecialHand(poll(0));
+							events.message("ADDED TO SPECIAL HAND");
+							continue;
+						}
+					}
+				}
+
+				else {
+					if(robot.handEmpty() == true && robot.canCarry(current)) {
+						robot.addToHand(poll(0));
+						events.message("ADDED TO HAAAAAND");
+						continue;
+					}
+					if( robot.tubeFull() == false && robot.canCarry(current) ) {
+						robot.addToTube(poll(0));
+						events.message("ADDED TO TUUUUUUBE");
+						continue;
+					}
+				}
+
+				events.message("UNABLE TO ADD ITEM, SENDING ROBOT OFF");
+				break;
+			}
+			if(robot.isEmpty() == false) {
+				robot.dispatch(); // send the robot off if it has any items to deliver
+				i.remove();       // remove from mailPool queue
+			}
+		}
+	}
+
+	@Override
+	public void registerWaiting(Robot robot) { // assumes won't be there already
+		robots.add(robot);
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	@Override
+	public int waitingRobots() {
+		return robots.size();
+	}
+
+	@Override
+	public List<MailItem> snapshotMail() {
+		// The order the pool would load in now; any order keeping each floor's FIFO restores it
+		List<ArrayDeque<MailItem>> copies = new ArrayList<ArrayDeque<MailItem>>();
+		for (int floor = occupied.nextSetBit(0); floor >= 0; floor = occupied.nextSetBit(floor + 1)) {
+			copies.add(new ArrayDeque<MailItem>(buckets.get(floor)));
+		}
+		List<MailItem> mail = new ArrayList<MailItem>(size);
+		while (!copies.isEmpty()) {
+			int best = 0;
+			for (int j = 1; j < copies.size(); j++) {
+				if (before(copies.get(j).peekFirst(), copies.get(best).peekFirst(), now, 0)) best = j;
+			}
+			mail.add(copies.get(best).pollFirst());
+			if (copies.get(best).isEmpty()) copies.remove(best);
+		}
+		return mail;
+	}
+
+	@Override
+	public List<Robot> snapshotRobots() {
+		return new ArrayList<Robot>(robots);
+	}
+
+}
@@ -3,13 +3,14 @@ import java.util.Properties;
 
 import automail.IMailDelivery;
 import automail.Robot;
+import automail.SimulationContext;
 
 public class Automail {
 	      
     public Robot[] robots;
     public IMailPool mailPool;
     
-    public Automail(IMailPool mailPool, IMailDelivery delivery, int numRobots, Properties automailProperties) {
+    public Automail(IMailPool mailPool, IMailDelivery delivery, SimulationContext context, int numRobots, Properties automailProperties) {
     	// Swap between simple provided strategies and your strategies here
     	    	
     	/** Initialize the MailPool */
@@ -18,7 +19,16 @@ public class Automail {
     	
     	/** Initialize robots */
     	robots = new Robot[numRobots];
-    	for (int i = 0; i < numRobots; i++) robots[i] = new Robot(delivery, mailPool, automailProperties);
+    	for (int i = 0; i < numRobots; i++) robots[i] = new Robot(delivery, mailPool, context, automailProperties);
+    }
+    
+    /**
+     * @param mailPool the pool the robots load from
+     * @param robots robots which have already been created, such as those of a RobotFleet
+     */
+    public Automail(IMailPool mailPool, Robot[] robots) {
+    	this.mailPool = mailPool;
+    	this.robots = robots;
     }
     
 }
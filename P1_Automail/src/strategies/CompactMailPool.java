@@ -0,0 +1,233 @@
+package strategies;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.ListIterator;
+
+import automail.MailItem;
+import automail.MailStore;
+import automail.Robot;
+import events.IEventSink;
+import exceptions.BreakingFragileItemException;
+import exceptions.ItemTooHeavyException;
+
+/**
+ * An IndexedMailPool which holds waiting mail in a MailStore instead of as MailItem objects.
+ * Each floor's FIFO is a chain of store handles, linked through the store, so a waiting item
+ * costs 16 bytes of primitive arrays and no objects at all. A MailItem is only created again
+ * when the item is loaded onto a robot, so the live objects are bounded by what the robots
+ * carry rather than by the depth of the pool.
+ *
+ * The delivery order and trip packing are the same as IndexedMailPool's, so runs give the
+ * same results.
+ */
+public class CompactMailPool implements IMailPool {
+
+	/** How many items too heavy for the trip packing passes over before it gives up */
+	private static final int LOOKAHEAD = 8;
+
+	private final MailStore store;
+	/** The first and last handle of each floor's waiting mail, or NONE */
+	private int[] heads;
+	private int[] tails;
+	/** Floors which currently have at least one waiting item */
+	private BitSet occupied;
+	private LinkedList<Robot> robots;
+
+	public CompactMailPool(int nrobots){
+		// Start empty
+		store = new MailStore();
+		heads = new int[0];
+		tails = new int[0];
+		occupied = new BitSet();
+		robots = new LinkedList<Robot>();
+	}
+
+	public void addToPool(MailItem mailItem) {
+		int floor = mailItem.getDestFloor();
+		if (heads.length <= floor) {
+			int floors = Math.max(floor + 1, heads.length * 2);
+			int from = heads.length;
+			heads = Arrays.copyOf(heads, floors);
+			tails = Arrays.copyOf(tails, floors);
+			Arrays.fill(heads, from, floors, MailStore.NONE);
+			Arrays.fill(tails, from, floors, MailStore.NONE);
+		}
+		int handle = store.add(mailItem);
+		if (heads[floor] == MailStore.NONE) {
+			heads[floor] = handle;
+		} else {
+			store.setLink(tails[floor], handle);
+		}
+		tails[floor] = handle;
+		occupied.set(floor);
+	}
+
+	/**
+	 * @return the handle of the highest priority item, or NONE if the pool is empty
+	 */
+	private int peek() {
+		int floor = occupied.nextSetBit(0);
+		return floor < 0 ? MailStore.NONE : heads[floor];
+	}
+
+	/**
+	 * Removes the highest priority item from the pool
+	 * @return the removed item
+	 */
+	private MailItem poll() {
+		int floor = occupied.nextSetBit(0);
+		return remove(floor, MailStore.NONE, heads[floor]);
+	}
+
+	/**
+	 * Removes an item from its floor's chain
+	 * @param previous the handle before it in the chain, or NONE if it is the head
+	 * @return the removed item
+	 */
+	private MailItem remove(int floor, int previous, int handle) {
+		int next = store.getLink(handle);
+		if (previous == MailStore.NONE) {
+			heads[floor] = next;
+		} else {
+			store.setLink(previous, next);
+		}
+		if (tails[floor] == handle) {
+			tails[floor] = previous;
+		}
+		if (heads[floor] == MailStore.NONE) {
+			occupied.clear(floor);
+		}
+		return store.remove(handle);
+	}
+
+	/**
+	 * @return whether the robot can take the stored item without going over its carry weight
+	 */
+	private boolean canCarry(Robot robot, int handle) {
+		return robot.getCarryMaxWeight() == 0 || robot.getLoad() + store.getWeight(handle) <= robot.getCarryMaxWeight();
+	}
+
+	/**
+	 * Fills the robot's tube for its trip, in priority order, with the items it can carry
+	 */
+	private void packTube(Robot robot) throws ItemTooHeavyException, BreakingFragileItemException {
+		int skipped = 0;
+		for (int floor = occupied.nextSetBit(0); floor >= 0 && !robot.tubeFull(); floor = occupied.nextSetBit(floor + 1)) {
+			int previous = MailStore.NONE;
+			int handle = heads[floor];
+			while (handle != MailStore.NONE && !robot.tubeFull()) {
+				int next = store.getLink(handle);
+				if (!canCarry(robot, handle)) {
+					if (++skipped > LOOKAHEAD) return;
+					previous = handle;
+				} else {
+					robot.addToTube(remove(floor, previous, handle));
+				}
+				handle = next;
+			}
+		}
+	}
+
+	@Override
+	public void step() throws ItemTooHeavyException, BreakingFragileItemException {
+		ListIterator<Robot> i = robots.listIterator();
+		while (i.hasNext()) {
+			loadRobot(i);
+		}
+	}
+
+	private void loadRobot(ListIterator<Robot> i) throws ItemTooHeavyException, BreakingFragileItemException {
+		Robot robot = i.next();
+		IEventSink events = robot.getEvents();
+		events.message("NEXT EXISTS");
+		assert(robot.isEmpty());
+		boolean caution_mode = robot.isCautionMode();
+		boolean fragile_mode = robot.isFragileMode();
+
+		if( fragile_mode == false ) {
+			if (store.size() > 0) {
+				robot.addToHand(poll()); // hand first as we want higher priority delivered first
+				packTube(robot);
+				robot.dispatch(); // send the robot off if it has any items to deliver
+				i.remove();       // remove from mailPool queue
+			}
+		}
+		else {
+			while ( store.size() > 0 ) {
+				int current = peek();
+
+				if(store.getFragile(current) == true) {
+					events.message("SPECIAL ITEM CAME IN HOT");
+					if(caution_mode == false) {
+						events.message(" -But rejected cause caution mode off");
+						robot.getDelivery().reject(poll());
+						continue;
+					}
+					else {
+						if(robot.specialEmpty() == true && canCarry(robot, current)) {
+							robot.addToSpecialHand(poll());
+							events.message("ADDED TO SPECIAL HAND");
+							continue;
+						}
+					}
+				}
+
+				else {
+					if(robot.handEmpty() == true && canCarry(robot, current)) {
+						robot.addToHand(poll());
+						events.message("ADDED TO HAAAAAND");
+						continue;
+					}
+					if( robot.tubeFull() == false && canCarry(robot, current) ) {
+						robot.addToTube(poll());
+						events.message("ADDED TO TUUUUUUBE");
+						continue;
+					}
+				}
+
+				events.message("UNABLE TO ADD ITEM, SENDING ROBOT OFF");
+				break;
+			}
+			if(robot.isEmpty() == false) {
+				robot.dispatch(); // send the robot off if it has any items to deliver
+				i.remove();       // remove from mailPool queue
+			}
+		}
+	}
+
+	@Override
+	public void registerWaiting(Robot robot) { // assumes won't be there already
+		robots.add(robot);
+	}
+
+	@Override
+	public int size() {
+		return store.size();
+	}
+
+	@Override
+	public int waitingRobots() {
+		return robots.size();
+	}
+
+	@Override
+	public List<MailItem> snapshotMail() {
+		List<MailItem> mail = new ArrayList<MailItem>(store.size());
+		for (int floor = occupied.nextSetBit(0); floor >= 0; floor = occupied.nextSetBit(floor + 1)) {
+			for (int handle = heads[floor]; handle != MailStore.NONE; handle = store.getLink(handle)) {
+				mail.add(store.get(handle));
+			}
+		}
+		return mail;
+	}
+
+	@Override
+	public List<Robot> snapshotRobots() {
+		return new ArrayList<Robot>(robots);
+	}
+
+}
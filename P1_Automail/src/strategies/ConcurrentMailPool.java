@@ -0,0 +1,186 @@
+package strategies;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import automail.MailItem;
+import automail.Robot;
+import events.IEventSink;
+import exceptions.BreakingFragileItemException;
+import exceptions.ItemTooHeavyException;
+
+/**
+ * A MailPool which any number of threads may add mail to, and robots may register with,
+ * while one dispatcher thread steps it. No locks are taken: waiting mail is kept in one
+ * lock-free FIFO queue per destination floor, in a concurrent map ordered by floor, and
+ * waiting robots in another lock-free queue. The delivery order is the same as
+ * IndexedMailPool's (lowest floor first, arrival order within a floor), so a single-threaded
+ * run gives the same results.
+ *
+ * Only the dispatcher takes mail out, and producers only append, so the item the dispatcher
+ * sees at the head of a floor is still there when it takes it. An item added during a step
+ * may or may not be loaded in that step.
+ */
+public class ConcurrentMailPool implements IMailPool {
+
+	/** Waiting mail, by destination floor */
+	private final ConcurrentSkipListMap<Integer, Queue<MailItem>> floors;
+	private final AtomicInteger size;
+	private final Queue<Robot> robots;
+
+	public ConcurrentMailPool(int nrobots){
+		// Start empty
+		floors = new ConcurrentSkipListMap<Integer, Queue<MailItem>>();
+		size = new AtomicInteger();
+		robots = new ConcurrentLinkedQueue<Robot>();
+	}
+
+	public void addToPool(MailItem mailItem) {
+		Queue<MailItem> floor = floors.get(mailItem.getDestFloor());
+		if (floor == null) {
+			Queue<MailItem> created = new ConcurrentLinkedQueue<MailItem>();
+			floor = floors.putIfAbsent(mailItem.getDestFloor(), created);
+			if (floor == null) floor = created;
+		}
+		floor.add(mailItem);
+		size.incrementAndGet();
+	}
+
+	/**
+	 * @return the highest priority item without removing it, or null if the pool is empty
+	 */
+	private MailItem peek() {
+		for (Map.Entry<Integer, Queue<MailItem>> floor : floors.entrySet()) {
+			MailItem mailItem = floor.getValue().peek();
+			if (mailItem != null) return mailItem;
+		}
+		return null;
+	}
+
+	/**
+	 * Removes an item which peek() returned. A producer may have added mail for a lower floor
+	 * since, but the item is still at the head of its own floor, since only the dispatcher
+	 * takes mail out.
+	 * @return the removed item
+	 */
+	private MailItem take(MailItem mailItem) {
+		floors.get(mailItem.getDestFloor()).poll();
+		size.decrementAndGet();
+		return mailItem;
+	}
+
+	@Override
+	public void step() throws ItemTooHeavyException, BreakingFragileItemException {
+		Iterator<Robot> i = robots.iterator();
+		while (i.hasNext()) {
+			loadRobot(i);
+		}
+	}
+
+	private void loadRobot(Iterator<Robot> i) throws ItemTooHeavyException, BreakingFragileItemException {
+		Robot robot = i.next();
+		IEventSink events = robot.getEvents();
+		events.message("NEXT EXISTS");
+		assert(robot.isEmpty());
+		boolean caution_mode = robot.isCautionMode();
+		boolean fragile_mode = robot.isFragileMode();
+
+		if( fragile_mode == false ) {
+			MailItem first = peek();
+			if (first != null) {
+				robot.addToHand(take(first)); // hand first as we want higher priority delivered first
+				// Take exactly the item checked, since a producer may add mail for a lower floor in between
+				while (robot.tubeFull() == false) {
+					MailItem next = peek();
+					if (next == null || !robot.canCarry(next)) break;
+					robot.addToTube(take(next));
+				}
+				robot.dispatch(); // send the robot off if it has any items to deliver
+				i.remove();       // remove from mailPool queue
+			}
+		}
+		else {
+			while ( size.get() > 0 ) {
+				MailItem current = peek();
+
+				if(current.getFragile() == true) {
+					events.message("SPECIAL ITEM CAME IN HOT");
+					if(caution_mode == false) {
+						events.message(" -But rejected cause caution mode off");
+						robot.getDelivery().reject(take(current));
+						continue;
+					}
+					else {
+						if(robot.specialEmpty() == true && robot.canCarry(current)) {
+							robot.addToSpecialHand(take(current));
+							events.message("ADDED TO SPECIAL HAND");
+							continue;
+						}
+					}
+				}
+
+				else {
+					if(robot.handEmpty() == true && robot.canCarry(current)) {
+						robot.addToHand(take(current));
+						events.message("ADDED TO HAAAAAND");
+						continue;
+					}
+					if( robot.tubeFull() == false && robot.canCarry(current) ) {
+						robot.addToTube(take(current));
+						events.message("ADDED TO TUUUUUUBE");
+						continue;
+					}
+				}
+
+				events.message("UNABLE TO ADD ITEM, SENDING ROBOT OFF");
+				break;
+			}
+			if(robot.isEmpty() == false) {
+				robot.dispatch(); // send the robot off if it has any items to deliver
+				i.remove();       // remove from mailPool queue
+			}
+		}
+	}
+
+	@Override
+	public void registerWaiting(Robot robot) { // assumes won't be there already
+		robots.add(robot);
+	}
+
+	@Override
+	public int size() {
+		return size.get();
+	}
+
+	/**
+	 * Counts the waiting robots by walking their queue, so it takes time in proportion to them
+	 */
+	@Override
+	public int waitingRobots() {
+		return robots.size();
+	}
+
+	/**
+	 * Only consistent while no mail is being added
+	 */
+	@Override
+	public List<MailItem> snapshotMail() {
+		List<MailItem> mail = new ArrayList<MailItem>(size.get());
+		for (Queue<MailItem> floor : floors.values()) {
+			mail.addAll(floor);
+		}
+		return mail;
+	}
+
+	@Override
+	public List<Robot> snapshotRobots() {
+		return new ArrayList<Robot>(robots);
+	}
+
+}
@@ -1,5 +1,7 @@
 package strategies;
 
+import java.util.List;
+
 import automail.MailItem;
 import automail.Robot;
 import exceptions.BreakingFragileItemException;
@@ -29,4 +31,25 @@ public interface IMailPool {
      */	
 	void registerWaiting(Robot robot);
 
+	/**
+	 * @return the number of mail items waiting in the pool
+	 */
+	int size();
+
+	/**
+	 * @return the number of robots waiting to be loaded
+	 */
+	int waitingRobots();
+
+	/**
+	 * @return the waiting mail items, highest priority first, so that adding them in this
+	 * order to an empty pool restores this one
+	 */
+	List<MailItem> snapshotMail();
+
+	/**
+	 * @return the waiting robots, in the order they will be loaded
+	 */
+	List<Robot> snapshotRobots();
+
 }
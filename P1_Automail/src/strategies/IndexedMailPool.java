@@ -0,0 +1,207 @@
+package strategies;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.ListIterator;
+
+import automail.MailItem;
+import automail.Robot;
+import events.IEventSink;
+import exceptions.BreakingFragileItemException;
+import exceptions.ItemTooHeavyException;
+
+/**
+ * A MailPool which keeps waiting mail in one FIFO bucket per destination floor, with a
+ * bitset recording which floors currently have mail. The delivery order is the same as
+ * MailPool's ItemComparator (lowest floor first, arrival order within a floor), but adding
+ * an item is O(1) and taking the highest priority item is a single bitset scan instead of
+ * a full re-sort of the pool.
+ *
+ * A robot whose tube holds several items is packed for a single trip: after the hand, its
+ * tube takes the next items in priority order, which are also the nearest floors along its
+ * way up, passing over any item which would take it over its carry weight for a lighter one
+ * a little further on.
+ */
+public class IndexedMailPool implements IMailPool {
+
+	/** How many items too heavy for the trip packing passes over before it gives up */
+	private static final int LOOKAHEAD = 8;
+
+	/** Waiting mail, indexed by destination floor */
+	private ArrayList<ArrayDeque<MailItem>> buckets;
+	/** Floors which currently have at least one waiting item */
+	private BitSet occupied;
+	private int size;
+	private LinkedList<Robot> robots;
+
+	public IndexedMailPool(int nrobots){
+		// Start empty
+		buckets = new ArrayList<ArrayDeque<MailItem>>();
+		occupied = new BitSet();
+		size = 0;
+		robots = new LinkedList<Robot>();
+	}
+
+	public void addToPool(MailItem mailItem) {
+		int floor = mailItem.getDestFloor();
+		while (buckets.size() <= floor) {
+			buckets.add(null);
+		}
+		ArrayDeque<MailItem> bucket = buckets.get(floor);
+		if (bucket == null) {
+			bucket = new ArrayDeque<MailItem>();
+			buckets.set(floor, bucket);
+		}
+		bucket.addLast(mailItem);
+		occupied.set(floor);
+		size++;
+	}
+
+	/**
+	 * @return the highest priority item without removing it, or null if the pool is empty
+	 */
+	private MailItem peek() {
+		int floor = occupied.nextSetBit(0);
+		return floor < 0 ? null : buckets.get(floor).peekFirst();
+	}
+
+	/**
+	 * Removes the highest priority item from the pool
+	 * @return the removed item
+	 */
+	private MailItem poll() {
+		int floor = occupied.nextSetBit(0);
+		ArrayDeque<MailItem> bucket = buckets.get(floor);
+		MailItem mailItem = bucket.pollFirst();
+		if (bucket.isEmpty()) {
+			occupied.clear(floor);
+		}
+		size--;
+		return mailItem;
+	}
+
+	/**
+	 * Fills the robot's tube for its trip, in priority order, with the items it can carry
+	 */
+	private void packTube(Robot robot) throws ItemTooHeavyException, BreakingFragileItemException {
+		int skipped = 0;
+		for (int floor = occupied.nextSetBit(0); floor >= 0 && !robot.tubeFull(); floor = occupied.nextSetBit(floor + 1)) {
+			ArrayDeque<MailItem> bucket = buckets.get(floor);
+			Iterator<MailItem> j = bucket.iterator();
+			while (j.hasNext() && !robot.tubeFull()) {
+				MailItem mailItem = j.next();
+				if (!robot.canCarry(mailItem)) {
+					if (++skipped > LOOKAHEAD) return;
+					continue;
+				}
+				j.remove();
+				size--;
+				robot.addToTube(mailItem);
+			}
+			if (bucket.isEmpty()) {
+				occupied.clear(floor);
+			}
+		}
+	}
+
+	@Override
+	public void step() throws ItemTooHeavyException, BreakingFragileItemException {
+		ListIterator<Robot> i = robots.listIterator();
+		while (i.hasNext()) {
+			loadRobot(i);
+		}
+	}
+
+	private void loadRobot(ListIterator<Robot> i) throws ItemTooHeavyException, BreakingFragileItemException {
+		Robot robot = i.next();
+		IEventSink events = robot.getEvents();
+		events.message("NEXT EXISTS");
+		assert(robot.isEmpty());
+		boolean caution_mode = robot.isCautionMode();
+		boolean fragile_mode = robot.isFragileMode();
+
+		if( fragile_mode == false ) {
+			if (size > 0) {
+				robot.addToHand(poll()); // hand first as we want higher priority delivered first
+				packTube(robot);
+				robot.dispatch(); // send the robot off if it has any items to deliver
+				i.remove();       // remove from mailPool queue
+			}
+		}
+		else {
+			while ( size > 0 ) {
+				MailItem current = peek();
+
+				if(current.getFragile() == true) {
+					events.message("SPECIAL ITEM CAME IN HOT");
+					if(caution_mode == false) {
+						events.message(" -But rejected cause caution mode off");
+						robot.getDelivery().reject(poll());
+						continue;
+					}
+					else {
+						if(robot.specialEmpty() == true && robot.canCarry(current)) {
+							robot.addToSpecialHand(poll());
+							events.message("ADDED TO SPECIAL HAND");
+							continue;
+						}
+					}
+				}
+
+				else {
+					if(robot.handEmpty() == true && robot.canCarry(current)) {
+						robot.addToHand(poll());
+						events.message("ADDED TO HAAAAAND");
+						continue;
+					}
+					if( robot.tubeFull() == false && robot.canCarry(current) ) {
+						robot.addToTube(poll());
+						events.message("ADDED TO TUUUUUUBE");
+						continue;
+					}
+				}
+
+				events.message("UNABLE TO ADD ITEM, SENDING ROBOT OFF");
+				break;
+			}
+			if(robot.isEmpty() == false) {
+				robot.dispatch(); // send the robot off if it has any items to deliver
+				i.remove();       // remove from mailPool queue
+			}
+		}
+	}
+
+	@Override
+	public void registerWaiting(Robot robot) { // assumes won't be there already
+		robots.add(robot);
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	@Override
+	public int waitingRobots() {
+		return robots.size();
+	}
+
+	@Override
+	public List<MailItem> snapshotMail() {
+		List<MailItem> mail = new ArrayList<MailItem>(size);
+		for (int floor = occupied.nextSetBit(0); floor >= 0; floor = occupied.nextSetBit(floor + 1)) {
+			mail.addAll(buckets.get(floor));
+		}
+		return mail;
+	}
+
+	@Override
+	public List<Robot> snapshotRobots() {
+		return new ArrayList<Robot>(robots);
+	}
+
+}
@@ -1,23 +1,38 @@
 package strategies;
 
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
 import java.util.LinkedList;
 import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
 import java.util.ListIterator;
 
-import automail.IMailDelivery;
 import automail.MailItem;
 import automail.Robot;
+import events.IEventSink;
 import exceptions.BreakingFragileItemException;
 import exceptions.ItemTooHeavyException;
 
+/**
+ * Waiting mail is kept in two partitions, one for fragile and one for normal items, each with
+ * one FIFO bucket per destination floor. Items are delivered lowest floor first and in
+ * arrival order within a floor, across both partitions, so a robot is loaded by looking only
+ * at the head of each partition rather than walking a sorted list of the whole pool.
+ */
 public class MailPool implements IMailPool {
 
 	private class Item {
 		int destination;
+		/** The order in which the item was added to the pool */
+		long sequence;
 		MailItem mailItem;
 		
-		public Item(MailItem mailItem) {
+		public Item(MailItem mailItem, long sequence) {
 			destination = mailItem.getDestFloor();
+			this.sequence = sequence;
 			this.mailItem = mailItem;
 		}
 	}
@@ -30,24 +45,115 @@ public class MailPool implements IMailPool {
 				order = 1;
 			} else if (i1.destination < i2.destination) {
 				order = -1;
+			} else if (i1.sequence > i2.sequence) {  // Earlier arrivals first
+				order = 1;
+			} else if (i1.sequence < i2.sequence) {
+				order = -1;
 			}
 			return order;
 		}
 	}
 	
-	private LinkedList<Item> pool;
+	/** Waiting mail of one kind, with a bucket per destination floor */
+	private class Partition {
+		private final ArrayList<ArrayDeque<Item>> buckets = new ArrayList<ArrayDeque<Item>>();
+		/** Floors which currently have at least one waiting item */
+		private final BitSet occupied = new BitSet();
+		private int size = 0;
+		
+		void add(Item item) {
+			while (buckets.size() <= item.destination) {
+				buckets.add(null);
+			}
+			ArrayDeque<Item> bucket = buckets.get(item.destination);
+			if (bucket == null) {
+				bucket = new ArrayDeque<Item>();
+				buckets.set(item.destination, bucket);
+			}
+			bucket.addLast(item);
+			occupied.set(item.destination);
+			size++;
+		}
+		
+		/**
+		 * @return the items waiting for the floor, in arrival order
+		 */
+		Iterator<Item> bucket(int floor) {
+			ArrayDeque<Item> bucket = floor < buckets.size() ? buckets.get(floor) : null;
+			return bucket == null ? Collections.<Item>emptyIterator() : bucket.iterator();
+		}
+		
+		/**
+		 * @return the highest priority item without removing it, or null if the partition is empty
+		 */
+		Item peek() {
+			int floor = occupied.nextSetBit(0);
+			return floor < 0 ? null : buckets.get(floor).peekFirst();
+		}
+		
+		/**
+		 * Removes the highest priority item from the partition
+		 * @return the removed item's mail
+		 */
+		MailItem poll() {
+			int floor = occupied.nextSetBit(0);
+			ArrayDeque<Item> bucket = buckets.get(floor);
+			Item item = bucket.pollFirst();
+			if (bucket.isEmpty()) {
+				occupied.clear(floor);
+			}
+			size--;
+			return item.mailItem;
+		}
+	}
+	
+	private final Partition fragile;
+	private final Partition normal;
+	private final ItemComparator order;
+	private long added;
 	private LinkedList<Robot> robots;
 
 	public MailPool(int nrobots){
 		// Start empty
-		pool = new LinkedList<Item>();
+		fragile = new Partition();
+		normal = new Partition();
+		order = new ItemComparator();
+		added = 0;
 		robots = new LinkedList<Robot>();
 	}
 
 	public void addToPool(MailItem mailItem) {
-		Item item = new Item(mailItem);
-		pool.add(item);
-		pool.sort(new ItemComparator());
+		Item item = new Item(mailItem, added++);
+		if (mailItem.getFragile()) {
+			fragile.add(item);
+		} else {
+			normal.add(item);
+		}
+	}
+	
+	/**
+	 * @return the partition holding the highest priority item, or null if the pool is empty
+	 */
+	private Partition first() {
+		Item f = fragile.peek();
+		Item n = normal.peek();
+		if (f == null) return n == null ? null : normal;
+		if (n == null) return fragile;
+		return order.compare(f, n) < 0 ? fragile : normal;
+	}
+	
+	/**
+	 * Rejects, in order, every fragile item ahead of the next normal item, or every fragile
+	 * item if there is no normal mail left
+	 */
+	private void rejectFragile(Robot robot, IEventSink events) {
+		Item next = normal.peek();
+		Item current;
+		while ((current = fragile.peek()) != null && (next == null || order.compare(current, next) < 0)) {
+			events.message("SPECIAL ITEM CAME IN HOT");
+			events.message(" -But rejected cause caution mode off");
+			robot.getDelivery().reject(fragile.poll());
+		}
 	}
 	
 	@Override
@@ -55,7 +161,6 @@ public class MailPool implements IMailPool {
 		try{
 			ListIterator<Robot> i = robots.listIterator();
 			while (i.hasNext()) {
-				System.out.println("NEXT EXISTS");
 				loadRobot(i);
 			}
 		} catch (Exception e) { 
@@ -66,73 +171,72 @@ public class MailPool implements IMailPool {
 	
 	private void loadRobot(ListIterator<Robot> i) throws ItemTooHeavyException, BreakingFragileItemException {
 		Robot robot = i.next();
+		IEventSink events = robot.getEvents();
+		events.message("NEXT EXISTS");
 		assert(robot.isEmpty());
-		// System.out.printf("P: %3d%n", pool.size());
-		ListIterator<Item> j = pool.listIterator();
+		// System.out.printf("P: %3d%n", size());
 		boolean caution_mode = robot.isCautionMode();
 		boolean fragile_mode = robot.isFragileMode();
 		
 		if( fragile_mode == false ) {
-			if (pool.size() > 0) {
-				try {
-					robot.addToHand(j.next().mailItem); // hand first as we want higher priority delivered first
-					j.remove();
-					if (pool.size() > 0) {
-						robot.addToTube(j.next().mailItem);
-						j.remove();
-					}
-					robot.dispatch(); // send the robot off if it has any items to deliver
-					i.remove();       // remove from mailPool queue
-				}catch (Exception e) {
-		            throw e; 
-		        	}
+			if (size() > 0) {
+				robot.addToHand(first().poll()); // hand first as we want higher priority delivered first
+				Partition next;
+				while ((next = first()) != null && robot.tubeFull() == false && robot.canCarry(next.peek().mailItem)) {
+					robot.addToTube(next.poll());
+				}
+				robot.dispatch(); // send the robot off if it has any items to deliver
+				i.remove();       // remove from mailPool queue
+			}
+		}
+		else if( caution_mode == false ) {
+			// Fragile items can only be rejected, so they go in a batch whenever they are next
+			rejectFragile(robot, events);
+			if(normal.size > 0) {
+				robot.addToHand(normal.poll());
+				events.message("ADDED TO HAAAAAND");
+				rejectFragile(robot, events);
+			}
+			while(normal.size > 0 && robot.tubeFull() == false && robot.canCarry(normal.peek().mailItem)) {
+				robot.addToTube(normal.poll());
+				events.message("ADDED TO TUUUUUUBE");
+				rejectFragile(robot, events);
+			}
+			if(normal.size > 0) {
+				events.message("UNABLE TO ADD ITEM, SENDING ROBOT OFF");
+			}
+			if(robot.isEmpty() == false) {
+				robot.dispatch(); // send the robot off if it has any items to deliver
+				i.remove();       // remove from mailPool queue
 			}
 		}
 		else {
-			try {
-				while ( pool.size() > 0 ) {
-					
-					Item current = j.next();
-					
-					if(current.mailItem.getFragile() == true) {
-						System.out.println("SPECIAL ITEM CAME IN HOT");
-						if(caution_mode == false) {
-							System.out.println(" -But rejected cause caution mode off");
-							robot.getDelivery().reject(current.mailItem);
-							j.remove();
-							continue;
-						}
-						else {
-							if(robot.specialEmpty() == true) {
-								robot.addToSpecialHand(current.mailItem);
-								j.remove();
-								System.out.println("ADDED TO SPECIAL HAND");
-								continue;
-							}
-						}
+			Partition current;
+			while ( (current = first()) != null ) {
+				if(current == fragile) {
+					events.message("SPECIAL ITEM CAME IN HOT");
+					if(robot.specialEmpty() == true && robot.canCarry(fragile.peek().mailItem)) {
+						robot.addToSpecialHand(fragile.poll());
+						events.message("ADDED TO SPECIAL HAND");
+						continue;
 					}
-					
-					else {
-						if(robot.handEmpty() == true) {
-							robot.addToHand(current.mailItem);
-							j.remove();
-							System.out.println("ADDED TO HAAAAAND");
-							continue;
-						}
-						if( robot.tubeEmpty() == true ) {
-							robot.addToTube(current.mailItem);
-							j.remove();
-							System.out.println("ADDED TO TUUUUUUBE");
-							continue;
-						}
+				}
+				else {
+					if(robot.handEmpty() == true && robot.canCarry(normal.peek().mailItem)) {
+						robot.addToHand(normal.poll());
+						events.message("ADDED TO HAAAAAND");
+						continue;
+					}
+					if( robot.tubeFull() == false && robot.canCarry(normal.peek().mailItem) ) {
+						robot.addToTube(normal.poll());
+						events.message("ADDED TO TUUUUUUBE");
+						continue;
 					}
-					
-					System.out.println("UNABLE TO ADD ITEM, SENDING ROBOT OFF");
-					break;
 				}
-			}catch (Exception e) {
-	            throw e; 
-        		}
+				
+				events.message("UNABLE TO ADD ITEM, SENDING ROBOT OFF");
+				break;
+			}
 			if(robot.isEmpty() == false) {
 				robot.dispatch(); // send the robot off if it has any items to deliver
 				i.remove();       // remove from mailPool queue 
@@ -146,4 +250,40 @@ public class MailPool implements IMailPool {
 		robots.add(robot);
 	}
 
+	@Override
+	public int size() {
+		return fragile.size + normal.size;
+	}
+
+	@Override
+	public int waitingRobots() {
+		return robots.size();
+	}
+
+	@Override
+	public List<MailItem> snapshotMail() {
+		List<MailItem> mail = new ArrayList<MailItem>(size());
+		for (int floor = 0; floor < Math.max(fragile.buckets.size(), normal.buckets.size()); floor++) {
+			Iterator<Item> f = fragile.bucket(floor);
+			Iterator<Item> n = normal.bucket(floor);
+			Item nextFragile = f.hasNext() ? f.next() : null;
+			Item nextNormal = n.hasNext() ? n.next() : null;
+			while (nextFragile != null || nextNormal != null) {
+				if (nextNormal == null || (nextFragile != null && order.compare(nextFragile, nextNormal) < 0)) {
+					mail.add(nextFragile.mailItem);
+					nextFragile = f.hasNext() ? f.next() : null;
+				} else {
+					mail.add(nextNormal.mailItem);
+					nextNormal = n.hasNext() ? n.next() : null;
+				}
+			}
+		}
+		return mail;
+	}
+
+	@Override
+	public List<Robot> snapshotRobots() {
+		return new ArrayList<Robot>(robots);
+	}
+
 }
@@ -0,0 +1,66 @@
+package automail;
+
+import static automail.TestRuns.MODES;
+import static automail.TestRuns.SEEDS;
+import static automail.TestRuns.assertSameResult;
+import static automail.TestRuns.properties;
+import static automail.TestRuns.run;
+import static automail.TestRuns.with;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import automail.TestRuns.Run;
+
+/**
+ * A run resumed from a checkpoint must carry on exactly as the run which wrote it did
+ */
+public class CheckpointTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void resumesAsTheUninterruptedRun() throws Exception {
+		assertResumes();
+	}
+
+	@Test
+	public void resumesAsTheUninterruptedRunWithTheEventEngineAndAnArrayFleet() throws Exception {
+		assertResumes("Engine=event", "Fleet=arrays", "Tube_Slots=2", "Statistics=true");
+	}
+
+	@Test
+	public void resumesAsTheUninterruptedRunWhenStreaming() throws Exception {
+		assertResumes("Mail_Generation=streaming", "Mail_Stream_Window=13");
+	}
+
+	/**
+	 * Runs each seed and mode with a checkpoint every 50 and every 150 ticks, resumes from the
+	 * last checkpoint written, and checks that the resumed run writes the rest of the trace and
+	 * ends the same way
+	 */
+	private void assertResumes(String... overrides) throws Exception {
+		for (String[] mode : MODES) {
+			for (int seed : SEEDS) {
+				for (int interval : new int[] { 50, 150 }) {
+					File checkpoint = new File(folder.getRoot(), "checkpoint-" + seed + "-" + interval + ".bin");
+					String[] common = with(mode, overrides);
+					String what = String.join(";", with(common, "Seed=" + seed, "Checkpoint_Interval=" + interval));
+					Run whole = run(properties(with(common, "Checkpoint_Interval=" + interval,
+							"Checkpoint_File=" + checkpoint.getPath())), seed);
+					assertTrue(what + ": no checkpoint written", checkpoint.isFile());
+					Run resumed = run(properties(with(common, "Resume_From=" + checkpoint.getPath())), seed);
+					assertSameResult(what, whole.result, resumed.result);
+					assertFalse(what + ": nothing run after resuming", resumed.trace.isEmpty());
+					assertTrue(what + ": resumed trace is not the rest of the run's", whole.trace.endsWith(resumed.trace));
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,149 @@
+package automail;
+
+import static automail.TestRuns.assertEquivalent;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import events.SilentEventSink;
+import exceptions.BreakingFragileItemException;
+import exceptions.ExcessiveDeliveryException;
+import exceptions.ItemTooHeavyException;
+import strategies.IndexedMailPool;
+
+/**
+ * The event engine skips the ticks in which nothing happens, so it must run exactly as the
+ * tick engine does, apart from the pool's checks on those ticks, while stepping far less
+ */
+public class EventEngineTest {
+
+	private static final String[] NONE = {};
+	private static final int FLOORS = 12;
+
+	@Test
+	public void runsAsTheTickEngineDoes() throws Exception {
+		assertEquivalent(NONE, new String[] { "Engine=tick" }, new String[] { "Engine=event" }, true);
+	}
+
+	@Test
+	public void runsAsTheTickEngineDoesWithLargerTubes() throws Exception {
+		assertEquivalent(new String[] { "Tube_Slots=3", "Carry_Max_Weight=4000", "Robots=5" },
+				new String[] { "Engine=tick" }, new String[] { "Engine=event" }, true);
+	}
+
+	@Test
+	public void skipsTheTicksBeforeLateMail() throws Exception {
+		int[][] mail = { { 500, 6 } };
+		Run ticked = new Run(mail, 2, 1, false);
+		Run skipped = new Run(mail, 2, 1, true);
+		assertEquals(ticked.deliveries, skipped.deliveries);
+		assertTrue("pool stepped " + skipped.pool.steps + " times", skipped.pool.steps < 10);
+		assertTrue(ticked.pool.steps > 500);
+	}
+
+	@Test
+	public void wakesATravellingRobotOnlyWhenItReachesItsFloor() throws Exception {
+		int[][] mail = { { 1, 12 } };
+		Run skipped = new Run(mail, 1, 1, true);
+		assertEquals(new Run(mail, 1, 1, false).deliveries, skipped.deliveries);
+		// Loaded, arrived and delivered, then back at the mailroom: not once for each floor
+		assertTrue("robot stepped " + skipped.robots[0].steps + " times", skipped.robots[0].steps < 8);
+	}
+
+	@Test
+	public void wakesWaitingRobotsWhenMailArrivesWhileOthersTravel() throws Exception {
+		int[][] mail = { { 1, 12 }, { 1, 11 }, { 4, 3 }, { 6, 9 }, { 6, 2 }, { 30, 7 }, { 31, 12 }, { 31, 1 }, { 90, 5 } };
+		Run skipped = new Run(mail, 3, 1, true);
+		Run ticked = new Run(mail, 3, 1, false);
+		assertEquals(ticked.deliveries, skipped.deliveries);
+		assertEquals(ticked.context.clock.Time(), skipped.context.clock.Time());
+		assertTrue(skipped.pool.steps < ticked.pool.steps / 2);
+	}
+
+	@Test
+	public void wakesRobotsDeliveringSeveralItemsAtEachFloor() throws Exception {
+		int[][] mail = { { 2, 10 }, { 2, 4 }, { 2, 7 }, { 3, 12 }, { 3, 2 }, { 3, 9 }, { 40, 6 }, { 40, 6 } };
+		Run skipped = new Run(mail, 2, 3, true);
+		assertEquals(new Run(mail, 2, 3, false).deliveries, skipped.deliveries);
+	}
+
+	/**
+	 * One run, by the event engine or by stepping every tick as Simulation does
+	 */
+	private static class Run {
+
+		final SimulationContext context = new SimulationContext(FLOORS, 1000, new SilentEventSink());
+		final CountingPool pool;
+		final CountingRobot[] robots;
+		/** Each delivery, as "id@time" */
+		final List<String> deliveries = new ArrayList<String>();
+
+		/**
+		 * @param mail the arrival time and floor of each item, in arrival order
+		 * @param tubeSlots the capacity of each robot's tube
+		 */
+		Run(int[][] mail, int robotCount, int tubeSlots, boolean eventEngine) throws Exception {
+			pool = new CountingPool(robotCount);
+			IMailDelivery delivery = new Simulation.ReportDelivery(context) {
+				@Override
+				public void deliver(MailItem mailItem) {
+					deliveries.add(mailItem.getId() + "@" + context.clock.Time());
+					super.deliver(mailItem);
+				}
+			};
+			robots = new CountingRobot[robotCount];
+			for (int i = 0; i < robotCount; i++) {
+				robots[i] = new CountingRobot(delivery, pool, context, tubeSlots);
+			}
+			ScriptedArrivals arrivals = new ScriptedArrivals(mail, pool, context);
+			try {
+				if (eventEngine) {
+					new EventEngine(context, arrivals, pool, robots, null, null, null).run(mail.length);
+				} else {
+					while (context.getDelivered() + context.getRejected() != mail.length) {
+						arrivals.step();
+						pool.step();
+						for (Robot robot : robots) robot.step();
+						context.clock.Tick();
+					}
+				}
+			} catch (ExcessiveDeliveryException e) {
+				throw new AssertionError("A robot delivered more than it could carry", e);
+			}
+		}
+	}
+
+	private static class CountingPool extends IndexedMailPool {
+
+		int steps;
+
+		CountingPool(int nrobots) {
+			super(nrobots);
+		}
+
+		@Override
+		public void step() throws ItemTooHeavyException, BreakingFragileItemException {
+			steps++;
+			super.step();
+		}
+	}
+
+	private static class CountingRobot extends Robot {
+
+		int steps;
+
+		CountingRobot(IMailDelivery delivery, IndexedMailPool pool, SimulationContext context, int tubeSlots) {
+			super(delivery, pool, context, false, false, tubeSlots, 0, true);
+		}
+
+		@Override
+		public void step() throws ExcessiveDeliveryException {
+			steps++;
+			super.step();
+		}
+	}
+}
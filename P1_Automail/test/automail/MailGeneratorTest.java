@@ -0,0 +1,168 @@
+package automail;
+
+import static automail.TestRuns.assertEquivalent;
+import static automail.TestRuns.properties;
+import static automail.TestRuns.run;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+import static org.junit.Assume.assumeTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+
+import org.junit.Test;
+
+import events.SilentEventSink;
+import exceptions.ItemTooHeavyException;
+import strategies.IMailPool;
+
+/**
+ * Streaming generation spills the mail to a temporary file and reads it back a window at a
+ * time, but must deliver the same mail, with the same ids and in the same order, as
+ * generating it all up front, however small its window
+ */
+public class MailGeneratorTest {
+
+	private static final String[] NONE = {};
+	private static final String[] EAGER = { "Mail_Generation=eager" };
+	private static final int LAST_DELIVERY_TIME = 120;
+
+	@Test
+	public void streamsTheMailGeneratedUpFront() throws Exception {
+		assertEquivalent(NONE, EAGER, new String[] { "Mail_Generation=streaming" });
+	}
+
+	@Test
+	public void streamsTheMailGeneratedUpFrontInSmallWindows() throws Exception {
+		for (String window : new String[] { "1", "7", "50" }) {
+			assertEquivalent(NONE, EAGER, new String[] { "Mail_Generation=streaming", "Mail_Stream_Window=" + window });
+		}
+	}
+
+	@Test
+	public void streamsTheMailGeneratedUpFrontToTheEventEngine() throws Exception {
+		assertEquivalent(new String[] { "Engine=event" }, EAGER, new String[] { "Mail_Generation=streaming", "Mail_Stream_Window=13" });
+	}
+
+	@Test
+	public void givesEachTickItsOwnItemsWhateverTheWindow() throws Exception {
+		for (boolean fragile : new boolean[] { false, true }) {
+			List<String> eager = arrivals(fragile, 0);
+			// A window of one item still holds a whole tick, however many arrive in it
+			for (int window : new int[] { 1, 2, 3, 10, 1000 }) {
+				assertEquals("window " + window, eager, arrivals(fragile, window));
+			}
+		}
+	}
+
+	@Test
+	public void reportsTheSameArrivalTimesAsEagerGeneration() throws Exception {
+		assertEquals(arrivalTimes(0), arrivalTimes(5));
+	}
+
+	@Test
+	public void closesTheSpillFileWhenARunEndsEarly() throws Exception {
+		File descriptors = new File("/proc/self/fd");
+		assumeTrue(descriptors.isDirectory());
+		// Items over a robot's limit end the run with an exception, long before the last window
+		Properties properties = properties("Mail_Generation=streaming", "Mail_Stream_Window=10", "Mail_Max_Weight=3000");
+		int open = descriptors.list().length;
+		for (int seed = 1; seed <= 20; seed++) {
+			try {
+				run(properties, seed, new SilentEventSink());
+				fail("Seed " + seed + " ran to the end with items over the limit");
+			} catch (ItemTooHeavyException e) {
+				// The run ended early, as intended
+			}
+		}
+		assertEquals(open, descriptors.list().length);
+	}
+
+	/**
+	 * Steps a generator through every tick of a run
+	 * @param window the streaming window, or 0 to generate the mail up front
+	 * @return each item added to the pool, in order, with the tick it was added at
+	 */
+	private static List<String> arrivals(boolean fragile, int window) throws Exception {
+		SimulationContext context = new SimulationContext(12, LAST_DELIVERY_TIME, new SilentEventSink());
+		RecordingPool pool = new RecordingPool(context.clock);
+		MailGenerator generator = generator(pool, context, fragile, window);
+		try {
+			for (int time = 0; time <= LAST_DELIVERY_TIME + 1; time++) {
+				generator.step();
+				context.clock.Tick();
+			}
+		} finally {
+			generator.close();
+		}
+		assertEquals(generator.getMailToCreate(), pool.added.size());
+		return pool.added;
+	}
+
+	/**
+	 * @return each arrival time nextArrivalTime reports, asked from each tick of the run
+	 */
+	private static List<Integer> arrivalTimes(int window) throws Exception {
+		SimulationContext context = new SimulationContext(12, LAST_DELIVERY_TIME, new SilentEventSink());
+		MailGenerator generator = generator(new RecordingPool(context.clock), context, true, window);
+		List<Integer> times = new ArrayList<Integer>();
+		for (int time = 0; time <= LAST_DELIVERY_TIME + 1; time++) {
+			times.add(generator.nextArrivalTime(time));
+		}
+		generator.close();
+		return times;
+	}
+
+	private static MailGenerator generator(IMailPool pool, SimulationContext context, boolean fragile, int window)
+			throws Exception {
+		MailGenerator generator = new MailGenerator(300, 2000, pool, 30006L, context);
+		if (window > 0) {
+			generator.streamAllMail(fragile, window);
+		} else {
+			generator.generateAllMail(fragile);
+		}
+		return generator;
+	}
+
+	/**
+	 * Records the mail added to it, and does nothing else
+	 */
+	private static class RecordingPool implements IMailPool {
+
+		private final Clock clock;
+		final List<String> added = new ArrayList<String>();
+
+		RecordingPool(Clock clock) {
+			this.clock = clock;
+		}
+
+		public void addToPool(MailItem mailItem) {
+			added.add(clock.Time() + " " + mailItem);
+		}
+
+		public void step() {
+		}
+
+		public void registerWaiting(Robot robot) {
+		}
+
+		public int size() {
+			return 0;
+		}
+
+		public int waitingRobots() {
+			return 0;
+		}
+
+		public List<MailItem> snapshotMail() {
+			return Collections.emptyList();
+		}
+
+		public List<Robot> snapshotRobots() {
+			return Collections.emptyList();
+		}
+	}
+}
@@ -0,0 +1,89 @@
+package automail;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+/**
+ * MailStore packs each item into primitives, so it must give back exactly the item it was
+ * given, refuse items its packed fields cannot hold, and reuse the handles of removed items
+ */
+public class MailStoreTest {
+
+	@Test
+	public void givesBackTheItemItWasGiven() {
+		MailStore store = new MailStore();
+		MailItem fragile = new MailItem(7, MailStore.MAX_FLOOR, 1 << 20, MailStore.MAX_WEIGHT, true);
+		fragile.isWrapped = true;
+		int handle = store.add(fragile);
+		int other = store.add(new MailItem(8, 0, 0, 0, false));
+		MailItem copy = store.get(handle);
+		assertEquals(fragile.toString(), copy.toString());
+		assertTrue(copy.isWrapped);
+		assertTrue(store.getWrapped(handle));
+		assertFalse(store.getWrapped(other));
+		assertEquals(1 << 20, store.getArrivalTime(handle));
+		assertEquals("Mail Item:: ID:      8 | Arrival:    0 | Destination:  0 | Weight:    0 |  normal",
+				store.remove(other).toString());
+		store.setWrapped(handle, false);
+		assertFalse(store.remove(handle).isWrapped);
+	}
+
+	@Test
+	public void refusesItemsItsFieldsCannotHold() {
+		MailStore store = new MailStore();
+		MailItem[] items = { new MailItem(1, 3, 0, MailStore.MAX_WEIGHT + 1, false), new MailItem(2, 3, 0, -1, false),
+				new MailItem(3, MailStore.MAX_FLOOR + 1, 0, 100, false), new MailItem(4, -1, 0, 100, false) };
+		for (MailItem item : items) {
+			try {
+				store.add(item);
+				fail("Stored " + item);
+			} catch (IllegalArgumentException e) {
+				assertEquals(0, store.size());
+			}
+		}
+		// Nothing was half stored: the first handle is still free
+		assertEquals(0, store.add(new MailItem(5, 3, 0, 100, false)));
+	}
+
+	@Test
+	public void reusesTheHandlesOfRemovedItems() {
+		MailStore store = new MailStore();
+		int first = store.add(new MailItem(1, 3, 0, 100, false));
+		int second = store.add(new MailItem(2, 4, 0, 200, false));
+		int third = store.add(new MailItem(3, 5, 0, 300, false));
+		store.remove(first);
+		store.remove(third);
+		assertEquals(1, store.size());
+		// Freed handles are reused last freed first, before any new one, and start unlinked
+		assertEquals(third, store.add(new MailItem(4, 6, 0, 400, false)));
+		assertEquals(MailStore.NONE, store.getLink(third));
+		assertEquals(first, store.add(new MailItem(5, 7, 0, 500, false)));
+		assertEquals(3, store.add(new MailItem(6, 8, 0, 600, false)));
+		assertEquals(4, store.getId(third));
+		assertEquals(2, store.getId(second));
+		assertEquals(7, store.getDestFloor(first));
+	}
+
+	@Test
+	public void growsPastOneChunkWithoutLosingItems() {
+		MailStore store = new MailStore();
+		int count = 100000;
+		for (int i = 0; i < count; i++) {
+			assertEquals(i, store.add(new MailItem(i, i % 50, i, i % 2000, i % 3 == 0)));
+			store.setLink(i, count - i);
+		}
+		for (int i = 0; i < count; i += 997) {
+			assertEquals(i, store.getId(i));
+			assertEquals(i % 50, store.getDestFloor(i));
+			assertEquals(i, store.getArrivalTime(i));
+			assertEquals(i % 2000, store.getWeight(i));
+			assertEquals(i % 3 == 0, store.getFragile(i));
+			assertEquals(count - i, store.getLink(i));
+		}
+		assertEquals(count, store.size());
+	}
+}
@@ -0,0 +1,173 @@
+package automail;
+
+import static automail.TestRuns.assertEquivalent;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import events.SilentEventSink;
+import exceptions.ExcessiveDeliveryException;
+import strategies.IndexedMailPool;
+
+/**
+ * Stepping robots on several threads must apply their effects in the same order as stepping
+ * them one after another
+ */
+public class ParallelStepperTest {
+
+	@Test
+	public void stepsRobotObjectsAsASerialStepDoes() throws Exception {
+		assertEquivalent(new String[] { "Robots=6" }, new String[] { "Step_Threads=1" }, new String[] { "Step_Threads=3" });
+	}
+
+	@Test
+	public void stepsAnArrayFleetAsASerialStepDoes() throws Exception {
+		assertEquivalent(new String[] { "Robots=6", "Fleet=arrays", "Tube_Slots=2" },
+				new String[] { "Step_Threads=1" }, new String[] { "Step_Threads=3" });
+	}
+
+	@Test
+	public void stepsAFleetSplitAcrossTasksAsASerialStepDoes() throws Exception {
+		// Enough robots for several tasks, most of them idle on any one tick
+		for (String fleet : new String[] { "Fleet=objects", "Fleet=arrays" }) {
+			assertEquivalent(new String[] { "Robots=300", fleet }, new String[] { "Step_Threads=1" },
+					new String[] { "Step_Threads=4" });
+		}
+	}
+
+	@Test
+	public void passesCallsStraightThroughUnlessBuffering() {
+		Effects effects = new Effects();
+		EffectBuffer buffer = effects.buffer();
+		buffer.deliver(effects.item(1));
+		buffer.mailWrapped(0, effects.item(2));
+		assertEquals(Arrays.asList("deliver 1", "wrapped 2"), effects.log);
+	}
+
+	@Test
+	public void appliesBufferedCallsInOrderWhenCommitted() {
+		Effects effects = new Effects();
+		EffectBuffer buffer = effects.buffer();
+		buffer.buffer();
+		buffer.mailUnwrapped(0, effects.item(1));
+		buffer.deliver(effects.item(1));
+		buffer.addToPool(effects.item(2));
+		buffer.reject(effects.item(3));
+		assertEquals(0, effects.log.size());
+		buffer.commit();
+		assertEquals(Arrays.asList("unwrapped 1", "deliver 1", "pool 2", "reject 3"), effects.log);
+		// Committing ends buffering
+		buffer.deliver(effects.item(4));
+		assertEquals("deliver 4", effects.log.get(4));
+	}
+
+	@Test
+	public void commitsUpToTheRobotThatFailedAndDiscardsTheRest() {
+		Effects effects = new Effects();
+		EffectBuffer[] buffers = { effects.buffer(), effects.buffer(), effects.buffer() };
+		for (int i = 0; i < buffers.length; i++) {
+			buffers[i].buffer();
+			buffers[i].deliver(effects.item(10 * i + 1));
+			buffers[i].deliver(effects.item(10 * i + 2));
+		}
+		buffers[1].thrown = new ExcessiveDeliveryException();
+		try {
+			EffectBuffer.commitAll(buffers);
+			fail("The failed robot's exception was not rethrown");
+		} catch (ExcessiveDeliveryException e) {
+			assertEquals(Arrays.asList("deliver 1", "deliver 2", "deliver 11", "deliver 12"), effects.log);
+		}
+		// The last robot's effects are gone, and every buffer passes calls through again
+		for (int i = 0; i < buffers.length; i++) {
+			buffers[i].deliver(effects.item(100 + i));
+		}
+		assertEquals(Arrays.asList("deliver 1", "deliver 2", "deliver 11", "deliver 12", "deliver 100", "deliver 101",
+				"deliver 102"), effects.log);
+		try {
+			EffectBuffer.commitAll(buffers);
+		} catch (ExcessiveDeliveryException e) {
+			fail("A robot's failure was rethrown twice");
+		}
+	}
+
+	@Test
+	public void commitsOnlyThePendingBuffersOfEachSegment() {
+		Effects effects = new Effects();
+		EffectBuffer idle = effects.buffer();
+		idle.buffer();
+		assertFalse(idle.settle());
+		idle.deliver(effects.item(1));
+		assertEquals(Arrays.asList("deliver 1"), effects.log);
+		EffectBuffer[][] pending = new EffectBuffer[3][2];
+		for (int s = 0; s < pending.length; s++) {
+			for (int i = 0; i < 2; i++) {
+				pending[s][i] = effects.buffer();
+				pending[s][i].buffer();
+				pending[s][i].deliver(effects.item(10 * s + i + 10));
+				assertTrue(pending[s][i].settle());
+			}
+		}
+		pending[1][0].thrown = new ExcessiveDeliveryException();
+		try {
+			EffectBuffer.commitAll(pending, new int[] { 2, 1, 2 });
+			fail("The failed robot's exception was not rethrown");
+		} catch (ExcessiveDeliveryException e) {
+			assertEquals(Arrays.asList("deliver 1", "deliver 10", "deliver 11", "deliver 20"), effects.log);
+		}
+		// The last segment's effects are gone, and its buffers pass calls through again
+		pending[2][1].deliver(effects.item(99));
+		assertEquals("deliver 99", effects.log.get(4));
+	}
+
+	/**
+	 * A pool, delivery and event sink that log what reaches them, in one list
+	 */
+	private static class Effects {
+
+		final List<String> log = new ArrayList<String>();
+
+		EffectBuffer buffer() {
+			IndexedMailPool pool = new IndexedMailPool(1) {
+				@Override
+				public void addToPool(MailItem mailItem) {
+					log.add("pool " + mailItem.getId());
+				}
+			};
+			IMailDelivery delivery = new IMailDelivery() {
+				public void deliver(MailItem mailItem) {
+					log.add("deliver " + mailItem.getId());
+				}
+
+				public void reject(MailItem mailItem) {
+					log.add("reject " + mailItem.getId());
+				}
+			};
+			SilentEventSink events = new SilentEventSink() {
+				@Override
+				public void mailWrapped(int time, MailItem mailItem) {
+					log.add("wrapped " + mailItem.getId());
+				}
+
+				@Override
+				public void mailUnwrapped(int time, MailItem mailItem) {
+					log.add("unwrapped " + mailItem.getId());
+				}
+			};
+			return new EffectBuffer(pool, delivery, events);
+		}
+
+		/**
+		 * @return an item whose id is the given number
+		 */
+		MailItem item(int id) {
+			return new MailItem(id, 5, 1, 100, false);
+		}
+	}
+}
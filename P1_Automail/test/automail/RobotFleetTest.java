@@ -0,0 +1,147 @@
+package automail;
+
+import static automail.TestRuns.assertEquivalent;
+import static automail.TestRuns.properties;
+import static automail.TestRuns.text;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.util.Properties;
+
+import org.junit.Test;
+
+import automail.Robot.RobotState;
+import events.ConsoleEventSink;
+import events.SilentEventSink;
+import exceptions.ExcessiveDeliveryException;
+import strategies.IMailPool;
+import strategies.IndexedMailPool;
+
+/**
+ * A fleet kept in arrays must behave exactly as one Robot object per robot, and its handles
+ * must show the pool the state kept in the arrays
+ */
+public class RobotFleetTest {
+
+	@Test
+	public void runsAsRobotObjectsDo() throws Exception {
+		assertEquivalent(new String[] {}, new String[] { "Fleet=objects" }, new String[] { "Fleet=arrays" });
+	}
+
+	@Test
+	public void runsAsRobotObjectsDoWithLargerTubes() throws Exception {
+		assertEquivalent(new String[] { "Tube_Slots=3", "Carry_Max_Weight=4000", "Engine=event" },
+				new String[] { "Fleet=objects" }, new String[] { "Fleet=arrays" });
+	}
+
+	@Test
+	public void handlesShowWhatTheFleetHolds() throws Exception {
+		SimulationContext context = new SimulationContext(12, 100, new SilentEventSink());
+		IMailPool pool = new IndexedMailPool(2);
+		RobotFleet fleet = new RobotFleet(2, new Simulation.ReportDelivery(context), pool, context,
+				properties("Tube_Slots=2", "Carry_Max_Weight=4000"));
+		Robot first = fleet.getRobots()[0];
+		Robot second = fleet.getRobots()[1];
+		MailItem hand = new MailItem(3, 1, 700, false, context);
+		MailItem tube = new MailItem(5, 1, 900, false, context);
+		first.addToHand(hand);
+		first.addToTube(tube);
+		assertFalse(first.handEmpty());
+		assertSame(tube, first.getTube());
+		assertFalse(first.tubeFull());
+		assertEquals(1600, first.getLoad());
+		assertFalse(first.isEmpty());
+		// The other robot's slots are its own
+		assertTrue(second.isEmpty());
+		assertNull(second.getTube());
+		assertEquals(0, second.getLoad());
+	}
+
+	@Test
+	public void travelsAndSkipsAsItsHandleSays() throws Throwable {
+		SimulationContext context = new SimulationContext(12, 100, new SilentEventSink());
+		RobotFleet fleet = new RobotFleet(1, new Simulation.ReportDelivery(context), new IndexedMailPool(1), context,
+				properties());
+		Robot robot = fleet.getRobots()[0];
+		fleet.step();
+		assertEquals(RobotState.WAITING, robot.getState());
+		assertEquals(Integer.MAX_VALUE, robot.idleSteps());
+		robot.addToHand(new MailItem(9, 1, 100, false, context));
+		robot.dispatch();
+		assertEquals(0, robot.idleSteps());
+		fleet.step();
+		assertEquals(RobotState.DELIVERING, robot.getState());
+		// From the mailroom on floor 1 to floor 9
+		assertEquals(8, robot.idleSteps());
+		robot.skip(5);
+		assertEquals(3, robot.idleSteps());
+	}
+
+	@Test
+	public void leavesOnTheStepItReturnsIfAlreadyDispatched() throws Throwable {
+		for (boolean arrays : new boolean[] { false, true }) {
+			SimulationContext context = new SimulationContext(12, 100, new SilentEventSink());
+			IMailPool pool = new IndexedMailPool(1);
+			Robot robot = arrays
+					? new RobotFleet(1, new Simulation.ReportDelivery(context), pool, context, properties()).getRobots()[0]
+					: new Robot(new Simulation.ReportDelivery(context), pool, context, properties());
+			// New robots are returning, at the mailroom
+			robot.addToHand(new MailItem(4, 1, 100, false, context));
+			robot.dispatch();
+			robot.step();
+			assertEquals(arrays ? "arrays" : "objects", RobotState.DELIVERING, robot.getState());
+		}
+	}
+
+	@Test
+	public void stepsThroughWrappingAsRobotObjectsDo() throws Exception {
+		// Fragile items, which robots wrap and unwrap, among normal ones, some arriving together
+		int[][] mail = { { 1, 7, 300, 1 }, { 1, 3, 500, 0 }, { 1, 9, 1500, 0 }, { 2, 12, 200, 1 }, { 2, 2, 1900, 0 },
+				{ 5, 6, 800, 0 }, { 5, 6, 100, 1 }, { 9, 11, 1200, 0 }, { 30, 4, 600, 1 }, { 30, 10, 400, 0 } };
+		for (String slots : new String[] { "1", "3" }) {
+			Properties properties = properties("Caution=true", "Fragile=true", "Tube_Slots=" + slots, "Carry_Max_Weight=4000");
+			assertEquals("Tube_Slots=" + slots, trace(mail, properties, false), trace(mail, properties, true));
+		}
+	}
+
+	/**
+	 * Runs the mail through two robots, stepping every tick
+	 * @return the run's trace
+	 */
+	private static String trace(int[][] mail, Properties properties, boolean arrays) throws Exception {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		PrintStream out = new PrintStream(bytes, false, "UTF-8");
+		SimulationContext context = new SimulationContext(12, 100, new ConsoleEventSink(out));
+		IMailPool pool = new IndexedMailPool(2);
+		IMailDelivery delivery = new Simulation.ReportDelivery(context);
+		RobotFleet fleet = null;
+		Robot[] robots;
+		if (arrays) {
+			fleet = new RobotFleet(2, delivery, pool, context, properties);
+			robots = fleet.getRobots();
+		} else {
+			robots = new Robot[] { new Robot(delivery, pool, context, properties), new Robot(delivery, pool, context, properties) };
+		}
+		ScriptedArrivals arrivals = new ScriptedArrivals(mail, pool, context);
+		try {
+			while (context.getDelivered() + context.getRejected() != mail.length) {
+				arrivals.step();
+				pool.step();
+				if (fleet != null) {
+					fleet.step();
+				} else {
+					for (Robot robot : robots) robot.step();
+				}
+				context.clock.Tick();
+			}
+		} catch (ExcessiveDeliveryException e) {
+			throw new AssertionError("A robot delivered more than it could carry", e);
+		}
+		return text(bytes, out);
+	}
+}
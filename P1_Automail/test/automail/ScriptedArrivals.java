@@ -0,0 +1,53 @@
+package automail;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import strategies.IMailPool;
+
+/**
+ * Mail arriving at given times, for tests which drive the robots or engines directly rather
+ * than through a Simulation
+ */
+class ScriptedArrivals implements IArrivalSource {
+
+	private final List<MailItem> mail = new ArrayList<MailItem>();
+	private final IMailPool pool;
+	private final SimulationContext context;
+	private int next;
+
+	/**
+	 * @param mail each item as { arrival time, floor }, weighing 100 grams, or as
+	 * { arrival time, floor, weight, 1 if fragile }, in arrival order
+	 * @param pool where the items go on arrival
+	 */
+	ScriptedArrivals(int[][] mail, IMailPool pool, SimulationContext context) {
+		for (int[] item : mail) {
+			int weight = item.length > 2 ? item[2] : 100;
+			boolean fragile = item.length > 3 && item[3] != 0;
+			this.mail.add(new MailItem(item[1], item[0], weight, fragile, context));
+		}
+		this.pool = pool;
+		this.context = context;
+	}
+
+	public int getMailToCreate() {
+		return mail.size();
+	}
+
+	public int nextArrivalTime(int time) {
+		return next < mail.size() ? Math.max(time, mail.get(next).getArrivalTime()) : Integer.MAX_VALUE;
+	}
+
+	public void step() {
+		while (next < mail.size() && mail.get(next).getArrivalTime() <= context.clock.Time()) {
+			MailItem mailItem = mail.get(next++);
+			context.events.mailArrived(context.clock.Time(), mailItem);
+			pool.addToPool(mailItem);
+		}
+	}
+
+	public void skipTo(int time) {
+		while (next < mail.size() && mail.get(next).getArrivalTime() < time) next++;
+	}
+}
@@ -0,0 +1,61 @@
+package automail;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Stopping as soon as an interval excludes the truth must be wrong no more often than the
+ * confidence allows, which looking at a plain interval after every run is not
+ */
+public class SequentialIntervalTest {
+
+	private static final int TRIALS = 4000;
+
+	@Test
+	public void looksAtMinRunsAndItsDoublings() {
+		SequentialInterval interval = new SequentialInterval(0.95, 1, 5, 200);
+		for (long runs : new long[] { 5, 10, 20, 40, 80, 160 }) {
+			assertTrue(runs + " runs", interval.isLook(runs));
+		}
+		for (long runs : new long[] { 4, 6, 15, 30, 100, 200 }) {
+			assertFalse(runs + " runs", interval.isLook(runs));
+		}
+		// Six doublings and the last look at 200
+		assertEquals(7, interval.looks());
+		assertEquals(1 - 0.05 / 7, interval.lookConfidence(), 1e-12);
+		assertEquals(1 - 0.05 / 14, new SequentialInterval(0.95, 2, 5, 200).lookConfidence(), 1e-12);
+	}
+
+	@Test
+	public void isWrongNoMoreOftenThanTheConfidenceAllows() {
+		SequentialInterval interval = new SequentialInterval(0.95, 1, 5, 200);
+		Random random = new Random(1);
+		int wrong = 0;
+		int wrongLookingEveryRun = 0;
+		for (int trial = 0; trial < TRIALS; trial++) {
+			RunningStatistics statistics = new RunningStatistics();
+			boolean stopped = false;
+			boolean stoppedLookingEveryRun = false;
+			for (int runs = 1; runs <= 200; runs++) {
+				statistics.add(random.nextGaussian());
+				// The true mean is 0, so any interval excluding it is a wrong verdict
+				if (runs >= 5 && !stoppedLookingEveryRun) {
+					stoppedLookingEveryRun = Math.abs(statistics.mean()) > statistics.halfWidth(0.95);
+				}
+				if ((interval.isLook(runs) || runs == 200) && !stopped) {
+					stopped = Math.abs(statistics.mean()) > interval.halfWidth(statistics);
+				}
+			}
+			if (stopped) wrong++;
+			if (stoppedLookingEveryRun) wrongLookingEveryRun++;
+		}
+		assertTrue("wrong in " + wrong + " of " + TRIALS, wrong <= 0.05 * TRIALS);
+		assertTrue("wrong in " + wrongLookingEveryRun + " of " + TRIALS + " looking every run",
+				wrongLookingEveryRun > 0.15 * TRIALS);
+	}
+}
@@ -0,0 +1,34 @@
+package automail;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import automail.Robot.RobotState;
+import events.SilentEventSink;
+
+/**
+ * The monitor's robot state counts must only change at the end of a tick, and must always
+ * add up to the whole fleet
+ */
+public class SimulationMonitorTest {
+
+	@Test
+	public void publishesTheStateCountsOnlyAtTheEndOfATick() {
+		SimulationMonitor monitor = new SimulationMonitor(new SilentEventSink(), 3);
+		assertEquals(3, monitor.getRobotStates().get("RETURNING").intValue());
+		monitor.robotStateChanged(0, 0, 0, RobotState.RETURNING, RobotState.WAITING);
+		monitor.robotStateChanged(0, 1, 0, RobotState.RETURNING, RobotState.WAITING);
+		// Half way through a tick the counts are still those of the tick before
+		assertEquals(3, monitor.getRobotStates().get("RETURNING").intValue());
+		assertEquals(0, monitor.getRobotStates().get("WAITING").intValue());
+		monitor.tick(0, 0, 2, 0);
+		assertEquals(1, monitor.getRobotStates().get("RETURNING").intValue());
+		assertEquals(2, monitor.getRobotStates().get("WAITING").intValue());
+		int total = 0;
+		for (int count : monitor.getRobotStates().values()) {
+			total += count;
+		}
+		assertEquals(3, total);
+	}
+}
@@ -0,0 +1,105 @@
+package automail;
+
+import static automail.TestRuns.assertSameResult;
+import static automail.TestRuns.assertSameRun;
+import static automail.TestRuns.properties;
+import static automail.TestRuns.run;
+import static automail.TestRuns.text;
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+
+import org.junit.Test;
+
+import automail.TestRuns.Run;
+import events.ConsoleEventSink;
+
+/**
+ * Each run keeps its state in its own SimulationContext, so runs made side by side in one
+ * JVM must each end as they would alone
+ */
+public class SimulationRunnerTest {
+
+	@Test
+	public void runsSeedsSideBySideAsEachRunsAlone() throws Exception {
+		Properties properties = properties("Caution=true", "Fragile=true");
+		List<Integer> seeds = Arrays.asList(1, 2, 3, 4, 5, 6, 7, 8);
+		SimulationRunner runner = new SimulationRunner(4);
+		try {
+			List<SimulationResult> results = runner.runSeeds(properties, seeds);
+			for (int i = 0; i < seeds.size(); i++) {
+				assertEquals(seeds.get(i), results.get(i).getSeed());
+				assertSameResult("Seed=" + seeds.get(i), run(properties, seeds.get(i)).result, results.get(i));
+			}
+		} finally {
+			runner.shutdown();
+		}
+	}
+
+	@Test
+	public void runsDifferentConfigurationsSideBySide() throws Exception {
+		List<Properties> configurations = new ArrayList<Properties>();
+		configurations.add(properties("Seed=3", "Robots=2"));
+		configurations.add(properties("Seed=3", "Robots=5", "Tube_Slots=3", "Carry_Max_Weight=4000"));
+		configurations.add(properties("Seed=4", "MailPool=strategies.MailPool", "Caution=true"));
+		SimulationRunner runner = new SimulationRunner(3);
+		try {
+			List<SimulationResult> results = runner.runConfigurations(configurations);
+			for (int i = 0; i < configurations.size(); i++) {
+				int seed = Integer.parseInt(configurations.get(i).getProperty("Seed"));
+				assertSameResult("configuration " + i, run(configurations.get(i), seed).result, results.get(i));
+			}
+		} finally {
+			runner.shutdown();
+		}
+	}
+
+	@Test
+	public void givesTheSameResultsToTheStoppingRuleWhateverTheThreads() throws Exception {
+		Properties properties = properties();
+		List<SimulationResult> serial = resultsUntilFifth(new SimulationRunner(1), properties);
+		List<SimulationResult> parallel = resultsUntilFifth(new SimulationRunner(3), properties);
+		assertEquals(5, serial.size());
+		assertEquals(5, parallel.size());
+		for (int i = 0; i < 5; i++) {
+			assertEquals(Integer.valueOf(10 + i), parallel.get(i).getSeed());
+			assertSameResult("run " + i, serial.get(i), parallel.get(i));
+		}
+	}
+
+	@Test
+	public void keepsTheIdsOfARunToItself() throws Exception {
+		Properties properties = properties("Caution=true", "Fragile=true");
+		Run alone = run(properties, 42);
+		// The second simulation is set up, and run, while the first is waiting to run
+		ByteArrayOutputStream firstBytes = new ByteArrayOutputStream();
+		PrintStream firstOut = new PrintStream(firstBytes, false, "UTF-8");
+		ConsoleEventSink firstEvents = new ConsoleEventSink(firstOut);
+		Simulation first = new Simulation(properties, 42, firstEvents);
+		Run second = run(properties, 42);
+		Run firstRun = new Run(run(first, firstEvents), text(firstBytes, firstOut));
+		assertSameRun("first", alone, firstRun);
+		assertSameRun("second", alone, second);
+	}
+
+	private static List<SimulationResult> resultsUntilFifth(SimulationRunner runner, Properties properties)
+			throws Exception {
+		final List<SimulationResult> results = new ArrayList<SimulationResult>();
+		try {
+			runner.runSeedsUntil(properties, 10, 20, new SimulationRunner.IStoppingRule() {
+				public boolean add(SimulationResult result) {
+					results.add(result);
+					return results.size() == 5;
+				}
+			});
+		} finally {
+			runner.shutdown();
+		}
+		return results;
+	}
+}
@@ -0,0 +1,184 @@
+package automail;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.io.UnsupportedEncodingException;
+import java.util.Properties;
+
+import events.ConsoleEventSink;
+import events.IEventSink;
+import exceptions.ExcessiveDeliveryException;
+
+/**
+ * Runs small simulations with fixed seeds for the equivalence tests, keeping the text trace
+ * ConsoleEventSink writes so that two ways of running the same simulation can be compared
+ * byte for byte.
+ */
+public final class TestRuns {
+
+	/** The seeds every equivalence is checked with */
+	public static final int[] SEEDS = { 1, 42, 30006 };
+
+	/** Caution and Fragile together, and neither, which between them cover every robot state */
+	public static final String[][] MODES = { { "Caution=false", "Fragile=false" }, { "Caution=true", "Fragile=true" } };
+
+	/**
+	 * A finished run: its result and its trace
+	 */
+	public static class Run {
+
+		public final SimulationResult result;
+		public final String trace;
+
+		Run(SimulationResult result, String trace) {
+			this.result = result;
+			this.trace = trace;
+		}
+	}
+
+	private TestRuns() {
+	}
+
+	/**
+	 * @param overrides properties as name=value, applied in order on top of the defaults
+	 * @return the properties of automail.properties as shipped, with the overrides applied
+	 */
+	public static Properties properties(String... overrides) {
+		Properties properties = new Properties();
+		properties.setProperty("Floors", "12");
+		properties.setProperty("Mail_to_Create", "200");
+		properties.setProperty("Mail_Max_Weight", "2000");
+		properties.setProperty("Last_Delivery_Time", "120");
+		properties.setProperty("Robots", "3");
+		properties.setProperty("Tube_Slots", "1");
+		properties.setProperty("Carry_Max_Weight", "0");
+		properties.setProperty("MailPool", "strategies.IndexedMailPool");
+		properties.setProperty("Caution", "false");
+		properties.setProperty("Fragile", "false");
+		properties.setProperty("Statistics", "false");
+		properties.setProperty("Jmx", "false");
+		properties.setProperty("Engine", "tick");
+		properties.setProperty("Mail_Generation", "eager");
+		properties.setProperty("Mail_Stream_Window", "1000000");
+		properties.setProperty("Fleet", "objects");
+		properties.setProperty("Step_Threads", "1");
+		properties.setProperty("Checkpoint_Interval", "0");
+		for (String override : overrides) {
+			int equals = override.indexOf('=');
+			properties.setProperty(override.substring(0, equals), override.substring(equals + 1));
+		}
+		return properties;
+	}
+
+	/**
+	 * @return the given overrides followed by the extra ones
+	 */
+	public static String[] with(String[] overrides, String... extra) {
+		String[] all = new String[overrides.length + extra.length];
+		System.arraycopy(overrides, 0, all, 0, overrides.length);
+		System.arraycopy(extra, 0, all, overrides.length, extra.length);
+		return all;
+	}
+
+	/**
+	 * Runs a simulation with its trace written as text
+	 */
+	public static Run run(Properties properties, int seed) throws Exception {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		PrintStream out = new PrintStream(bytes, false, "UTF-8");
+		IEventSink events = new ConsoleEventSink(out);
+		SimulationResult result = run(properties, seed, events);
+		return new Run(result, text(bytes, out));
+	}
+
+	/**
+	 * Runs a simulation, reporting to the given sink, which is closed at the end
+	 */
+	public static SimulationResult run(Properties properties, int seed, IEventSink events) throws Exception {
+		return run(new Simulation(properties, seed, events), events);
+	}
+
+	/**
+	 * Runs a simulation which has already been set up, closing the sink it reports to at the end
+	 */
+	public static SimulationResult run(Simulation simulation, IEventSink events) throws Exception {
+		try {
+			return simulation.run();
+		} catch (ExcessiveDeliveryException e) {
+			throw new AssertionError("A robot delivered more than it could carry", e);
+		} finally {
+			events.close();
+		}
+	}
+
+	/**
+	 * @return everything written to the stream so far
+	 */
+	public static String text(ByteArrayOutputStream bytes, PrintStream out) throws UnsupportedEncodingException {
+		out.flush();
+		return bytes.toString("UTF-8");
+	}
+
+	/**
+	 * Checks that two runs ended the same way and wrote the same trace
+	 * @param what the runs being compared, for the failure message
+	 */
+	public static void assertSameRun(String what, Run expected, Run actual) {
+		assertSameResult(what, expected.result, actual.result);
+		assertEquals(what + ": trace", expected.trace, actual.trace);
+	}
+
+	public static void assertSameResult(String what, SimulationResult expected, SimulationResult actual) {
+		assertEquals(what + ": final time", expected.getFinalTime(), actual.getFinalTime());
+		assertEquals(what + ": score", expected.getScore(), actual.getScore(), 0);
+		assertEquals(what + ": delivered", expected.getDelivered(), actual.getDelivered());
+		assertEquals(what + ": rejected", expected.getRejected(), actual.getRejected());
+	}
+
+	/** The line the pools write each time they try to load a robot */
+	public static final String POOL_CHECK = "NEXT EXISTS";
+
+	/**
+	 * Runs each seed and mode with the common overrides plus each side's own, and checks that
+	 * the two sides run identically
+	 */
+	public static void assertEquivalent(String[] common, String[] expected, String[] actual) throws Exception {
+		assertEquivalent(common, expected, actual, false);
+	}
+
+	/**
+	 * As assertEquivalent, optionally leaving out the POOL_CHECK lines, which the event engine
+	 * does not write on the idle ticks it skips
+	 */
+	public static void assertEquivalent(String[] common, String[] expected, String[] actual, boolean ignorePoolChecks)
+			throws Exception {
+		for (String[] mode : MODES) {
+			for (int seed : SEEDS) {
+				String[] both = with(mode, common);
+				String what = String.join(";", with(both, "Seed=" + seed));
+				Run a = run(properties(with(both, expected)), seed);
+				Run b = run(properties(with(both, actual)), seed);
+				if (ignorePoolChecks) {
+					a = new Run(a.result, withoutPoolChecks(a.trace));
+					b = new Run(b.result, withoutPoolChecks(b.trace));
+				}
+				assertSameRun(what, a, b);
+			}
+		}
+	}
+
+	/**
+	 * @return the trace without its POOL_CHECK lines
+	 */
+	public static String withoutPoolChecks(String trace) {
+		StringBuilder kept = new StringBuilder(trace.length());
+		for (String line : trace.split("\n", -1)) {
+			if (line.equals(POOL_CHECK)) continue;
+			if (kept.length() > 0) kept.append('\n');
+			kept.append(line);
+		}
+		return kept.toString();
+	}
+}
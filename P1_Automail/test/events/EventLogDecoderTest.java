@@ -0,0 +1,58 @@
+package events;
+
+import static automail.TestRuns.MODES;
+import static automail.TestRuns.SEEDS;
+import static automail.TestRuns.properties;
+import static automail.TestRuns.run;
+import static automail.TestRuns.text;
+import static automail.TestRuns.with;
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.util.Properties;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import automail.TestRuns.Run;
+
+/**
+ * A binary event log, decoded, must read exactly as the trace the console sink writes
+ */
+public class EventLogDecoderTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void decodesToTheConsoleTrace() throws Exception {
+		assertDecodes();
+	}
+
+	@Test
+	public void decodesToTheConsoleTraceWithLargerTubes() throws Exception {
+		assertDecodes("Tube_Slots=3", "Carry_Max_Weight=4000", "Robots=5");
+	}
+
+	private void assertDecodes(String... overrides) throws Exception {
+		for (String[] mode : MODES) {
+			for (int seed : SEEDS) {
+				Properties properties = properties(with(mode, overrides));
+				Run console = run(properties, seed);
+				File log = folder.newFile();
+				run(properties, seed, new BinaryEventSink(log.getPath()));
+				ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+				PrintStream out = new PrintStream(bytes, false, "UTF-8");
+				try (InputStream in = new FileInputStream(log)) {
+					EventLogDecoder.decode(in, new ConsoleEventSink(out));
+				}
+				assertEquals(String.join(";", with(mode, "Seed=" + seed)), console.trace, text(bytes, out));
+			}
+		}
+	}
+}
@@ -0,0 +1,87 @@
+package strategies;
+
+import static automail.TestRuns.properties;
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import automail.MailItem;
+import automail.Robot;
+import automail.Simulation;
+import automail.SimulationContext;
+import events.SilentEventSink;
+
+/**
+ * AgeAwareMailPool must send mail of the same age nearest first, let old mail overtake
+ * newer mail for a closer floor, and pack mail on the way up into the tube
+ */
+public class AgeAwareMailPoolTest {
+
+	@Test
+	public void ranksMailOfTheSameAgeNearestFirst() {
+		Pool pool = new Pool();
+		pool.add(1, 5, 0);
+		pool.add(2, 2, 0);
+		pool.add(3, 8, 0);
+		pool.add(4, 2, 0);
+		assertEquals("[2, 4, 1, 3]", waiting(pool.pool));
+	}
+
+	@Test
+	public void loadsOldMailAheadOfNewerMailForACloserFloor() throws Exception {
+		Pool pool = new Pool();
+		pool.add(1, 3, 0);
+		pool.add(2, 2, 199);
+		pool.add(3, 2, 200);
+		pool.context.clock.Tick(200);
+		// Nearest first would take both items for floor 2 and leave the oldest waiting
+		pool.load();
+		assertEquals(2, pool.robot.getTube().getId());
+		assertEquals("[3]", waiting(pool.pool));
+	}
+
+	@Test
+	public void restoresFromItsSnapshot() {
+		Pool pool = new Pool();
+		pool.add(1, 5, 0);
+		pool.add(2, 2, 40);
+		pool.add(3, 9, 3);
+		pool.add(4, 5, 10);
+		pool.add(5, 2, 41);
+		AgeAwareMailPool restored = new AgeAwareMailPool(1);
+		for (MailItem mailItem : pool.pool.snapshotMail()) {
+			restored.addToPool(mailItem);
+		}
+		assertEquals(waiting(pool.pool), waiting(restored));
+	}
+
+	private static String waiting(IMailPool pool) {
+		List<Integer> ids = new ArrayList<Integer>();
+		for (MailItem mailItem : pool.snapshotMail()) {
+			ids.add(mailItem.getId());
+		}
+		return ids.toString();
+	}
+
+	/**
+	 * An AgeAwareMailPool loading one robot with a one-slot tube
+	 */
+	private static class Pool {
+
+		final SimulationContext context = new SimulationContext(12, 1000, new SilentEventSink());
+		final AgeAwareMailPool pool = new AgeAwareMailPool(1);
+		final Robot robot = new Robot(new Simulation.ReportDelivery(context), pool, context, properties());
+
+		void add(int id, int floor, int arrival) {
+			pool.addToPool(new MailItem(id, floor, arrival, 100, false));
+		}
+
+		void load() throws Exception {
+			pool.registerWaiting(robot);
+			pool.step();
+		}
+	}
+}
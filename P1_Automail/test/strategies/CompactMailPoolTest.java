@@ -0,0 +1,114 @@
+package strategies;
+
+import static automail.TestRuns.assertEquivalent;
+import static automail.TestRuns.properties;
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import automail.MailItem;
+import automail.Robot;
+import automail.Simulation;
+import automail.SimulationContext;
+import events.SilentEventSink;
+
+/**
+ * CompactMailPool keeps its mail in primitive arrays instead of objects, but must load
+ * robots exactly as IndexedMailPool does
+ */
+public class CompactMailPoolTest {
+
+	private static final String[] INDEXED = { "MailPool=strategies.IndexedMailPool" };
+	private static final String[] COMPACT = { "MailPool=strategies.CompactMailPool" };
+
+	@Test
+	public void loadsRobotsAsIndexedMailPoolDoes() throws Exception {
+		assertEquivalent(new String[] {}, INDEXED, COMPACT);
+	}
+
+	@Test
+	public void loadsRobotsAsIndexedMailPoolDoesWithACarryLimit() throws Exception {
+		assertEquivalent(new String[] { "Tube_Slots=3", "Carry_Max_Weight=4000", "Robots=5" }, INDEXED, COMPACT);
+	}
+
+	@Test
+	public void unlinksAMiddleItemAndTheTail() throws Exception {
+		Pool pool = new Pool();
+		pool.add(1, 2, 100);
+		pool.add(2, 3, 1950);
+		pool.add(3, 3, 300);
+		pool.add(4, 3, 1500);
+		// 100 in the hand, then 1950 is too heavy and is passed over for 300 and 1500
+		assertEquals(1900, pool.load());
+		assertEquals("[2]", pool.waiting());
+		// The skipped item is now the floor's head and tail, and new mail queues after it
+		pool.add(5, 3, 200);
+		pool.add(6, 3, 400);
+		assertEquals("[2, 5, 6]", pool.waiting());
+	}
+
+	@Test
+	public void unlinksAMiddleItemAndKeepsTheTail() throws Exception {
+		Pool pool = new Pool();
+		pool.add(1, 2, 100);
+		pool.add(2, 3, 1950);
+		pool.add(3, 3, 300);
+		pool.add(4, 3, 1800);
+		assertEquals(400, pool.load());
+		assertEquals("[2, 4]", pool.waiting());
+		pool.add(5, 3, 200);
+		assertEquals("[2, 4, 5]", pool.waiting());
+	}
+
+	@Test
+	public void unlinksTheHeadsOfEveryFloorItEmpties() throws Exception {
+		Pool pool = new Pool();
+		pool.add(1, 2, 100);
+		pool.add(2, 4, 200);
+		pool.add(3, 6, 300);
+		pool.add(4, 6, 1800);
+		assertEquals(600, pool.load());
+		assertEquals("[4]", pool.waiting());
+		pool.add(5, 2, 100);
+		pool.add(6, 4, 100);
+		assertEquals("[5, 6, 4]", pool.waiting());
+	}
+
+	/**
+	 * A CompactMailPool loading one robot whose tube holds two items and which carries at most 2000
+	 */
+	private static class Pool {
+
+		final SimulationContext context = new SimulationContext(12, 100, new SilentEventSink());
+		final CompactMailPool pool = new CompactMailPool(1);
+		final Robot robot = new Robot(new Simulation.ReportDelivery(context), pool, context,
+				properties("Tube_Slots=2", "Carry_Max_Weight=2000"));
+
+		void add(int id, int floor, int weight) {
+			pool.addToPool(new MailItem(id, floor, 0, weight, false));
+		}
+
+		/**
+		 * @return the weight the robot was loaded with
+		 */
+		int load() throws Exception {
+			pool.registerWaiting(robot);
+			pool.step();
+			return robot.getLoad();
+		}
+
+		/**
+		 * @return the ids of the waiting mail, in priority order
+		 */
+		String waiting() {
+			List<Integer> ids = new ArrayList<Integer>();
+			for (MailItem mailItem : pool.snapshotMail()) {
+				ids.add(mailItem.getId());
+			}
+			return ids.toString();
+		}
+	}
+}
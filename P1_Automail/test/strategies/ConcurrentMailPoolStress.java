@@ -0,0 +1,255 @@
+package strategies;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Properties;
+import java.util.Random;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import automail.IMailDelivery;
+import automail.MailItem;
+import automail.Robot;
+import automail.SimulationContext;
+import automail.TestRuns;
+import events.SilentEventSink;
+import exceptions.BreakingFragileItemException;
+import exceptions.ItemTooHeavyException;
+
+/**
+ * Stress test for ConcurrentMailPool: producer threads add mail while a dispatcher thread
+ * steps the pool and robot threads register robots as they come back. At the end it checks
+ * that every item was handed out exactly once, and that each floor's mail was handed out in
+ * the order each producer added it. The rounds take turns at normal mail, fragile mail, and
+ * normal mail for robots with a three-slot tube and a carry limit, which no load may exceed.
+ * ConcurrentMailPoolTest runs a short round of each kind; run this on its own for a longer soak.
+ *
+ * Usage: ConcurrentMailPoolStress [producers] [items per producer] [robots] [rounds]
+ */
+public class ConcurrentMailPoolStress {
+
+	/** The carry limit of the robots in the carry-limited rounds */
+	private static final int CARRY_MAX_WEIGHT = 3000;
+	private static final int FLOORS = 12;
+	private static final int LAST_DELIVERY_TIME = 120;
+
+	/**
+	 * A robot which records what it is loaded with, and is sent back to be registered again
+	 * as soon as it is dispatched
+	 */
+	private static class CollectingRobot extends Robot {
+
+		private final List<MailItem> taken;
+		private final BlockingQueue<CollectingRobot> returning;
+		/** The heaviest load any robot has been dispatched with */
+		private final AtomicInteger heaviest;
+		private final List<MailItem> tube = new ArrayList<MailItem>();
+		private MailItem hand, special;
+
+		CollectingRobot(IMailDelivery delivery, IMailPool mailPool, SimulationContext context, Properties properties,
+				List<MailItem> taken, BlockingQueue<CollectingRobot> returning, AtomicInteger heaviest) {
+			super(delivery, mailPool, context, properties);
+			this.taken = taken;
+			this.returning = returning;
+			this.heaviest = heaviest;
+		}
+
+		@Override
+		public void addToHand(MailItem mailItem) throws ItemTooHeavyException, BreakingFragileItemException {
+			hand = mailItem;
+			taken.add(mailItem);
+		}
+
+		@Override
+		public void addToTube(MailItem mailItem) throws ItemTooHeavyException, BreakingFragileItemException {
+			tube.add(mailItem);
+			taken.add(mailItem);
+		}
+
+		@Override
+		public void addToSpecialHand(MailItem mailItem) throws ItemTooHeavyException {
+			special = mailItem;
+			taken.add(mailItem);
+		}
+
+		@Override
+		public boolean handEmpty() {
+			return hand == null;
+		}
+
+		@Override
+		public boolean tubeEmpty() {
+			return tube.isEmpty();
+		}
+
+		@Override
+		public boolean tubeFull() {
+			return tube.size() >= getTubeSlots();
+		}
+
+		@Override
+		public int getLoad() {
+			int load = 0;
+			if (hand != null) load += hand.getWeight();
+			for (MailItem mailItem : tube) load += mailItem.getWeight();
+			if (special != null) load += special.getWeight();
+			return load;
+		}
+
+		@Override
+		public boolean specialEmpty() {
+			return special == null;
+		}
+
+		@Override
+		public void dispatch() {
+			int load = getLoad();
+			if (load > heaviest.get()) heaviest.set(load);
+			hand = special = null;
+			tube.clear();
+			returning.add(this);
+		}
+	}
+
+	public static void main(String[] args) throws InterruptedException {
+		int producers = args.length > 0 ? Integer.parseInt(args[0]) : 4;
+		int perProducer = args.length > 1 ? Integer.parseInt(args[1]) : 200000;
+		int robots = args.length > 2 ? Integer.parseInt(args[2]) : 8;
+		int rounds = args.length > 3 ? Integer.parseInt(args[3]) : 6;
+		boolean failed = false;
+		for (int round = 0; round < rounds; round++) {
+			boolean fragile = round % 3 == 1;
+			boolean limited = round % 3 == 2;
+			long started = System.nanoTime();
+			String problem = round(producers, perProducer, robots, fragile, limited, round);
+			System.out.printf("Round %d (%s): %s in %.2f s%n", round, fragile ? "fragile" : limited ? "carry limit" : "normal",
+					problem == null ? "ok" : problem, (System.nanoTime() - started) / 1e9);
+			failed |= problem != null;
+		}
+		if (failed) System.exit(1);
+	}
+
+	/**
+	 * @return a description of the first problem found, or null if there was none
+	 */
+	static String round(int producers, int perProducer, int robots, boolean fragile, boolean limited, long seed)
+			throws InterruptedException {
+		final SimulationContext context = new SimulationContext(FLOORS, LAST_DELIVERY_TIME, new SilentEventSink());
+		Properties properties = TestRuns.properties("Caution=true", "Fragile=" + fragile);
+		if (limited) {
+			properties.setProperty("Tube_Slots", "3");
+			properties.setProperty("Carry_Max_Weight", String.valueOf(CARRY_MAX_WEIGHT));
+		}
+		AtomicInteger heaviest = new AtomicInteger();
+		final ConcurrentMailPool pool = new ConcurrentMailPool(robots);
+		final int total = producers * perProducer;
+		final MailItem[][] mail = new MailItem[producers][];
+		for (int p = 0; p < producers; p++) {
+			mail[p] = mail(context, perProducer, fragile, seed * producers + p);
+		}
+		final List<MailItem> taken = new ArrayList<MailItem>(total);
+		final BlockingQueue<CollectingRobot> returning = new LinkedBlockingQueue<CollectingRobot>();
+		for (int r = 0; r < robots; r++) {
+			pool.registerWaiting(new CollectingRobot(null, pool, context, properties, taken, returning, heaviest));
+		}
+
+		final CountDownLatch start = new CountDownLatch(1);
+		List<Thread> threads = new ArrayList<Thread>();
+		for (int p = 0; p < producers; p++) {
+			final MailItem[] items = mail[p];
+			threads.add(new Thread(new Runnable() {
+				public void run() {
+					awaitQuietly(start);
+					for (MailItem mailItem : items) pool.addToPool(mailItem);
+				}
+			}, "producer-" + p));
+		}
+		final AtomicInteger done = new AtomicInteger();
+		// Robots come back from their deliveries on their own thread
+		threads.add(new Thread(new Runnable() {
+			public void run() {
+				awaitQuietly(start);
+				try {
+					while (done.get() == 0) {
+						CollectingRobot robot = returning.poll(1, TimeUnit.MILLISECONDS);
+						if (robot != null) pool.registerWaiting(robot);
+					}
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		}, "robots"));
+		final Throwable[] dispatchFailure = new Throwable[1];
+		Thread dispatcher = new Thread(new Runnable() {
+			public void run() {
+				awaitQuietly(start);
+				try {
+					while (taken.size() < total) pool.step();
+				} catch (Throwable e) {
+					dispatchFailure[0] = e;
+				}
+				done.set(1);
+			}
+		}, "dispatcher");
+		threads.add(dispatcher);
+		for (Thread thread : threads) thread.start();
+		start.countDown();
+		dispatcher.join(TimeUnit.MINUTES.toMillis(5));
+		done.set(1);
+		for (Thread thread : threads) thread.join();
+
+		if (dispatchFailure[0] != null) return "dispatcher failed: " + dispatchFailure[0];
+		if (taken.size() != total) return "handed out " + taken.size() + " of " + total + " items";
+		if (pool.size() != 0) return "pool size is " + pool.size() + " after every item was handed out";
+		if (limited && heaviest.get() > CARRY_MAX_WEIGHT) {
+			return "a robot was dispatched with " + heaviest.get() + "g, over its carry limit of " + CARRY_MAX_WEIGHT + "g";
+		}
+		BitSet seen = new BitSet();
+		for (MailItem mailItem : taken) {
+			if (seen.get(mailItem.getId())) return "item " + mailItem.getId() + " handed out twice";
+			seen.set(mailItem.getId());
+		}
+		// Ids increase in the order each producer added its mail, so within a floor the ids
+		// of one producer's items must be handed out in increasing order
+		int[] position = new int[seen.length()];
+		for (int i = 0; i < taken.size(); i++) position[taken.get(i).getId()] = i;
+		for (int p = 0; p < producers; p++) {
+			int[] last = new int[FLOORS + 1];
+			Arrays.fill(last, -1);
+			for (MailItem mailItem : mail[p]) {
+				int floor = mailItem.getDestFloor();
+				if (position[mailItem.getId()] < last[floor]) {
+					return "item " + mailItem.getId() + " for floor " + floor + " overtook an earlier item";
+				}
+				last[floor] = position[mailItem.getId()];
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * @return mail with random destinations and weights a robot can carry
+	 */
+	private static MailItem[] mail(SimulationContext context, int count, boolean fragile, long seed) {
+		Random random = new Random(seed);
+		MailItem[] mail = new MailItem[count];
+		for (int i = 0; i < count; i++) {
+			mail[i] = new MailItem(1 + random.nextInt(FLOORS), 1 + random.nextInt(LAST_DELIVERY_TIME),
+					200 + random.nextInt(Robot.INDIVIDUAL_MAX_WEIGHT - 200), fragile && random.nextInt(4) == 0, context);
+		}
+		return mail;
+	}
+
+	private static void awaitQuietly(CountDownLatch latch) {
+		try {
+			latch.await();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+}
@@ -0,0 +1,31 @@
+package strategies;
+
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+
+/**
+ * ConcurrentMailPool must hand out every item exactly once, in each producer's order within a
+ * floor, and within the robots' carry limit, while producers add mail from several threads
+ */
+public class ConcurrentMailPoolTest {
+
+	private static final int PRODUCERS = 4;
+	private static final int ITEMS = 20000;
+	private static final int ROBOTS = 8;
+
+	@Test
+	public void handsOutNormalMailOnceAndInOrder() throws Exception {
+		assertNull(ConcurrentMailPoolStress.round(PRODUCERS, ITEMS, ROBOTS, false, false, 1));
+	}
+
+	@Test
+	public void handsOutFragileMailOnceAndInOrder() throws Exception {
+		assertNull(ConcurrentMailPoolStress.round(PRODUCERS, ITEMS, ROBOTS, true, false, 2));
+	}
+
+	@Test
+	public void keepsEveryLoadWithinTheCarryLimit() throws Exception {
+		assertNull(ConcurrentMailPoolStress.round(PRODUCERS, ITEMS, ROBOTS, false, true, 3));
+	}
+}
@@ -0,0 +1,80 @@
+package strategies;
+
+import static automail.TestRuns.assertEquivalent;
+import static automail.TestRuns.properties;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import automail.MailItem;
+import automail.Robot;
+import automail.Simulation;
+import automail.SimulationContext;
+import events.SilentEventSink;
+
+/**
+ * MailPool keeps fragile and normal mail apart, but must load robots, and reject fragile
+ * mail, in exactly the order the single sorted list it replaced did
+ */
+public class MailPoolTest {
+
+	private static final String[] SORTED = { "MailPool=strategies.SortedListMailPool" };
+	private static final String[] PARTITIONED = { "MailPool=strategies.MailPool" };
+
+	@Test
+	public void loadsAsTheSortedListDid() throws Exception {
+		assertEquivalent(new String[] {}, SORTED, PARTITIONED);
+	}
+
+	@Test
+	public void loadsAndRejectsAsTheSortedListDidWithFragileMail() throws Exception {
+		// With Caution on and off: fragile mail is either carried or rejected
+		assertEquivalent(new String[] { "Fragile=true", "Robots=5" }, SORTED, PARTITIONED);
+	}
+
+	@Test
+	public void rejectsTheFragileMailAheadOfEachNormalItemTogether() throws Exception {
+		SimulationContext context = new SimulationContext(12, 100, new SilentEventSink());
+		final List<Integer> rejected = new ArrayList<Integer>();
+		MailPool pool = new MailPool(1);
+		Robot robot = new Robot(new Simulation.ReportDelivery(context) {
+			@Override
+			public void reject(MailItem mailItem) {
+				rejected.add(mailItem.getId());
+				super.reject(mailItem);
+			}
+		}, pool, context, properties("Caution=false", "Fragile=true"));
+		MailItem hand = new MailItem(3, 3, 0, 100, false);
+		MailItem tube = new MailItem(6, 5, 0, 100, false);
+		MailItem left = new MailItem(8, 7, 0, 100, false);
+		pool.addToPool(new MailItem(1, 2, 0, 100, true));
+		pool.addToPool(new MailItem(2, 2, 0, 100, true));
+		pool.addToPool(hand);
+		pool.addToPool(new MailItem(4, 3, 0, 100, true));
+		pool.addToPool(new MailItem(5, 4, 0, 100, true));
+		pool.addToPool(tube);
+		pool.addToPool(new MailItem(7, 6, 0, 100, true));
+		pool.addToPool(left);
+		pool.addToPool(new MailItem(9, 9, 0, 100, true));
+		pool.registerWaiting(robot);
+		pool.step();
+		// Those ahead of the hand's item, those between it and the tube's, then those before the next normal item
+		assertEquals(Arrays.asList(1, 2, 4, 5, 7), rejected);
+		assertEquals(Arrays.asList(left.getId(), 9), ids(pool.snapshotMail()));
+		assertSame(tube, robot.getTube());
+		assertEquals(0, pool.waitingRobots());
+	}
+
+	private static List<Integer> ids(List<MailItem> mail) {
+		List<Integer> ids = new ArrayList<Integer>();
+		for (MailItem mailItem : mail) {
+			ids.add(mailItem.getId());
+		}
+		return ids;
+	}
+}
@@ -0,0 +1,136 @@
+package strategies;
+
+import static automail.TestRuns.assertEquivalent;
+import static automail.TestRuns.properties;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import automail.MailItem;
+import automail.Robot;
+import automail.Simulation;
+import automail.SimulationContext;
+import events.SilentEventSink;
+
+/**
+ * The pools which pack a trip by weight must pass over items too heavy for what the robot
+ * already carries, but only so far, and must load exactly as before with a one-slot tube and
+ * no carry limit
+ */
+public class PackingTest {
+
+	private static final String[] POOLS = { "strategies.IndexedMailPool", "strategies.CompactMailPool" };
+	/** How many items too heavy to pack the pools pass over before giving up */
+	private static final int LOOKAHEAD = 8;
+
+	@Test
+	public void loadsAsTheSortedListDidWithOneSlotAndNoLimit() throws Exception {
+		for (String pool : POOLS) {
+			assertEquivalent(new String[] { "Robots=4" }, new String[] { "MailPool=strategies.SortedListMailPool" },
+					new String[] { "MailPool=" + pool });
+		}
+	}
+
+	@Test
+	public void packsALighterItemPastAHeavierOne() throws Exception {
+		for (String name : POOLS) {
+			Trip trip = new Trip(name, 3);
+			trip.add(1, 2, 500);
+			trip.add(2, 4, 1600);
+			trip.add(3, 4, 700);
+			trip.add(4, 5, 1000);
+			trip.add(5, 6, 300);
+			// 500 in the hand: 1600 is too heavy, 700 fits, 1000 is too heavy again, 300 fits
+			assertEquals(name, 1500, trip.load());
+			assertEquals(name, "[2, 4]", trip.waiting());
+		}
+	}
+
+	@Test
+	public void givesUpAfterPassingOverTooManyItems() throws Exception {
+		for (String name : POOLS) {
+			for (int heavy : new int[] { LOOKAHEAD, LOOKAHEAD + 1 }) {
+				Trip trip = new Trip(name, 2);
+				trip.add(1, 1, 500);
+				for (int i = 0; i < heavy; i++) {
+					trip.add(10 + i, 2 + i % 5, 1600);
+				}
+				trip.add(99, 10, 200);
+				int load = trip.load();
+				if (heavy == LOOKAHEAD) {
+					assertEquals(name + " with " + heavy + " heavy items", 700, load);
+				} else {
+					assertEquals(name + " with " + heavy + " heavy items", 500, load);
+					assertEquals(name, heavy + 1, trip.pool.size());
+				}
+			}
+		}
+	}
+
+	@Test
+	public void refusesACarryLimitBelowTheHeaviestItem() {
+		for (int limit : new int[] { -1, 1, 1000, Robot.INDIVIDUAL_MAX_WEIGHT - 1 }) {
+			try {
+				new Trip("strategies.IndexedMailPool", 1, limit);
+				fail("Carry_Max_Weight=" + limit + " was accepted");
+			} catch (IllegalArgumentException e) {
+				// Refused, as it should be
+			}
+		}
+		for (int limit : new int[] { 0, Robot.INDIVIDUAL_MAX_WEIGHT, 5000 }) {
+			new Trip("strategies.IndexedMailPool", 1, limit);
+		}
+	}
+
+	/**
+	 * A pool loading one robot, which carries at most 2000 unless told otherwise
+	 */
+	private static class Trip {
+
+		final SimulationContext context = new SimulationContext(12, 100, new SilentEventSink());
+		final IMailPool pool;
+		final Robot robot;
+
+		Trip(String pool, int tubeSlots) {
+			this(pool, tubeSlots, Robot.INDIVIDUAL_MAX_WEIGHT);
+		}
+
+		Trip(String pool, int tubeSlots, int carryMaxWeight) {
+			try {
+				this.pool = (IMailPool) Class.forName(pool).getConstructor(int.class).newInstance(1);
+			} catch (ReflectiveOperationException e) {
+				throw new AssertionError(e);
+			}
+			robot = new Robot(new Simulation.ReportDelivery(context), this.pool, context,
+					properties("Tube_Slots=" + tubeSlots, "Carry_Max_Weight=" + carryMaxWeight));
+		}
+
+		void add(int id, int floor, int weight) {
+			pool.addToPool(new MailItem(id, floor, 0, weight, false));
+		}
+
+		/**
+		 * @return the weight the robot was loaded with
+		 */
+		int load() throws Exception {
+			pool.registerWaiting(robot);
+			pool.step();
+			return robot.getLoad();
+		}
+
+		/**
+		 * @return the ids of the waiting mail, in priority order
+		 */
+		String waiting() {
+			List<Integer> ids = new ArrayList<Integer>();
+			for (MailItem mailItem : pool.snapshotMail()) {
+				ids.add(mailItem.getId());
+			}
+			return ids.toString();
+		}
+	}
+}
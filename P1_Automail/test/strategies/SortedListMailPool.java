@@ -0,0 +1,164 @@
+package strategies;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.ListIterator;
+
+import automail.MailItem;
+import automail.Robot;
+import events.IEventSink;
+import exceptions.BreakingFragileItemException;
+import exceptions.ItemTooHeavyException;
+
+/**
+ * MailPool as it was before it was partitioned: one list of the whole pool, sorted by floor,
+ * which each load walks item by item. It reports through the robot's event sink rather than
+ * System.out, but otherwise loads robots as it always did, and the pools which replaced it
+ * are checked against it. It knows nothing of carry limits or tubes of more than one slot.
+ */
+public class SortedListMailPool implements IMailPool {
+
+	private static class Item {
+		int destination;
+		MailItem mailItem;
+
+		public Item(MailItem mailItem) {
+			destination = mailItem.getDestFloor();
+			this.mailItem = mailItem;
+		}
+	}
+
+	private static class ItemComparator implements Comparator<Item> {
+		@Override
+		public int compare(Item i1, Item i2) {
+			int order = 0;
+			if (i1.destination > i2.destination) {  // Further before closer
+				order = 1;
+			} else if (i1.destination < i2.destination) {
+				order = -1;
+			}
+			return order;
+		}
+	}
+
+	private LinkedList<Item> pool;
+	private LinkedList<Robot> robots;
+
+	public SortedListMailPool(int nrobots) {
+		// Start empty
+		pool = new LinkedList<Item>();
+		robots = new LinkedList<Robot>();
+	}
+
+	public void addToPool(MailItem mailItem) {
+		Item item = new Item(mailItem);
+		pool.add(item);
+		pool.sort(new ItemComparator());
+	}
+
+	@Override
+	public void step() throws ItemTooHeavyException, BreakingFragileItemException {
+		ListIterator<Robot> i = robots.listIterator();
+		while (i.hasNext()) {
+			loadRobot(i);
+		}
+	}
+
+	private void loadRobot(ListIterator<Robot> i) throws ItemTooHeavyException, BreakingFragileItemException {
+		Robot robot = i.next();
+		IEventSink events = robot.getEvents();
+		events.message("NEXT EXISTS");
+		ListIterator<Item> j = pool.listIterator();
+		boolean caution_mode = robot.isCautionMode();
+		boolean fragile_mode = robot.isFragileMode();
+
+		if (fragile_mode == false) {
+			if (pool.size() > 0) {
+				robot.addToHand(j.next().mailItem); // hand first as we want higher priority delivered first
+				j.remove();
+				if (pool.size() > 0) {
+					robot.addToTube(j.next().mailItem);
+					j.remove();
+				}
+				robot.dispatch(); // send the robot off if it has any items to deliver
+				i.remove();       // remove from mailPool queue
+			}
+		}
+		else {
+			while (pool.size() > 0) {
+				Item current = j.next();
+
+				if (current.mailItem.getFragile() == true) {
+					events.message("SPECIAL ITEM CAME IN HOT");
+					if (caution_mode == false) {
+						events.message(" -But rejected cause caution mode off");
+						robot.getDelivery().reject(current.mailItem);
+						j.remove();
+						continue;
+					}
+					else {
+						if (robot.specialEmpty() == true) {
+							robot.addToSpecialHand(current.mailItem);
+							j.remove();
+							events.message("ADDED TO SPECIAL HAND");
+							continue;
+						}
+					}
+				}
+
+				else {
+					if (robot.handEmpty() == true) {
+						robot.addToHand(current.mailItem);
+						j.remove();
+						events.message("ADDED TO HAAAAAND");
+						continue;
+					}
+					if (robot.tubeEmpty() == true) {
+						robot.addToTube(current.mailItem);
+						j.remove();
+						events.message("ADDED TO TUUUUUUBE");
+						continue;
+					}
+				}
+
+				events.message("UNABLE TO ADD ITEM, SENDING ROBOT OFF");
+				break;
+			}
+			if (robot.isEmpty() == false) {
+				robot.dispatch(); // send the robot off if it has any items to deliver
+				i.remove();       // remove from mailPool queue
+			}
+		}
+	}
+
+	@Override
+	public void registerWaiting(Robot robot) { // assumes won't be there already
+		robots.add(robot);
+	}
+
+	@Override
+	public int size() {
+		return pool.size();
+	}
+
+	@Override
+	public int waitingRobots() {
+		return robots.size();
+	}
+
+	@Override
+	public List<MailItem> snapshotMail() {
+		List<MailItem> mail = new ArrayList<MailItem>(pool.size());
+		for (Item item : pool) {
+			mail.add(item.mailItem);
+		}
+		return mail;
+	}
+
+	@Override
+	public List<Robot> snapshotRobots() {
+		return new ArrayList<Robot>(robots);
+	}
+}